@@ -0,0 +1,25 @@
+package com.ihenjoy.registry.server;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author chi
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNum = new AtomicInteger(1);
+
+    private final String prefix;
+
+    DaemonThreadFactory(String prefix) {
+        this.prefix = prefix + "-thread-";
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + threadNum.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
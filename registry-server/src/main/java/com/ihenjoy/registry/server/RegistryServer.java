@@ -0,0 +1,267 @@
+package com.ihenjoy.registry.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 独立运行的注册中心服务端，基于jdk自带的http server，不依赖其他库，日志使用jdk自带的java.util.logging。
+ * 长轮询的请求不占用线程：等待期间请求挂起，变更或超时时由触发的线程写回响应。
+ * <p>
+ * 接口均为POST，请求和响应都是按行的文本，URL由客户端编码后不含空白：
+ * <pre>
+ * /session?timeout=ms                     创建会话，返回会话ID
+ * /heartbeat?session=ID                   会话续期，会话不存在时返回404
+ * /close?session=ID                       关闭会话，删除会话注册的节点
+ * /register?session=ID                    注册，每行"service category url"，不带会话时为持久节点
+ * /unregister?session=ID                  取消注册，格式同上，节点属于其他会话时返回403
+ * /update?session=ID                      更新节点对外的URL，每行"service category url published"，
+ *                                         节点不存在或属于其他会话时返回404，不带会话时为持久节点
+ * /watch?timeout=ms&epoch=E               长轮询，每行"service category version"，
+ *                                         任一分类的版本变化时返回，首行"@ epoch"为服务端本次启动的标识，
+ *                                         epoch与请求的不同时各分类都返回全量。
+ *                                         "= service category version"后为全量，
+ *                                         "~ service category version"后为增量，每行"+ url [published]"或"- url"
+ * </pre>
+ *
+ * @author chi
+ */
+public class RegistryServer {
+
+    private static final Logger logger = Logger.getLogger(RegistryServer.class.getName());
+
+    public static final int DEFAULT_PORT = 9090;
+
+    private static final long MAX_WATCH_TIMEOUT = 5 * 60 * 1000;
+
+    private final RegistryStore store = new RegistryStore();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+
+    public RegistryServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()), new DaemonThreadFactory("RegistryServer"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("RegistryServerTimer"));
+        server.setExecutor(executor);
+        server.createContext("/session", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> query, List<String> lines) throws IOException {
+                long timeout = Long.parseLong(get(query, "timeout", "30000"));
+                reply(exchange, 200, store.createSession(timeout));
+            }
+        });
+        server.createContext("/heartbeat", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> query, List<String> lines) throws IOException {
+                boolean alive = store.heartbeat(query.get("session"));
+                reply(exchange, alive ? 200 : 404, "");
+            }
+        });
+        server.createContext("/close", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> query, List<String> lines) throws IOException {
+                store.closeSession(query.get("session"));
+                reply(exchange, 200, "");
+            }
+        });
+        server.createContext("/register", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> query, List<String> lines) throws IOException {
+                String session = query.get("session");
+                for (String line : lines) {
+                    String[] fields = split(line, 3);
+                    if (!store.register(session, fields[0], fields[1], fields[2])) {
+                        reply(exchange, 404, "session expired");
+                        return;
+                    }
+                }
+                reply(exchange, 200, "");
+            }
+        });
+        server.createContext("/unregister", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> query, List<String> lines) throws IOException {
+                String session = query.get("session");
+                for (String line : lines) {
+                    String[] fields = split(line, 3);
+                    if (!store.unregister(session, fields[0], fields[1], fields[2])) {
+                        reply(exchange, 403, "registered by other session");
+                        return;
+                    }
+                }
+                reply(exchange, 200, "");
+            }
+        });
+        server.createContext("/update", new Handler() {
+            @Override
+            void handle(HttpExchange exchange, Map<String, String> query, List<String> lines) throws IOException {
+                String session = query.get("session");
+                for (String line : lines) {
+                    String[] fields = split(line, 4);
+                    if (!store.update(session, fields[0], fields[1], fields[2], fields[3])) {
+                        reply(exchange, 404, "not registered");
+                        return;
+                    }
+                }
+                reply(exchange, 200, "");
+            }
+        });
+        server.createContext("/watch", new Handler() {
+            @Override
+            void handle(final HttpExchange exchange, Map<String, String> query, List<String> lines) throws IOException {
+                long timeout = Math.min(MAX_WATCH_TIMEOUT, Long.parseLong(get(query, "timeout", "30000")));
+                // 客户端的版本来自之前的服务端实例
+                String epoch = query.get("epoch");
+                boolean restarted = epoch != null && !epoch.isEmpty() && !epoch.equals(store.getEpoch());
+                final RegistryStore.Watch watch = new RegistryStore.Watch() {
+                    @Override
+                    protected void complete(String changes) {
+                        try {
+                            reply(exchange, 200, "@ " + store.getEpoch() + "\n" + changes);
+                        } catch (IOException e) {
+                            // 客户端已断开
+                            exchange.close();
+                        }
+                    }
+                };
+                for (String line : lines) {
+                    String[] fields = split(line, 3);
+                    watch.add(fields[0], fields[1], restarted ? -1 : Long.parseLong(fields[2]));
+                }
+                // 加入后才计时，超时触发时分类已确定
+                store.watch(watch);
+                if (timeout <= 0) {
+                    watch.fire();
+                } else {
+                    scheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            watch.fire();
+                        }
+                    }, timeout, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                store.expire();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public RegistryStore getStore() {
+        return store;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        RegistryServer server = new RegistryServer(port);
+        server.start();
+        logger.info("Registry server started on port " + server.getPort());
+    }
+
+    private static String[] split(String line, int count) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length != count) {
+            throw new IllegalArgumentException("Illegal line: " + line);
+        }
+        return fields;
+    }
+
+    private static String get(Map<String, String> query, String key, String defaultValue) {
+        String value = query.get(key);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    /**
+     * 解析查询参数和按行的请求体，请求错误时返回400，其他异常返回500
+     */
+    private abstract static class Handler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()), readLines(exchange));
+            } catch (IllegalArgumentException e) {
+                reply(exchange, 400, String.valueOf(e.getMessage()));
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to handle " + exchange.getRequestURI() + ", cause: " + e.getMessage(), e);
+                try {
+                    reply(exchange, 500, String.valueOf(e.getMessage()));
+                } catch (IOException ignored) {
+                    // 客户端已断开
+                    exchange.close();
+                }
+            }
+        }
+
+        abstract void handle(HttpExchange exchange, Map<String, String> query, List<String> lines) throws IOException;
+
+        private static Map<String, String> parseQuery(String query) throws IOException {
+            Map<String, String> result = new HashMap<>();
+            if (query == null) return result;
+            for (String pair : query.split("&")) {
+                int i = pair.indexOf('=');
+                if (i <= 0) continue;
+                result.put(pair.substring(0, i), URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+            }
+            return result;
+        }
+
+        private static List<String> readLines(HttpExchange exchange) throws IOException {
+            List<String> lines = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) lines.add(line);
+            }
+            return lines;
+        }
+    }
+}
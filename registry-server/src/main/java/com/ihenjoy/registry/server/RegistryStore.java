@@ -0,0 +1,360 @@
+package com.ihenjoy.registry.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 注册数据。每个服务分类有递增的版本号和最近的变更记录，
+ * 客户端带上已知的版本号即可只取之后的变更，变更记录已被丢弃时返回全量。
+ * 会话超时后删除会话注册的节点，相当于zookeeper的临时节点。
+ *
+ * @author chi
+ */
+public class RegistryStore {
+
+    // 每个分类保留的变更数
+    private static final int MAX_CHANGES = 1000;
+
+    private final ConcurrentMap<String, Category> categories = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    // 每次启动不同，重启后版本号从0开始，客户端据此丢弃之前的版本
+    private final String epoch = UUID.randomUUID().toString();
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public String createSession(long timeout) {
+        Session session = new Session(UUID.randomUUID().toString(), timeout);
+        sessions.put(session.id, session);
+        return session.id;
+    }
+
+    /**
+     * @return 会话不存在或已超时时为false
+     */
+    public boolean heartbeat(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null) return false;
+        session.expireAt = System.currentTimeMillis() + session.timeout;
+        return true;
+    }
+
+    public void closeSession(String sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session != null) session.close();
+    }
+
+    /**
+     * 删除超时的会话
+     */
+    public void expire() {
+        long now = System.currentTimeMillis();
+        for (Session session : sessions.values()) {
+            if (session.expireAt < now && sessions.remove(session.id, session)) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * @param sessionId 为null时为持久节点
+     * @return 会话不存在时为false
+     */
+    public boolean register(String sessionId, String service, String category, String url) {
+        Session session = null;
+        if (sessionId != null) {
+            session = sessions.get(sessionId);
+            if (session == null) return false;
+            session.add(service, category, url);
+        }
+        getCategory(service, category).add(url, sessionId);
+        return true;
+    }
+
+    /**
+     * 替换已注册节点对外的URL，节点不变
+     *
+     * @param sessionId 注册节点的会话，持久节点为null
+     * @return 节点不存在或属于其他会话时为false
+     */
+    public boolean update(String sessionId, String service, String category, String url, String published) {
+        return getCategory(service, category).update(url, published, sessionId);
+    }
+
+    /**
+     * @param sessionId 注册节点的会话，持久节点为null
+     * @return 节点属于其他会话时为false，节点不存在时为true
+     */
+    public boolean unregister(String sessionId, String service, String category, String url) {
+        if (!getCategory(service, category).remove(url, sessionId)) return false;
+        if (sessionId != null) {
+            Session session = sessions.get(sessionId);
+            if (session != null) session.remove(service, category, url);
+        }
+        return true;
+    }
+
+    /**
+     * 等待任一分类的版本超过已知的版本，立即满足时同步回调
+     */
+    public void watch(Watch watch) {
+        for (Watch.Key key : watch.keys) {
+            key.category = getCategory(key.service, key.name);
+        }
+        for (Watch.Key key : watch.keys) {
+            key.category.watch(watch);
+        }
+        for (Watch.Key key : watch.keys) {
+            if (key.category.version() != key.version) {
+                watch.fire();
+                return;
+            }
+        }
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    private Category getCategory(String service, String category) {
+        String key = service + " " + category;
+        Category c = categories.get(key);
+        if (c == null) {
+            categories.putIfAbsent(key, new Category(service, category));
+            c = categories.get(key);
+        }
+        return c;
+    }
+
+    /**
+     * 服务分类的节点、版本和变更记录
+     */
+    static final class Category {
+        private final String service;
+        private final String name;
+        // guarded by this
+        private long version;
+        // url -> 会话，持久节点为null
+        private final Map<String, String> urls = new LinkedHashMap<>();
+        // url -> 更新后对外的url
+        private final Map<String, String> published = new HashMap<>();
+        private final ArrayDeque<Change> changes = new ArrayDeque<>();
+        private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+
+        Category(String service, String name) {
+            this.service = service;
+            this.name = name;
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        void add(String url, String session) {
+            synchronized (this) {
+                boolean exists = urls.containsKey(url);
+                urls.put(url, session);
+                if (exists) return;
+                change(true, url, null);
+            }
+            fire();
+        }
+
+        /**
+         * @param session 注册节点的会话，持久节点为null
+         */
+        boolean update(String url, String latest, String session) {
+            synchronized (this) {
+                if (!urls.containsKey(url) || !Objects.equals(session, urls.get(url))) return false;
+                if (latest.equals(published.put(url, latest))) return true;
+                change(true, url, latest);
+            }
+            fire();
+            return true;
+        }
+
+        /**
+         * 只删除该会话注册的节点
+         *
+         * @param session 注册节点的会话，持久节点为null
+         * @return 节点属于其他会话时为false
+         */
+        boolean remove(String url, String session) {
+            synchronized (this) {
+                if (!urls.containsKey(url)) return true;
+                if (!Objects.equals(session, urls.get(url))) return false;
+                urls.remove(url);
+                published.remove(url);
+                change(false, url, null);
+            }
+            fire();
+            return true;
+        }
+
+        void watch(Watch watch) {
+            watches.add(watch);
+            // 并发结束的等待不再保留
+            if (watch.isDone()) watches.remove(watch);
+        }
+
+        void unwatch(Watch watch) {
+            watches.remove(watch);
+        }
+
+        /**
+         * 写出since之后的变更，版本相同时不写出
+         */
+        synchronized void since(long since, StringBuilder out) {
+            if (since == version) return;
+            Change first = changes.peekFirst();
+            if (since >= 0 && since < version && first != null && first.version <= since + 1) {
+                out.append("~ ").append(service).append(' ').append(name).append(' ').append(version).append('\n');
+                for (Change change : changes) {
+                    if (change.version <= since) continue;
+                    out.append(change.added ? "+ " : "- ").append(change.url);
+                    if (change.published != null) out.append(' ').append(change.published);
+                    out.append('\n');
+                }
+            } else {
+                out.append("= ").append(service).append(' ').append(name).append(' ').append(version).append('\n');
+                for (String url : urls.keySet()) {
+                    out.append("+ ").append(url);
+                    String latest = published.get(url);
+                    if (latest != null) out.append(' ').append(latest);
+                    out.append('\n');
+                }
+            }
+        }
+
+        // guarded by this
+        private void change(boolean added, String url, String published) {
+            version++;
+            changes.addLast(new Change(version, added, url, published));
+            if (changes.size() > MAX_CHANGES) changes.removeFirst();
+        }
+
+        private void fire() {
+            for (Watch watch : watches) {
+                watch.fire();
+            }
+        }
+    }
+
+    private static final class Change {
+        final long version;
+        final boolean added;
+        final String url;
+        // 更新后对外的url，未更新时为null
+        final String published;
+
+        Change(long version, boolean added, String url, String published) {
+            this.version = version;
+            this.added = added;
+            this.url = url;
+            this.published = published;
+        }
+    }
+
+    /**
+     * 一次长轮询，等待的全部分类中任一变更时结束
+     */
+    public abstract static class Watch {
+        private final List<Key> keys = new ArrayList<>();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        public void add(String service, String category, long version) {
+            keys.add(new Key(service, category, version));
+        }
+
+        boolean isDone() {
+            return done.get();
+        }
+
+        /**
+         * 结束等待并回调变更，超时时变更为空。只回调一次
+         */
+        public void fire() {
+            if (!done.compareAndSet(false, true)) return;
+            StringBuilder out = new StringBuilder();
+            for (Key key : keys) {
+                key.category.unwatch(this);
+                key.category.since(key.version, out);
+            }
+            complete(out.toString());
+        }
+
+        protected abstract void complete(String changes);
+
+        private static final class Key {
+            final String service;
+            final String name;
+            final long version;
+            Category category;
+
+            Key(String service, String name, long version) {
+                this.service = service;
+                this.name = name;
+                this.version = version;
+            }
+        }
+    }
+
+    /**
+     * 会话及其注册的节点
+     */
+    private final class Session {
+        final String id;
+        final long timeout;
+        volatile long expireAt;
+        // guarded by this，service category -> urls
+        private final Map<String, Set<String>> urls = new HashMap<>();
+
+        Session(String id, long timeout) {
+            this.id = id;
+            this.timeout = timeout;
+            this.expireAt = System.currentTimeMillis() + timeout;
+        }
+
+        synchronized void add(String service, String category, String url) {
+            String key = service + " " + category;
+            Set<String> set = urls.get(key);
+            if (set == null) {
+                set = new HashSet<>();
+                urls.put(key, set);
+            }
+            set.add(url);
+        }
+
+        synchronized void remove(String service, String category, String url) {
+            Set<String> set = urls.get(service + " " + category);
+            if (set != null) set.remove(url);
+        }
+
+        void close() {
+            Map<String, Set<String>> copy;
+            synchronized (this) {
+                copy = new HashMap<>(urls);
+                urls.clear();
+            }
+            for (Map.Entry<String, Set<String>> entry : copy.entrySet()) {
+                Category category = categories.get(entry.getKey());
+                if (category == null) continue;
+                for (String url : entry.getValue()) {
+                    category.remove(url, id);
+                }
+            }
+        }
+    }
+}
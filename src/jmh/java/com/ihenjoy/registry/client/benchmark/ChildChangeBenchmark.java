@@ -0,0 +1,82 @@
+package com.ihenjoy.registry.client.benchmark;
+
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.provider.zookeeper.ZookeeperRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从提供者节点变更到监听器收到通知的完整链路，使用进程内的zookeeper
+ *
+ * @author chi
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChildChangeBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int providers;
+
+    private TestZookeeper zookeeper;
+    private ZookeeperRegistry provider;
+    private ZookeeperRegistry consumer;
+    private URL changing;
+    private boolean registered;
+    private final SynchronousQueue<Integer> notified = new SynchronousQueue<>();
+
+    @Setup
+    public void setup() throws Exception {
+        zookeeper = TestZookeeper.start();
+        provider = new ZookeeperRegistry(zookeeper.registryUrl());
+        provider.registerAll(Providers.providers(0, providers));
+        changing = URL.valueOf(Providers.provider(providers));
+
+        consumer = new ZookeeperRegistry(zookeeper.registryUrl().withParameter("notify.window", "0"));
+        consumer.subscribe(URL.valueOf("consumer://10.255.0.1/" + Providers.SERVICE), new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                try {
+                    notified.offer(urls.size(), 10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        consumer.destroy();
+        provider.destroy();
+        zookeeper.stop();
+    }
+
+    @Benchmark
+    public Integer childChange() throws Exception {
+        registered = !registered;
+        if (registered)
+            provider.register(changing);
+        else
+            provider.unregister(changing);
+        return notified.poll(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ihenjoy.registry.client.benchmark;
+
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.provider.zookeeper.ZookeeperRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZookeeperRegistry.notify按分类分组并计算增量的开销，
+ * 每次调用在两份相差一个提供者的列表之间切换，模拟滚动发布
+ *
+ * @author chi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotifyBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int providers;
+
+    private TestZookeeper zookeeper;
+    private ZookeeperRegistry registry;
+    private URL consumer;
+    private List<URL> before;
+    private List<URL> after;
+    private boolean flip;
+    private Blackhole blackhole;
+    private final NotifyListener listener = new NotifyListener() {
+        @Override
+        public void notify(List<URL> urls) {
+            blackhole.consume(urls);
+        }
+    };
+
+    @Setup
+    public void setup(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        zookeeper = TestZookeeper.start();
+        registry = new ZookeeperRegistry(zookeeper.registryUrl());
+        consumer = URL.valueOf("consumer://10.255.0.1/" + Providers.SERVICE);
+        before = Providers.providers(0, providers);
+        after = Providers.providers(1, providers);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        registry.destroy();
+        zookeeper.stop();
+    }
+
+    @Benchmark
+    public void notifyGrouping() {
+        flip = !flip;
+        registry.notify(consumer, listener, flip ? before : after);
+    }
+}
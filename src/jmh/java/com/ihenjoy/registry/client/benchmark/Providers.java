@@ -0,0 +1,34 @@
+package com.ihenjoy.registry.client.benchmark;
+
+import com.ihenjoy.registry.client.common.URL;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 测试用的提供者数据
+ *
+ * @author chi
+ */
+final class Providers {
+
+    static final String SERVICE = "com.ihenjoy.demo.DemoService";
+
+    private Providers() {
+    }
+
+    static String provider(int i) {
+        return "dubbo://10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff) + ":20880/" + SERVICE
+                + "?anyhost=true&application=demo-provider&category=providers&dubbo=2.5.3&group=default"
+                + "&interface=" + SERVICE + "&methods=sayHello,sayBye,echo&pid=" + (1000 + i)
+                + "&revision=1.0.0&side=provider&timestamp=1457000000000&version=1.0.0&weight=100";
+    }
+
+    static List<URL> providers(int from, int count) {
+        List<URL> urls = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            urls.add(URL.valueOf(provider(i)));
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,59 @@
+package com.ihenjoy.registry.client.benchmark;
+
+import com.ihenjoy.registry.client.common.URL;
+import org.I0Itec.zkclient.IDefaultNameSpace;
+import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.ZkServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * 进程内的zookeeper服务端，数据目录在临时目录下
+ *
+ * @author chi
+ */
+final class TestZookeeper {
+
+    private final File dir;
+    private final int port;
+    private final ZkServer server;
+
+    private TestZookeeper(File dir, int port) {
+        this.dir = dir;
+        this.port = port;
+        this.server = new ZkServer(new File(dir, "data").getPath(), new File(dir, "log").getPath(), new IDefaultNameSpace() {
+            @Override
+            public void createDefaultNameSpace(ZkClient zkClient) {
+            }
+        }, port);
+    }
+
+    static TestZookeeper start() throws IOException {
+        File dir = File.createTempFile("zookeeper", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        TestZookeeper zookeeper = new TestZookeeper(dir, freePort());
+        zookeeper.server.start();
+        return zookeeper;
+    }
+
+    URL registryUrl() {
+        return URL.valueOf("zookeeper://127.0.0.1:" + port + "?file=" + new File(dir, "registry.cache").getPath());
+    }
+
+    void stop() {
+        server.shutdown();
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.ihenjoy.registry.client.benchmark;
+
+import com.ihenjoy.registry.client.common.URL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * URL解析、编码、比较的开销
+ *
+ * @author chi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class URLBenchmark {
+
+    private String provider;
+    private String encoded;
+    private URL url;
+    private URL equalUrl;
+    private Map<URL, Boolean> urls;
+
+    @Setup
+    public void setup() {
+        provider = Providers.provider(1);
+        url = URL.valueOf(provider);
+        encoded = URL.encode(provider);
+        equalUrl = URL.valueOf(provider);
+        urls = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            urls.put(URL.valueOf(Providers.provider(i)), Boolean.TRUE);
+        }
+    }
+
+    @Benchmark
+    public URL valueOf() {
+        return URL.valueOf(provider);
+    }
+
+    // 消费者通常只读取少量参数
+    @Benchmark
+    public int valueOfAndRead() {
+        URL u = URL.valueOf(provider);
+        return u.getParameter("category").length() + u.getParameter("version").length() + u.getParameter("weight", 0);
+    }
+
+    @Benchmark
+    public Map<String, String> valueOfAndParameters() {
+        return URL.valueOf(provider).getParameters();
+    }
+
+    @Benchmark
+    public String toFullString() {
+        return url.toFullString();
+    }
+
+    // 新实例上首次构建完整字符串
+    @Benchmark
+    public String buildFullString() {
+        return url.withPort(url.getPort() + 1).toFullString();
+    }
+
+    @Benchmark
+    public String encode() {
+        return URL.encode(provider);
+    }
+
+    @Benchmark
+    public String decode() {
+        return URL.decode(encoded);
+    }
+
+    @Benchmark
+    public URL decodeAndValueOf() {
+        return URL.valueOf(URL.decode(encoded));
+    }
+
+    @Benchmark
+    public Boolean mapLookup() {
+        return urls.get(equalUrl);
+    }
+
+    @Benchmark
+    public boolean equalsNotSame() {
+        return url.equals(equalUrl);
+    }
+}
@@ -1,14 +1,28 @@
 package com.ihenjoy.registry.client;
 
 import com.ihenjoy.registry.client.api.RegistryService;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.metrics.PrefixedRegistryMetrics;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+import com.ihenjoy.registry.client.provider.federation.FederatedRegistry;
+import com.ihenjoy.registry.client.provider.http.HttpRegistryFactory;
+import com.ihenjoy.registry.client.provider.memory.MemoryRegistryFactory;
 import com.ihenjoy.registry.client.provider.zookeeper.ZookeeperRegistryFactory;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * @author chi
  */
 public abstract class DefaultRegistryConfig {
 
+    private volatile RegistryConfig registryConfig;
+
     @Bean
     public RegistrySettings registrySettings() {
         return new RegistrySettings();
@@ -18,15 +32,49 @@ public abstract class DefaultRegistryConfig {
     public RegistryService registryService() {
         RegistryService registryService = createRegistryService();
         RegistrySettings settings = registrySettings();
-        registry(new RegistryConfig(registryService, settings.getLocalPort()));
+        this.registryConfig = new RegistryConfig(registryService, settings.getLocalPort(), settings.isDeferRegister());
+        registry(registryConfig);
         return registryService;
     }
 
+    /**
+     * 容器刷新完成、实例可以提供服务后，提交推迟的注册
+     */
+    @Bean
+    public ApplicationListener<ContextRefreshedEvent> registryStartupListener() {
+        return new ApplicationListener<ContextRefreshedEvent>() {
+            @Override
+            public void onApplicationEvent(ContextRefreshedEvent event) {
+                RegistryConfig config = registryConfig;
+                if (config != null) {
+                    config.flush();
+                }
+            }
+        };
+    }
+
     private RegistryService createRegistryService() {
         RegistrySettings settings = registrySettings();
+        if (settings.getZoneServers().isEmpty()) {
+            return createRegistryService(settings, settings.getMetrics(), settings.getServer());
+        }
+        Map<String, RegistryService> registries = new LinkedHashMap<>();
+        for (Map.Entry<String, URL> entry : settings.getZoneServers().entrySet()) {
+            // 各机房的指标按机房名加前缀
+            RegistryMetrics metrics = new PrefixedRegistryMetrics(settings.getMetrics(), "zone." + entry.getKey() + ".");
+            registries.put(entry.getKey(), createRegistryService(settings, metrics, entry.getValue()));
+        }
+        return new FederatedRegistry(settings.getZone(), registries, Constants.DEFAULT_FEDERATION_TIMEOUT);
+    }
+
+    private RegistryService createRegistryService(RegistrySettings settings, RegistryMetrics metrics, URL server) {
         switch (settings.getRegistryType()) {
             case Zookeeper:
-                return new ZookeeperRegistryFactory().getRegistry(settings.getServer());
+                return new ZookeeperRegistryFactory(metrics, settings.getNotifyExecutor()).getRegistry(server);
+            case Memory:
+                return new MemoryRegistryFactory(metrics, settings.getNotifyExecutor()).getRegistry(server);
+            case Http:
+                return new HttpRegistryFactory(metrics, settings.getNotifyExecutor()).getRegistry(server);
             default:
                 throw new IllegalStateException("not support type :" + settings.getRegistryType());
         }
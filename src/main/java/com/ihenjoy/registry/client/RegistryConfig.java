@@ -3,32 +3,206 @@ package com.ihenjoy.registry.client;
 
 import com.ihenjoy.registry.client.api.NotifyListener;
 import com.ihenjoy.registry.client.api.RegistryService;
+import com.ihenjoy.registry.client.api.ServiceSnapshot;
+import com.ihenjoy.registry.client.common.Constants;
 import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.support.LoadReporter;
+import com.ihenjoy.registry.client.support.ServiceSnapshotListener;
 import com.ihenjoy.registry.client.util.NetworkUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author chi
  */
 public class RegistryConfig {
+    private static final Logger logger = LoggerFactory.getLogger(RegistryConfig.class);
+
     private final int port;
     private final RegistryService registryService;
+    private final boolean deferRegister;
+    // 推迟提交的注册，guarded by this
+    private final List<URL> deferred = new ArrayList<>();
+    // 推迟提交的注册中需要发布负载的URL，guarded by this
+    private final Map<URL, LoadReporter> deferredReporters = new HashMap<>();
+    private boolean flushed;
+    // 推迟的注册全部提交完成
+    private final CompletableFuture<Void> registered = new CompletableFuture<>();
 
     public RegistryConfig(RegistryService registryService, int port) {
+        this(registryService, port, false);
+    }
+
+    /**
+     * @param deferRegister 为true时注册先暂存，调用{@link #flush()}后批量提交
+     */
+    public RegistryConfig(RegistryService registryService, int port, boolean deferRegister) {
         this.port = port;
         this.registryService = registryService;
+        this.deferRegister = deferRegister;
     }
 
 
     public void register(URL url) {
-        URL registerUrl = url.withParameter("_t", MessageFormat.format("{0}:{1}", NetworkUtils.localIP(), port));
+        URL registerUrl = tag(url);
+        if (defer(Collections.singletonList(registerUrl))) return;
         this.registryService.register(registerUrl);
     }
 
+    public void registerAll(Collection<URL> urls) {
+        List<URL> registerUrls = tagAll(urls);
+        if (defer(registerUrls)) return;
+        this.registryService.registerAll(registerUrls);
+    }
+
+    /**
+     * 注册并返回负载发布器，提供者通过它更新权重和处理中请求数，消费端用{@link ServiceSnapshot#weighted()}选择。
+     * 初始注册完成后才开始发布变更。推迟注册时预热从批量提交时开始，取消注册使用{@link LoadReporter#getRegisteredUrl()}
+     *
+     * @param warmup 预热时长，毫秒，0表示不预热
+     */
+    public LoadReporter registerWithLoad(URL url, int warmup) {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(Constants.WEIGHT_KEY, String.valueOf(url.getParameter(Constants.WEIGHT_KEY, Constants.DEFAULT_WEIGHT)));
+        parameters.put(Constants.LOAD_KEY, "0");
+        if (warmup > 0) {
+            parameters.put(Constants.WARMUP_KEY, String.valueOf(warmup));
+            parameters.put(Constants.START_KEY, String.valueOf(System.currentTimeMillis()));
+        }
+        URL registerUrl = tag(url).withParameters(parameters);
+        LoadReporter reporter = new LoadReporter(registryService, registerUrl, Constants.DEFAULT_LOAD_REPORT_INTERVAL);
+        if (defer(registerUrl, reporter)) {
+            // 批量提交失败时URL进入重试，同样开始发布，未注册期间失败的发布按间隔再次尝试
+            registered.whenComplete((v, t) -> reporter.start());
+        } else {
+            this.registryService.register(registerUrl);
+            reporter.start();
+        }
+        return reporter;
+    }
+
+    /**
+     * 异步注册，不阻塞spring容器的初始化。推迟注册时在批量提交完成后结束
+     */
+    public CompletableFuture<Void> registerAsync(URL url) {
+        URL registerUrl = tag(url);
+        if (defer(Collections.singletonList(registerUrl))) return registered.thenApply(v -> v);
+        return this.registryService.registerAsync(registerUrl);
+    }
+
+    public CompletableFuture<Void> registerAllAsync(Collection<URL> urls) {
+        List<URL> registerUrls = tagAll(urls);
+        if (defer(registerUrls)) return registered.thenApply(v -> v);
+        return this.registryService.registerAllAsync(registerUrls);
+    }
+
+    /**
+     * 批量、并行地提交暂存的注册，之后的注册直接提交。重复调用只提交一次
+     */
+    public CompletableFuture<Void> flush() {
+        List<URL> urls;
+        synchronized (this) {
+            if (flushed) return registered.thenApply(v -> v);
+            flushed = true;
+            long now = System.currentTimeMillis();
+            urls = new ArrayList<>(deferred.size());
+            for (URL url : deferred) {
+                LoadReporter reporter = deferredReporters.get(url);
+                if (reporter != null) {
+                    reporter.resetStart(now);
+                    url = reporter.getRegisteredUrl();
+                }
+                urls.add(url);
+            }
+            deferred.clear();
+            deferredReporters.clear();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Register " + urls.size() + " deferred urls");
+        }
+        registryService.registerAllAsync(urls).whenComplete((v, t) -> {
+            if (t == null) {
+                registered.complete(null);
+            } else {
+                logger.warn("Failed to register deferred urls, waiting for retry, cause: " + t.getMessage(), t);
+                registered.completeExceptionally(t);
+            }
+        });
+        return registered.thenApply(v -> v);
+    }
+
+    private boolean defer(List<URL> urls) {
+        if (!deferRegister) return false;
+        synchronized (this) {
+            if (flushed) return false;
+            deferred.addAll(urls);
+            return true;
+        }
+    }
+
+    private boolean defer(URL url, LoadReporter reporter) {
+        if (!deferRegister) return false;
+        synchronized (this) {
+            if (flushed) return false;
+            deferred.add(url);
+            deferredReporters.put(url, reporter);
+            return true;
+        }
+    }
+
+    private List<URL> tagAll(Collection<URL> urls) {
+        List<URL> registerUrls = new ArrayList<>(urls.size());
+        for (URL url : urls) {
+            registerUrls.add(tag(url));
+        }
+        return registerUrls;
+    }
+
+    private URL tag(URL url) {
+        return url.withParameter("_t", MessageFormat.format("{0}:{1}", NetworkUtils.localIP(), port));
+    }
+
 
     public void subscribe(URL url, NotifyListener notifyListener) {
-        if (url.getPort() <= 0) url.setPort(this.port);
-        this.registryService.subscribe(url, notifyListener);
+        URL subscribeUrl = url.getPort() <= 0 ? url.withPort(this.port) : url;
+        this.registryService.subscribe(subscribeUrl, notifyListener);
+    }
+
+    /**
+     * 订阅并由注册中心维护服务快照，调用路径上通过{@link ServiceSnapshotListener#get()}选择提供者
+     *
+     * @param indexKeys 需要预先分组的提供者参数，如version、group、zone
+     */
+    public ServiceSnapshotListener subscribeSnapshot(URL url, String... indexKeys) {
+        ServiceSnapshotListener listener = new ServiceSnapshotListener(url.getService(), indexKeys);
+        subscribe(url, listener);
+        return listener;
+    }
+
+    /**
+     * 批量订阅，启动时一次订阅全部依赖的服务，首次通知全部完成后返回
+     */
+    public void subscribeAll(Map<URL, NotifyListener> subscriptions) {
+        Map<URL, NotifyListener> subscribeUrls = new LinkedHashMap<>();
+        for (Map.Entry<URL, NotifyListener> entry : subscriptions.entrySet()) {
+            URL url = entry.getKey();
+            subscribeUrls.put(url.getPort() <= 0 ? url.withPort(this.port) : url, entry.getValue());
+        }
+        this.registryService.subscribeAll(subscribeUrls);
+    }
+
+    public CompletableFuture<Void> subscribeAsync(URL url, NotifyListener notifyListener) {
+        URL subscribeUrl = url.getPort() <= 0 ? url.withPort(this.port) : url;
+        return this.registryService.subscribeAsync(subscribeUrl, notifyListener);
     }
 }
@@ -1,8 +1,14 @@
 package com.ihenjoy.registry.client;
 
+import com.ihenjoy.registry.client.metrics.DefaultRegistryMetrics;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
 import com.ihenjoy.registry.client.provider.RegistryType;
 import com.ihenjoy.registry.client.common.URL;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
 /**
  * @author chi
  */
@@ -14,6 +20,20 @@ public class RegistrySettings {
 
     private RegistryType registryType;
 
+    private RegistryMetrics metrics = new DefaultRegistryMetrics();
+
+    // 注册推迟到容器刷新完成后批量提交，避免流量进入尚未初始化完成的实例
+    private boolean deferRegister;
+
+    // 多个注册中心联合时的机房 -> 注册中心地址，不为空时代替server
+    private Map<String, URL> zoneServers = new LinkedHashMap<>();
+
+    // 本机房，联合时优先使用本机房注册中心的提供者
+    private String zone;
+
+    // 执行监听器的执行器，为空时按server上的executor参数创建线程池或虚拟线程
+    private Executor notifyExecutor;
+
     public RegistryType getRegistryType() {
         return registryType;
     }
@@ -37,4 +57,44 @@ public class RegistrySettings {
     public void setLocalPort(int localPort) {
         this.localPort = localPort;
     }
+
+    public RegistryMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(RegistryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public boolean isDeferRegister() {
+        return deferRegister;
+    }
+
+    public void setDeferRegister(boolean deferRegister) {
+        this.deferRegister = deferRegister;
+    }
+
+    public Map<String, URL> getZoneServers() {
+        return zoneServers;
+    }
+
+    public void setZoneServers(Map<String, URL> zoneServers) {
+        this.zoneServers = zoneServers;
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public void setZone(String zone) {
+        this.zone = zone;
+    }
+
+    public Executor getNotifyExecutor() {
+        return notifyExecutor;
+    }
+
+    public void setNotifyExecutor(Executor notifyExecutor) {
+        this.notifyExecutor = notifyExecutor;
+    }
 }
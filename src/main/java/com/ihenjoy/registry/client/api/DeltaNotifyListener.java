@@ -0,0 +1,14 @@
+package com.ihenjoy.registry.client.api;
+
+/**
+ * @author chi
+ *         增量变更监听器，注册中心只回调{@link #notify(NotifyEvent)}
+ */
+public interface DeltaNotifyListener extends NotifyListener {
+    /**
+     * 增量变更事件，每个分类单独通知
+     *
+     * @param event 相对上次通知的变更
+     */
+    void notify(NotifyEvent event);
+}
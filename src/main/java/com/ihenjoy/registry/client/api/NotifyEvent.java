@@ -0,0 +1,113 @@
+package com.ihenjoy.registry.client.api;
+
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author chi
+ *         某个订阅在某个分类下相对上次通知的变更
+ */
+public final class NotifyEvent {
+    private final URL url;
+    private final String category;
+    private final long version;
+    private final List<URL> urls;
+    private final Set<URL> added;
+    private final Set<URL> removed;
+    private final Set<URL> unchanged;
+
+    private NotifyEvent(URL url, String category, long version, List<URL> urls, Set<URL> added, Set<URL> removed, Set<URL> unchanged) {
+        this.url = url;
+        this.category = category;
+        this.version = version;
+        this.urls = urls;
+        this.added = added;
+        this.removed = removed;
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * 计算两次通知之间的变更
+     *
+     * @param url      订阅信息
+     * @param category 分类
+     * @param version  通知版本号，单调递增
+     * @param previous 上次通知的列表，首次通知为null
+     * @param current  本次通知的全量列表
+     */
+    public static NotifyEvent diff(URL url, String category, long version, Collection<URL> previous, List<URL> current) {
+        Set<URL> before = previous == null ? Collections.<URL>emptySet() : new HashSet<>(previous);
+        Set<URL> added = new LinkedHashSet<>();
+        Set<URL> unchanged = new LinkedHashSet<>();
+        for (URL u : current) {
+            if (before.contains(u))
+                unchanged.add(u);
+            else
+                added.add(u);
+        }
+        Set<URL> removed = new LinkedHashSet<>();
+        if (previous != null) {
+            for (URL u : previous) {
+                if (!unchanged.contains(u)) removed.add(u);
+            }
+        }
+        return new NotifyEvent(url, category, version, Collections.unmodifiableList(new ArrayList<>(current)),
+                Collections.unmodifiableSet(added), Collections.unmodifiableSet(removed), Collections.unmodifiableSet(unchanged));
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 本次通知后的全量列表
+     */
+    public List<URL> getUrls() {
+        return urls;
+    }
+
+    public Set<URL> getAdded() {
+        return added;
+    }
+
+    public Set<URL> getRemoved() {
+        return removed;
+    }
+
+    public Set<URL> getUnchanged() {
+        return unchanged;
+    }
+
+    public boolean hasChanges() {
+        return !added.isEmpty() || !removed.isEmpty();
+    }
+
+    /**
+     * 分类下没有任何节点，此时列表中只有一个empty协议的占位URL
+     */
+    public boolean isEmpty() {
+        return urls.size() == 1 && Constants.EMPTY_PROTOCOL.equals(urls.get(0).getProtocol());
+    }
+
+    @Override
+    public String toString() {
+        return "NotifyEvent{url=" + url + ", category=" + category + ", version=" + version
+                + ", added=" + added.size() + ", removed=" + removed.size() + ", unchanged=" + unchanged.size() + '}';
+    }
+}
@@ -1,10 +1,19 @@
 package com.ihenjoy.registry.client.api;
 
 import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.exception.RegistryException;
+import com.ihenjoy.registry.client.util.Futures;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author chi
  *         注册接口
+ *         异步方法默认在调用线程上同步执行，实现可基于注册中心的异步接口覆盖
  */
 public interface RegistryService {
 
@@ -15,6 +24,28 @@ public interface RegistryService {
      */
     void register(URL url);
 
+    /**
+     * 批量注册服务，部分失败时已成功的不回滚，失败的等待重试。
+     * 默认逐个注册，实现可基于注册中心的批量接口覆盖
+     *
+     * @param urls 注册服务信息
+     */
+    default void registerAll(Collection<URL> urls) {
+        RuntimeException cause = null;
+        int failed = 0;
+        for (URL url : urls) {
+            try {
+                register(url);
+            } catch (RuntimeException e) {
+                cause = e;
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new RegistryException("Failed to register " + failed + " of " + urls.size() + " urls, cause: " + cause.getMessage(), cause);
+        }
+    }
+
     /**
      * 取消注册
      *
@@ -22,6 +53,17 @@ public interface RegistryService {
      */
     void unregister(URL url);
 
+    /**
+     * 更新已注册URL上的参数，如权重、负载。注册的节点不变，订阅方收到参数更新后的URL，
+     * 取消注册仍使用注册时的URL。
+     * 默认不支持，抛出{@link UnsupportedOperationException}，实现可基于注册中心的更新接口覆盖
+     *
+     * @param url        注册时的URL
+     * @param parameters 更新的参数
+     */
+    default void update(URL url, Map<String, String> parameters) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support update");
+    }
 
     /**
      * 订阅相关服务
@@ -38,4 +80,62 @@ public interface RegistryService {
      * @param notifyListener 变更的监听器
      */
     void unSubscribe(URL url, NotifyListener notifyListener);
+
+    /**
+     * 批量订阅，全部首次通知完成后返回。部分失败时已成功的不回滚，失败的等待重试
+     *
+     * @param subscriptions 订阅服务信息 -> 变更的监听器
+     */
+    default void subscribeAll(Map<URL, NotifyListener> subscriptions) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(subscriptions.size());
+        for (Map.Entry<URL, NotifyListener> entry : subscriptions.entrySet()) {
+            futures.add(subscribeAsync(entry.getKey(), entry.getValue()));
+        }
+        Throwable cause = null;
+        int failed = 0;
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (Throwable t) {
+                cause = Futures.unwrap(t);
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new RegistryException("Failed to subscribe " + failed + " of " + subscriptions.size() + " urls, cause: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 异步注册服务，失败时同样进入重试
+     */
+    default CompletableFuture<Void> registerAsync(URL url) {
+        return Futures.run(() -> register(url));
+    }
+
+    /**
+     * 异步批量注册，全部完成后结束，任一失败时以失败结束
+     */
+    default CompletableFuture<Void> registerAllAsync(Collection<URL> urls) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(urls.size());
+        for (URL url : urls) {
+            futures.add(registerAsync(url));
+        }
+        return Futures.allOf(futures);
+    }
+
+    default CompletableFuture<Void> unregisterAsync(URL url) {
+        return Futures.run(() -> unregister(url));
+    }
+
+    /**
+     * 异步订阅，首次通知完成后结束
+     */
+    default CompletableFuture<Void> subscribeAsync(URL url, NotifyListener notifyListener) {
+        return Futures.run(() -> subscribe(url, notifyListener));
+    }
+
+    default CompletableFuture<Void> unSubscribeAsync(URL url, NotifyListener notifyListener) {
+        return Futures.run(() -> unSubscribe(url, notifyListener));
+    }
 }
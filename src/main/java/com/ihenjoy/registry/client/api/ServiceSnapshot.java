@@ -0,0 +1,323 @@
+package com.ihenjoy.registry.client.api;
+
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 某个服务在某一时刻的全部节点，创建后不再修改，变更时整体替换。
+ * 提供者按分类、按指定参数预先分组为数组，选择节点时不加锁、不分配对象。
+ * 各数组的权重在创建时解析，加权选择时只计算预热中节点的权重。
+ * 返回的数组为内部数组，调用方不能修改。
+ *
+ * @author chi
+ */
+public final class ServiceSnapshot {
+
+    private static final URL[] EMPTY = new URL[0];
+
+    private final String service;
+    private final long version;
+    private final Map<String, URL[]> categories;
+    private final URL[] providers;
+    // 参数名 -> 参数值 -> 提供者
+    private final Map<String, Map<String, URL[]>> indexes;
+    // 提供者数组及各分组数组 -> 预先解析的权重
+    private final Map<URL[], Weights> weights = new IdentityHashMap<>();
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    private ServiceSnapshot(String service, long version, Map<String, URL[]> categories, Map<String, Map<String, URL[]>> indexes) {
+        this.service = service;
+        this.version = version;
+        this.categories = categories;
+        this.indexes = indexes;
+        URL[] providers = categories.get(Constants.PROVIDER_CATEGORY);
+        this.providers = providers == null ? EMPTY : providers;
+        this.weights.put(this.providers, new Weights(this.providers));
+        for (Map<String, URL[]> index : indexes.values()) {
+            for (URL[] urls : index.values()) {
+                weights.put(urls, new Weights(urls));
+            }
+        }
+    }
+
+    /**
+     * @param categories 分类 -> 该分类的全部节点，empty协议的节点视为该分类为空
+     * @param indexKeys  需要预先分组的提供者参数，如version、group
+     */
+    public static ServiceSnapshot build(String service, long version, Map<String, List<URL>> categories, String... indexKeys) {
+        Map<String, URL[]> arrays = new HashMap<>();
+        for (Map.Entry<String, List<URL>> entry : categories.entrySet()) {
+            List<URL> urls = new ArrayList<>(entry.getValue().size());
+            for (URL url : entry.getValue()) {
+                if (!Constants.EMPTY_PROTOCOL.equals(url.getProtocol())) {
+                    urls.add(url);
+                }
+            }
+            arrays.put(entry.getKey(), urls.toArray(new URL[urls.size()]));
+        }
+        URL[] providers = arrays.get(Constants.PROVIDER_CATEGORY);
+        Map<String, Map<String, URL[]>> indexes = new HashMap<>();
+        for (String key : indexKeys) {
+            Map<String, List<URL>> groups = new LinkedHashMap<>();
+            if (providers != null) {
+                for (URL url : providers) {
+                    String value = url.getParameter(key, "");
+                    List<URL> group = groups.get(value);
+                    if (group == null) {
+                        group = new ArrayList<>();
+                        groups.put(value, group);
+                    }
+                    group.add(url);
+                }
+            }
+            Map<String, URL[]> index = new HashMap<>();
+            for (Map.Entry<String, List<URL>> group : groups.entrySet()) {
+                index.put(group.getKey(), group.getValue().toArray(new URL[group.getValue().size()]));
+            }
+            indexes.put(key, Collections.unmodifiableMap(index));
+        }
+        return new ServiceSnapshot(service, version, Collections.unmodifiableMap(arrays), Collections.unmodifiableMap(indexes));
+    }
+
+    public static ServiceSnapshot empty(String service, String... indexKeys) {
+        return build(service, 0, Collections.<String, List<URL>>emptyMap(), indexKeys);
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * 每次变更递增
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public URL[] getProviders() {
+        return providers;
+    }
+
+    public URL[] getCategory(String category) {
+        URL[] urls = categories.get(category);
+        return urls == null ? EMPTY : urls;
+    }
+
+    /**
+     * 参数值为指定值的提供者，参数未出现时值为空串
+     *
+     * @throws IllegalArgumentException 参数名未预先分组
+     */
+    public URL[] getProviders(String key, String value) {
+        Map<String, URL[]> index = indexes.get(key);
+        if (index == null) {
+            throw new IllegalArgumentException("parameter " + key + " is not indexed for " + service);
+        }
+        URL[] urls = index.get(value);
+        return urls == null ? EMPTY : urls;
+    }
+
+    public boolean isEmpty() {
+        return providers.length == 0;
+    }
+
+    /**
+     * 随机选择一个提供者，没有时返回null
+     */
+    public URL random() {
+        return random(providers);
+    }
+
+    public URL roundRobin() {
+        return roundRobin(providers);
+    }
+
+    /**
+     * 按提供者发布的权重、预热和负载加权随机选择
+     */
+    public URL weighted() {
+        return weights.get(providers).select(System.currentTimeMillis());
+    }
+
+    /**
+     * 在参数值为指定值的提供者中加权随机选择，没有时返回null
+     *
+     * @throws IllegalArgumentException 参数名未预先分组
+     */
+    public URL weighted(String key, String value) {
+        URL[] urls = getProviders(key, value);
+        if (urls.length == 0) return null;
+        return weights.get(urls).select(System.currentTimeMillis());
+    }
+
+    public static URL random(URL[] urls) {
+        if (urls.length == 0) return null;
+        return urls[ThreadLocalRandom.current().nextInt(urls.length)];
+    }
+
+    /**
+     * 任意数组的加权随机选择，每次都要解析权重，快照内的数组用{@link #weighted()}
+     */
+    public static URL weighted(URL[] urls) {
+        if (urls.length == 0) return null;
+        if (urls.length == 1) return urls[0];
+        return new Weights(urls).select(System.currentTimeMillis());
+    }
+
+    /**
+     * 提供者的有效权重：预热期内按已启动时长线性增长，处理中请求越多权重越低
+     */
+    public static int getWeight(URL url, long now) {
+        int weight = url.getParameter(Constants.WEIGHT_KEY, Constants.DEFAULT_WEIGHT);
+        return getWeight(weight, url.getParameter(Constants.WARMUP_KEY, 0), parseLong(url.getParameter(Constants.START_KEY)),
+                getLevel(url.getParameter(Constants.LOAD_KEY, 0)), now);
+    }
+
+    private static int getWeight(int weight, int warmup, long start, int level, long now) {
+        if (weight <= 0) return 0;
+        if (warmup > 0) {
+            long uptime = now - start;
+            if (start > 0 && uptime < warmup) {
+                weight = uptime <= 0 ? 1 : (int) Math.max(1, weight * uptime / warmup);
+            }
+        }
+        if (level > 0) {
+            weight = (int) Math.max(1, (long) weight * 4 / (4 + level));
+        }
+        return weight;
+    }
+
+    // 负载为对数分桶，请求数每翻一倍权重下降一档
+    private static int getLevel(int load) {
+        return load > 0 ? 1 + Integer.numberOfTrailingZeros(Integer.highestOneBit(load)) : 0;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return 0;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 轮询选择，计数器在同一快照的全部分组间共享
+     */
+    public URL roundRobin(URL[] urls) {
+        if (urls.length == 0) return null;
+        return urls[(cursor.getAndIncrement() & Integer.MAX_VALUE) % urls.length];
+    }
+
+    /**
+     * 一个数组的权重。预热结束后的权重和前缀和在创建时算好，全部预热结束后按前缀和二分查找；
+     * 仍有节点在预热时逐个计算，只有预热中的节点按当前时间重新计算
+     */
+    private static final class Weights {
+
+        private final URL[] urls;
+        private final int[] bases;
+        private final int[] warmups;
+        private final long[] starts;
+        private final int[] levels;
+        // 预热结束后的有效权重及其前缀和
+        private final int[] weights;
+        private final long[] sums;
+        // 最后一个节点结束预热的时间
+        private final long warmupEnd;
+        private final boolean same;
+
+        Weights(URL[] urls) {
+            int n = urls.length;
+            this.urls = urls;
+            this.bases = new int[n];
+            this.warmups = new int[n];
+            this.starts = new long[n];
+            this.levels = new int[n];
+            this.weights = new int[n];
+            this.sums = new long[n];
+            long end = 0;
+            long total = 0;
+            boolean same = true;
+            for (int i = 0; i < n; i++) {
+                URL url = urls[i];
+                bases[i] = url.getParameter(Constants.WEIGHT_KEY, Constants.DEFAULT_WEIGHT);
+                warmups[i] = url.getParameter(Constants.WARMUP_KEY, 0);
+                starts[i] = parseLong(url.getParameter(Constants.START_KEY));
+                levels[i] = getLevel(url.getParameter(Constants.LOAD_KEY, 0));
+                weights[i] = getWeight(bases[i], 0, 0, levels[i], 0);
+                total += weights[i];
+                sums[i] = total;
+                if (warmups[i] > 0 && starts[i] > 0) {
+                    end = Math.max(end, starts[i] + warmups[i]);
+                }
+                if (weights[i] != weights[0]) same = false;
+            }
+            this.warmupEnd = end;
+            this.same = same;
+        }
+
+        URL select(long now) {
+            int n = urls.length;
+            if (n == 0) return null;
+            if (n == 1) return urls[0];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (now >= warmupEnd) {
+                long total = sums[n - 1];
+                if (total <= 0 || same) return urls[random.nextInt(n)];
+                long offset = random.nextLong(total);
+                int low = 0;
+                int high = n - 1;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (sums[mid] > offset) {
+                        high = mid;
+                    } else {
+                        low = mid + 1;
+                    }
+                }
+                return urls[low];
+            }
+            long total = 0;
+            boolean same = true;
+            int first = -1;
+            for (int i = 0; i < n; i++) {
+                int weight = weight(i, now);
+                total += weight;
+                if (first < 0) {
+                    first = weight;
+                } else if (weight != first) {
+                    same = false;
+                }
+            }
+            if (total <= 0 || same) return urls[random.nextInt(n)];
+            long offset = random.nextLong(total);
+            // 再计算一遍权重，避免分配数组
+            for (int i = 0; i < n; i++) {
+                offset -= weight(i, now);
+                if (offset < 0) return urls[i];
+            }
+            return urls[n - 1];
+        }
+
+        private int weight(int i, long now) {
+            if (warmups[i] <= 0 || starts[i] <= 0 || now - starts[i] >= warmups[i]) return weights[i];
+            return getWeight(bases[i], warmups[i], starts[i], levels[i], now);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceSnapshot{service=" + service + ", version=" + version + ", providers=" + providers.length + "}";
+    }
+}
@@ -35,5 +35,109 @@ public class Constants {
   
     public static final int RECONNECT_PERIOD_DEFAULT = 3 * 1000;
 
+    // 失败重试的初始间隔，之后按指数退避
+    public static final String RETRY_PERIOD_KEY = "retry.period";
+
+    public static final String RETRY_MAX_PERIOD_KEY = "retry.max.period";
+
+    public static final int DEFAULT_RETRY_MAX_PERIOD = 60 * 1000;
+
+    public static final String RECONNECT_PERIOD_KEY = "reconnect.period";
+
+    public static final String RECONNECT_MAX_PERIOD_KEY = "reconnect.max.period";
+
+    public static final int DEFAULT_RECONNECT_MAX_PERIOD = 60 * 1000;
+
     public static final String BACKUP_KEY = "backup";
+
+    public static final String TIMEOUT_KEY = "timeout";
+
+    public static final int DEFAULT_CONNECTION_TIMEOUT = 5 * 1000;
+
+    public static final String FILE_KEY = "file";
+
+    public static final String INTERN_KEY = "intern";
+
+    public static final int DEFAULT_INTERN_CAPACITY = 10000;
+
+    public static final String NOTIFY_WINDOW_KEY = "notify.window";
+
+    public static final int DEFAULT_NOTIFY_WINDOW = 100;
+
+    public static final String NOTIFY_THREADS_KEY = "notify.threads";
+
+    public static final int DEFAULT_NOTIFY_THREADS = 2;
+
+    public static final String NOTIFY_QUEUES_KEY = "notify.queues";
+
+    public static final int DEFAULT_NOTIFY_QUEUES = 1000;
+
+    public static final String RECOVER_THREADS_KEY = "recover.threads";
+
+    public static final int DEFAULT_RECOVER_THREADS = 4;
+
+    // 恢复时每秒最多的注册、订阅次数
+    public static final String RECOVER_RATE_KEY = "recover.rate";
+
+    public static final int DEFAULT_RECOVER_RATE = 200;
+
+    // 恢复开始前的最大随机等待，毫秒
+    public static final String RECOVER_JITTER_KEY = "recover.jitter";
+
+    public static final int DEFAULT_RECOVER_JITTER = 2000;
+
+    // 异步接口中阻塞步骤和回调使用的线程数
+    public static final String ASYNC_THREADS_KEY = "async.threads";
+
+    public static final int DEFAULT_ASYNC_THREADS = 4;
+
+    // 节点编码，compact时节点名为短ID，URL以二进制存放在节点数据中；消费端两种编码都能读取
+    public static final String ENCODING_KEY = "encoding";
+
+    public static final String COMPACT_ENCODING = "compact";
+
+    // 订阅URL上的提供者筛选条件，如select.version=1.0、select.group=a,b、select.zone=cn-*
+    public static final String SELECT_PREFIX = "select.";
+
+    // 提供者发布的负载信息，消费端据此计算有效权重
+    public static final String WEIGHT_KEY = "weight";
+
+    public static final int DEFAULT_WEIGHT = 100;
+
+    // 预热时长，毫秒，从start开始权重线性增长到weight
+    public static final String WARMUP_KEY = "warmup";
+
+    public static final String START_KEY = "start";
+
+    // 处理中请求数的对数分桶
+    public static final String LOAD_KEY = "load";
+
+    // 负载信息两次发布的最小间隔，毫秒
+    public static final int DEFAULT_LOAD_REPORT_INTERVAL = 5 * 1000;
+
+    // 每个分类路径最多监听数据变更的带load参数的子节点数，超出的只在子节点变更时读取，为0时不监听
+    public static final String DATA_WATCHES_KEY = "data.watches";
+
+    public static final int DEFAULT_DATA_WATCHES = 1000;
+
+    // http注册中心的会话超时，超时后服务端删除会话注册的dynamic节点
+    public static final String SESSION_TIMEOUT_KEY = "session.timeout";
+
+    public static final int DEFAULT_SESSION_TIMEOUT = 30 * 1000;
+
+    // http注册中心长轮询的等待时间
+    public static final String POLL_TIMEOUT_KEY = "poll.timeout";
+
+    public static final int DEFAULT_POLL_TIMEOUT = 30 * 1000;
+
+    // 多个注册中心联合时注册、订阅等待的最长时间，超时后慢的注册中心在后台继续
+    public static final int DEFAULT_FEDERATION_TIMEOUT = 3 * 1000;
+
+    // 多个注册中心联合时检查本机房注册中心可用性的间隔，变化时重新合并提供者
+    public static final int DEFAULT_FEDERATION_CHECK_PERIOD = 1000;
+
+    // 监听器回调、异步接口和重试使用的执行器，virtual为虚拟线程(jdk21+)，默认为线程池
+    public static final String EXECUTOR_KEY = "executor";
+
+    public static final String VIRTUAL_EXECUTOR = "virtual";
 }
@@ -5,8 +5,8 @@ import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
 import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -18,26 +18,51 @@ import java.util.TreeMap;
  * @author chi
  */
 public class URL {
-    private String protocol;
-    private String host;
-    private int port;
-    private String service;
-    private Map<String, String> parameters;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // 同一实例读取参数超过此次数后构造参数表，之后直接查表
+    private static final int MAX_LOOKUPS = 8;
+
+    private final String protocol;
+    private final String host;
+    private final int port;
+    private final String service;
+    // 由字符串解析的URL只保留原始字符串，首次读取参数时只记录各参数的位置，
+    // 读取的参数按位置截取，需要全部参数时才构造参数表，构造后不再保留原始字符串。
+    // 原始字符串为null时参数表一定已构造，读取时先取原始字符串再取参数表
+    private volatile Map<String, String> parameters;
+    private volatile String raw;
+    private final int queryStart;
+    private final int queryEnd;
+    private final URLInterner interner;
+    // URL不可变，以下在首次使用时计算并缓存
+    private transient volatile int[] offsets;
     private transient volatile String string;
+    private transient int hash;
+    private transient int lookups;
 
     public URL(String protocol, String host, int port, String path) {
         this(protocol, host, port, path, null);
     }
 
     public URL(String protocol, String host, int port, String path, Map<String, String> parameters) {
+        this(protocol, host, port, path, parameters == null ? Collections.<String, String>emptyMap()
+                : Collections.unmodifiableMap(new HashMap<>(parameters)), null, 0, 0, null);
+    }
+
+    /**
+     * @param parameters 已包装为不可修改的参数表，为null时从raw的[queryStart, queryEnd)中按需解析
+     */
+    private URL(String protocol, String host, int port, String path, Map<String, String> parameters,
+                String raw, int queryStart, int queryEnd, URLInterner interner) {
         this.protocol = protocol;
         this.host = host;
         this.port = port;
         this.service = path;
-        if (parameters == null)
-            this.parameters = Collections.unmodifiableMap(new HashMap<String, String>());
-        else
-            this.parameters = Collections.unmodifiableMap(parameters);
+        this.parameters = parameters;
+        this.raw = raw;
+        this.queryStart = queryStart;
+        this.queryEnd = queryEnd;
+        this.interner = interner;
     }
 
 
@@ -45,42 +70,70 @@ public class URL {
         return protocol;
     }
 
-    public void setProtocol(String protocol) {
-        this.protocol = protocol;
-    }
-
     public String getService() {
         return service;
     }
 
-    public void setService(String service) {
-        this.service = service;
-    }
-
     public Map<String, String> getParameters() {
-        return parameters;
-    }
-
-    public void setParameters(Map<String, String> parameters) {
-        this.parameters = parameters;
+        String r = raw;
+        Map<String, String> p = parameters;
+        if (p == null) {
+            int[] o = offsets(r);
+            Map<String, String> map = new HashMap<>(o.length / 3);
+            for (int i = 0; i < o.length; i += 4) {
+                String key = intern(interner, r.substring(o[i], o[i + 1]));
+                map.put(key, o[i + 2] == o[i] ? key : intern(interner, r.substring(o[i + 2], o[i + 3])));
+            }
+            parameters = p = Collections.unmodifiableMap(map);
+            // toFullString等均由参数表生成，不依赖原始字符串
+            raw = null;
+            offsets = null;
+        }
+        return p;
+    }
+
+    /**
+     * 各参数在原始字符串中的位置，依次为参数名和参数值的起止，不创建子串。
+     * 只有参数名的参数，参数值的位置与参数名相同
+     *
+     * @param raw 调用方取到的原始字符串，不为null
+     */
+    private int[] offsets(String raw) {
+        int[] o = offsets;
+        if (o == null) {
+            o = new int[32];
+            int n = 0;
+            int partStart = queryStart;
+            while (partStart <= queryEnd) {
+                int partEnd = indexOf(raw, '&', partStart, queryEnd);
+                if (partEnd < 0) partEnd = queryEnd;
+                int s = partStart;
+                int e = partEnd;
+                while (s < e && raw.charAt(s) <= ' ') s++;
+                while (e > s && raw.charAt(e - 1) <= ' ') e--;
+                if (e > s) {
+                    if (n == o.length) o = Arrays.copyOf(o, n * 2);
+                    int j = indexOf(raw, '=', s, e);
+                    o[n++] = s;
+                    o[n++] = j >= 0 ? j : e;
+                    o[n++] = j >= 0 ? j + 1 : s;
+                    o[n++] = e;
+                }
+                partStart = partEnd + 1;
+            }
+            offsets = o = n == o.length ? o : Arrays.copyOf(o, n);
+        }
+        return o;
     }
 
     public String getHost() {
         return host;
     }
 
-    public void setHost(String host) {
-        this.host = host;
-    }
-
     public int getPort() {
         return port;
     }
 
-    public void setPort(int port) {
-        this.port = port;
-    }
-
     public String[] getParameter(String key, String[] defaultValue) {
         String value = getParameter(key);
         if (isEmpty(value))
@@ -89,7 +142,18 @@ public class URL {
     }
 
     public String getParameter(String key) {
-        return parameters.get(key);
+        String r = raw;
+        Map<String, String> p = parameters;
+        if (p != null || key == null) return p == null ? null : p.get(key);
+        if (++lookups > MAX_LOOKUPS) return getParameters().get(key);
+        int[] o = offsets(r);
+        // 重复的参数以最后一个为准
+        for (int i = o.length - 4; i >= 0; i -= 4) {
+            if (o[i + 1] - o[i] == key.length() && r.startsWith(key, o[i])) {
+                return o[i + 2] == o[i] ? key : intern(interner, r.substring(o[i + 2], o[i + 3]));
+            }
+        }
+        return null;
     }
 
     public String getParameter(String key, String defaultValue) {
@@ -108,12 +172,24 @@ public class URL {
         return Boolean.parseBoolean(value);
     }
 
+    public int getParameter(String key, int defaultValue) {
+        String value = getParameter(key);
+        if (isEmpty(value)) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
     public String toServerString() {
         return buildString(false, false);
     }
 
     public String toFullString() {
-        return buildString(true, true);
+        String full = string;
+        if (full == null) {
+            string = full = buildString(true, true);
+        }
+        return full;
     }
 
     private boolean isEmpty(String value) {
@@ -122,7 +198,7 @@ public class URL {
 
     private String buildString(boolean appendParameter, boolean appendService, String... parameters) {
         StringBuilder buf = new StringBuilder();
-        if (isEmpty(this.protocol)) {
+        if (!isEmpty(this.protocol)) {
             buf.append(protocol);
             buf.append("://");
         }
@@ -185,80 +261,213 @@ public class URL {
         if (!StringUtils.hasText(value)) {
             return "";
         }
-        try {
-            return URLDecoder.decode(value, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e.getMessage(), e);
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c == '%' || c == '+') break;
+            i++;
+        }
+        // 没有需要解码的字符，直接返回原串
+        if (i == length) {
+            return value;
+        }
+        StringBuilder buf = new StringBuilder(length);
+        buf.append(value, 0, i);
+        byte[] bytes = null;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c == '+') {
+                buf.append(' ');
+                i++;
+            } else if (c == '%') {
+                // 连续的%XX按UTF-8字节序列整体解码
+                if (bytes == null) bytes = new byte[(length - i) / 3];
+                int n = 0;
+                while (i + 2 < length && value.charAt(i) == '%') {
+                    int hi = Character.digit(value.charAt(i + 1), 16);
+                    int lo = Character.digit(value.charAt(i + 2), 16);
+                    if (hi < 0 || lo < 0) {
+                        throw new IllegalArgumentException("Illegal hex characters in escape (%) pattern: " + value);
+                    }
+                    bytes[n++] = (byte) ((hi << 4) + lo);
+                    i += 3;
+                }
+                if (i < length && value.charAt(i) == '%') {
+                    throw new IllegalArgumentException("Incomplete trailing escape (%) pattern: " + value);
+                }
+                buf.append(new String(bytes, 0, n, UTF_8));
+            } else {
+                buf.append(c);
+                i++;
+            }
         }
+        return buf.toString();
     }
 
     public URL withParameter(String key, String value) {
         if (!StringUtils.hasText(key) || !StringUtils.hasText(value)) return this;
-        if (value.equalsIgnoreCase(this.parameters.get(key))) return this;
+        if (value.equalsIgnoreCase(getParameter(key))) return this;
 
-        Map<String, String> newParameter = new HashMap<>(this.parameters);
+        Map<String, String> newParameter = new HashMap<>(getParameters());
         newParameter.put(key, value);
-        return new URL(protocol, host, port, service, newParameter);
+        return new URL(protocol, host, port, service, Collections.unmodifiableMap(newParameter), null, 0, 0, null);
+    }
+
+    public URL withParameters(Map<String, String> parameters) {
+        if (CollectionUtils.isEmpty(parameters)) return this;
+        Map<String, String> newParameter = new HashMap<>(getParameters());
+        newParameter.putAll(parameters);
+        return new URL(protocol, host, port, service, Collections.unmodifiableMap(newParameter), null, 0, 0, null);
+    }
+
+    public URL withoutParameter(String key) {
+        if (getParameter(key) == null) return this;
+        Map<String, String> newParameter = new HashMap<>(getParameters());
+        newParameter.remove(key);
+        return new URL(protocol, host, port, service, Collections.unmodifiableMap(newParameter), null, 0, 0, null);
     }
 
     public URL withProtocol(String newProtocol) {
-        return new URL(newProtocol, this.host, this.port, this.service, this.parameters);
+        return copy(newProtocol, this.host, this.port, this.service);
+    }
+
+    public URL withHost(String newHost) {
+        return copy(this.protocol, newHost, this.port, this.service);
+    }
+
+    public URL withPort(int newPort) {
+        if (newPort == this.port) return this;
+        return copy(this.protocol, this.host, newPort, this.service);
+    }
+
+    public URL withService(String newService) {
+        return copy(this.protocol, this.host, this.port, newService);
+    }
+
+    // 参数不变，未解析的参数仍共享原始字符串
+    private URL copy(String protocol, String host, int port, String service) {
+        String r = raw;
+        Map<String, String> p = parameters;
+        return new URL(protocol, host, port, service, p, p == null ? r : null, queryStart, queryEnd, interner);
     }
 
 
     public static URL valueOf(String value) {
-        String url = value;
-        if (!StringUtils.hasText(url)) {
+        return valueOf(value, null);
+    }
+
+    /**
+     * 单次扫描解析URL，不使用正则和中间子串
+     *
+     * @param value    URL字符串
+     * @param interner 用于复用协议、主机、参数等字符串，可以为null
+     */
+    public static URL valueOf(String value, URLInterner interner) {
+        if (!StringUtils.hasText(value)) {
             throw new IllegalArgumentException("url == null");
         }
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) <= ' ') start++;
+        while (end > start && value.charAt(end - 1) <= ' ') end--;
+
+        int bodyEnd = indexOf(value, '?', start, end);
+        if (bodyEnd < 0) {
+            bodyEnd = end;
+        }
 
-        url = url.trim();
+        int i = value.indexOf("://", start);
+        if (i < 0 || i >= bodyEnd) throw new IllegalStateException("url missing protocol: \"" + value + "\"");
+        if (i == start) throw new IllegalStateException("url missing protocol: \"" + value + "\"");
+        String protocol = intern(interner, value.substring(start, i));
 
-        String protocol = null;
-        String host = null;
-        int port = 0;
+        int hostStart = i + 3;
+        int hostEnd = indexOf(value, '/', hostStart, bodyEnd);
         String service = null;
-        Map<String, String> parameters = null;
-        int i = url.indexOf('?'); // seperator between body and parameters
-        if (i >= 0) {
-            String[] parts = url.substring(i + 1).split("\\&");
-            parameters = new HashMap<>();
-            addParameter(parts, parameters);
-            url = url.substring(0, i);
-        }
-        i = url.indexOf("://");
-
-        if (i == 0) throw new IllegalStateException("url missing protocol: \"" + url + "\"");
-        protocol = url.substring(0, i);
-        url = url.substring(i + 3);
-
-
-        i = url.indexOf('/');
-        if (i >= 0) {
-            service = url.substring(i + 1);
-            url = url.substring(0, i);
-        }
-        i = url.indexOf(':');
-        if (i >= 0 && i < url.length() - 1) {
-            port = Integer.parseInt(url.substring(i + 1));
-            url = url.substring(0, i);
-        }
-        if (url.length() > 0) host = url;
-        return new URL(protocol, host, port, service, parameters);
-    }
-
-    private static void addParameter(String[] parts, Map<String, String> parameters) {
-        for (String part : parts) {
-            part = part.trim();
-            if (part.length() > 0) {
-                int j = part.indexOf('=');
-                if (j >= 0) {
-                    parameters.put(part.substring(0, j), part.substring(j + 1));
-                } else {
-                    parameters.put(part, part);
+        if (hostEnd >= 0) {
+            service = intern(interner, value.substring(hostEnd + 1, bodyEnd));
+        } else {
+            hostEnd = bodyEnd;
+        }
+        int port = 0;
+        i = indexOf(value, ':', hostStart, hostEnd);
+        if (i >= 0 && i < hostEnd - 1) {
+            port = parsePort(value, i + 1, hostEnd);
+            hostEnd = i;
+        }
+        String host = null;
+        if (hostEnd > hostStart) host = intern(interner, value.substring(hostStart, hostEnd));
+        if (bodyEnd == end) {
+            return new URL(protocol, host, port, service, Collections.<String, String>emptyMap(), null, 0, 0, null);
+        }
+        return new URL(protocol, host, port, service, null, value, bodyEnd + 1, end, interner);
+    }
+
+    /**
+     * 直接从URL字符串中读取参数，不构造URL，规则与{@link #valueOf(String)}一致
+     *
+     * @return 参数值，参数不存在时为null
+     */
+    public static String getRawParameter(String value, String key) {
+        int end = value.length();
+        int start = indexOf(value, '?', 0, end);
+        if (start < 0) return null;
+        return scan(value, start + 1, end, key);
+    }
+
+    /**
+     * 在参数部分中查找参数，重复的参数以最后一个为准，只为结果创建子串
+     */
+    private static String scan(String value, int start, int end, String key) {
+        if (key.indexOf('=') >= 0) return null;
+        int valueStart = -1;
+        int valueEnd = -1;
+        int partStart = start;
+        while (partStart <= end) {
+            int partEnd = value.indexOf('&', partStart);
+            if (partEnd < 0 || partEnd > end) partEnd = end;
+            int s = partStart;
+            while (s < partEnd && value.charAt(s) <= ' ') s++;
+            int keyEnd = s + key.length();
+            // 先比较参数名，不匹配的参数不再查找'='和裁剪
+            if (keyEnd <= partEnd && value.startsWith(key, s)) {
+                int e = partEnd;
+                while (e > s && value.charAt(e - 1) <= ' ') e--;
+                if (e > s && keyEnd == e) {
+                    valueStart = s;
+                    valueEnd = e;
+                } else if (keyEnd < e && value.charAt(keyEnd) == '=') {
+                    valueStart = keyEnd + 1;
+                    valueEnd = e;
                 }
             }
+            partStart = partEnd + 1;
+        }
+        return valueStart < 0 ? null : value.substring(valueStart, valueEnd);
+    }
+
+    private static int indexOf(String value, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) == c) return i;
         }
+        return -1;
+    }
+
+    private static int parsePort(String value, int start, int end) {
+        int port = 0;
+        for (int i = start; i < end; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + value.substring(start, end) + "\"");
+            }
+            port = port * 10 + digit;
+        }
+        return port;
+    }
+
+    private static String intern(URLInterner interner, String value) {
+        return interner == null ? value : interner.internString(value);
     }
 
     public String getAddress() {
@@ -296,10 +505,18 @@ public class URL {
 
     @Override
     public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            hash = h = computeHashCode();
+        }
+        return h;
+    }
+
+    private int computeHashCode() {
         final int prime = 31;
         int result = 1;
         result = prime * result + ((host == null) ? 0 : host.hashCode());
-        result = prime * result + ((parameters == null) ? 0 : parameters.hashCode());
+        result = prime * result + parametersHashCode();
         result = prime * result + ((service == null) ? 0 : service.hashCode());
         result = prime * result + port;
         result = prime * result + ((protocol == null) ? 0 : protocol.hashCode());
@@ -307,6 +524,50 @@ public class URL {
         return result;
     }
 
+    /**
+     * 与参数表的hashCode一致，未解析时直接按原始字符串计算
+     */
+    private int parametersHashCode() {
+        String r = raw;
+        Map<String, String> p = parameters;
+        int[] o = p == null ? offsets(r) : null;
+        if (o == null) return getParameters().hashCode();
+        int result = 0;
+        int[] keys = new int[o.length / 4];
+        for (int i = 0; i < o.length; i += 4) {
+            int keyHash = hash(r, o[i], o[i + 1]);
+            // 可能有重复的参数，按参数表计算
+            for (int k = 0; k < i / 4; k++) {
+                if (keys[k] == keyHash) return getParameters().hashCode();
+            }
+            keys[i / 4] = keyHash;
+            result += keyHash ^ hash(r, o[i + 2], o[i + 3]);
+        }
+        return result;
+    }
+
+    // 与String.hashCode一致
+    private static int hash(String value, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + value.charAt(i);
+        }
+        return h;
+    }
+
+    private boolean parametersEquals(URL other) {
+        String r = raw;
+        String otherRaw = other.raw;
+        if (parameters == null && other.parameters == null) {
+            int length = queryEnd - queryStart;
+            if (length == other.queryEnd - other.queryStart
+                    && r.regionMatches(queryStart, otherRaw, other.queryStart, length)) {
+                return true;
+            }
+        }
+        return getParameters().equals(other.getParameters());
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
@@ -316,17 +577,13 @@ public class URL {
         if (getClass() != obj.getClass())
             return false;
         URL other = (URL) obj;
+        if (hash != 0 && other.hash != 0 && hash != other.hash)
+            return false;
         if (host == null) {
             if (other.host != null)
                 return false;
         } else if (!host.equals(other.host))
             return false;
-        if (parameters == null) {
-            if (other.parameters != null)
-                return false;
-        } else if (!parameters.equals(other.parameters))
-            return false;
-
         if (service == null) {
             if (other.service != null)
                 return false;
@@ -339,13 +596,10 @@ public class URL {
                 return false;
         } else if (!protocol.equals(other.protocol))
             return false;
-        return true;
+        return parametersEquals(other);
     }
 
     public String toString() {
-        if (string != null) {
-            return string;
-        }
-        return string = buildString(true, true);
+        return toFullString();
     }
 }
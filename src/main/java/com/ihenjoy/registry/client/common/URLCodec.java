@@ -0,0 +1,173 @@
+package com.ihenjoy.registry.client.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * URL的紧凑编码，节点名为稳定的短ID，URL以二进制存放在节点数据中。
+ * 数据格式：版本(1字节)、协议、主机、端口、服务、参数个数、参数键值，
+ * 字符串前有1字节的非空标记，内容为modified UTF-8。
+ * 版本1的参数个数为2字节，字符串最长65535字节；超出时使用版本2，参数个数为4字节，
+ * 字符串为4字节长度加UTF-8字节。未超出的URL仍为版本1，旧的消费端可以读取。
+ *
+ * @author chi
+ */
+public final class URLCodec {
+
+    public static final byte VERSION = 1;
+
+    public static final byte LONG_VERSION = 2;
+
+    private static final int MAX_SHORT = 0xffff;
+
+    // ID为"c."加完整URL字符串64位FNV-1a哈希的16位十六进制
+    private static final String ID_PREFIX = "c.";
+
+    private static final int ID_LENGTH = ID_PREFIX.length() + 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private URLCodec() {
+    }
+
+    /**
+     * 同一URL在任何进程中得到相同的ID
+     */
+    public static String id(URL url) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : url.toFullString().getBytes(UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        String hex = Long.toHexString(hash);
+        StringBuilder buf = new StringBuilder(ID_LENGTH).append(ID_PREFIX);
+        for (int i = hex.length(); i < 16; i++) {
+            buf.append('0');
+        }
+        return buf.append(hex).toString();
+    }
+
+    public static boolean isId(String name) {
+        return name.length() == ID_LENGTH && name.startsWith(ID_PREFIX);
+    }
+
+    public static byte[] encode(URL url) {
+        byte version = isShort(url) ? VERSION : LONG_VERSION;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(version);
+            writeString(out, version, url.getProtocol());
+            writeString(out, version, url.getHost());
+            out.writeInt(url.getPort());
+            writeString(out, version, url.getService());
+            Map<String, String> parameters = url.getParameters();
+            if (version == VERSION) {
+                out.writeShort(parameters.size());
+            } else {
+                out.writeInt(parameters.size());
+            }
+            for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                writeString(out, version, entry.getKey());
+                writeString(out, version, entry.getValue());
+            }
+            out.flush();
+        } catch (IOException e) {
+            // 长度已按版本检查，内存流不会抛出
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param interner 复用参数名、参数值等字符串，为null时不复用
+     * @throws IllegalArgumentException 版本不支持或数据不完整
+     */
+    public static URL decode(byte[] data, URLInterner interner) {
+        if (data == null || data.length == 0) {
+            throw new IllegalArgumentException("empty url data");
+        }
+        byte version = data[0];
+        if (version != VERSION && version != LONG_VERSION) {
+            throw new IllegalArgumentException("unsupported url data version " + version);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+        try {
+            String protocol = readString(in, version, interner);
+            String host = readString(in, version, interner);
+            int port = in.readInt();
+            String service = readString(in, version, interner);
+            int size = version == VERSION ? in.readUnsignedShort() : in.readInt();
+            if (size < 0 || size > data.length) {
+                throw new IOException("illegal parameter count " + size);
+            }
+            Map<String, String> parameters = new HashMap<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                parameters.put(readString(in, version, interner), readString(in, version, interner));
+            }
+            return new URL(protocol, host, port, service, parameters);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("broken url data, cause: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 参数个数和全部字符串都在版本1的长度限制内
+     */
+    private static boolean isShort(URL url) {
+        Map<String, String> parameters = url.getParameters();
+        if (parameters.size() > MAX_SHORT) return false;
+        if (!isShort(url.getProtocol()) || !isShort(url.getHost()) || !isShort(url.getService())) return false;
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            if (!isShort(entry.getKey()) || !isShort(entry.getValue())) return false;
+        }
+        return true;
+    }
+
+    // modified UTF-8的长度，每个字符最多3字节
+    private static boolean isShort(String value) {
+        if (value == null || value.length() <= MAX_SHORT / 3) return true;
+        if (value.length() > MAX_SHORT) return false;
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+        }
+        return length <= MAX_SHORT;
+    }
+
+    private static void writeString(DataOutputStream out, byte version, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value == null) return;
+        if (version == VERSION) {
+            out.writeUTF(value);
+        } else {
+            byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in, byte version, URLInterner interner) throws IOException {
+        if (!in.readBoolean()) return null;
+        String value;
+        if (version == VERSION) {
+            value = in.readUTF();
+        } else {
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("illegal string length " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            value = new String(bytes, UTF_8);
+        }
+        return interner == null ? value : interner.internString(value);
+    }
+}
@@ -0,0 +1,48 @@
+package com.ihenjoy.registry.client.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * URL及其组成字符串的复用池。
+ * 相同的提供者字符串解析为同一个URL实例，参数名、参数值等重复字符串只保留一份。
+ * 超过容量时整体清空，避免长期运行时无限增长。
+ *
+ * @author chi
+ */
+public class URLInterner {
+
+    private final int capacity;
+    private final ConcurrentMap<String, URL> urls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+
+    public URLInterner(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public URL intern(String value) {
+        URL url = urls.get(value);
+        if (url != null) return url;
+        url = URL.valueOf(value, this);
+        if (urls.size() >= capacity) urls.clear();
+        URL previous = urls.putIfAbsent(value, url);
+        return previous == null ? url : previous;
+    }
+
+    public String internString(String value) {
+        String interned = strings.get(value);
+        if (interned != null) return interned;
+        if (strings.size() >= capacity) strings.clear();
+        interned = strings.putIfAbsent(value, value);
+        return interned == null ? value : interned;
+    }
+
+    public int size() {
+        return urls.size();
+    }
+
+    public void clear() {
+        urls.clear();
+        strings.clear();
+    }
+}
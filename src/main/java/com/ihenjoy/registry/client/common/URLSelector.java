@@ -0,0 +1,106 @@
+package com.ihenjoy.registry.client.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订阅时的提供者筛选条件，由订阅URL上以{@link Constants#SELECT_PREFIX}开头的参数编译而来。
+ * 参数值为逗号分隔的候选值，命中任一即匹配，候选值中的*匹配任意字符；
+ * 提供者未设置该参数时按空串匹配。多个参数之间为且的关系。
+ * 可直接匹配URL字符串，不匹配的提供者无需解析。
+ *
+ * @author chi
+ */
+public final class URLSelector {
+
+    public static final URLSelector ALL = new URLSelector(new String[0], new String[0][]);
+
+    private final String[] keys;
+    private final String[][] patterns;
+
+    private URLSelector(String[] keys, String[][] patterns) {
+        this.keys = keys;
+        this.patterns = patterns;
+    }
+
+    public static URLSelector compile(URL url) {
+        List<String> keys = new ArrayList<>();
+        List<String[]> patterns = new ArrayList<>();
+        for (Map.Entry<String, String> entry : url.getParameters().entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(Constants.SELECT_PREFIX) || key.length() == Constants.SELECT_PREFIX.length()) continue;
+            String[] values = Constants.COMMA_SPLIT_PATTERN.split(entry.getValue() == null ? "" : entry.getValue().trim(), -1);
+            // 任一候选值为*时不限制该参数
+            boolean any = false;
+            for (String value : values) {
+                if (Constants.ANY_VALUE.equals(value)) any = true;
+            }
+            if (any) continue;
+            keys.add(key.substring(Constants.SELECT_PREFIX.length()));
+            patterns.add(values);
+        }
+        if (keys.isEmpty()) return ALL;
+        return new URLSelector(keys.toArray(new String[keys.size()]), patterns.toArray(new String[patterns.size()][]));
+    }
+
+    public boolean isAll() {
+        return keys.length == 0;
+    }
+
+    public boolean matches(URL url) {
+        for (int i = 0; i < keys.length; i++) {
+            if (!matches(patterns[i], url.getParameter(keys[i]))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 匹配URL字符串，只扫描需要的参数
+     */
+    public boolean matches(String url) {
+        for (int i = 0; i < keys.length; i++) {
+            if (!matches(patterns[i], URL.getRawParameter(url, keys[i]))) return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(String[] patterns, String value) {
+        if (value == null) value = "";
+        for (String pattern : patterns) {
+            if (pattern.indexOf('*') < 0 ? pattern.equals(value) : glob(pattern, value)) return true;
+        }
+        return false;
+    }
+
+    // 只支持*的通配
+    static boolean glob(String pattern, String value) {
+        int p = 0, v = 0, star = -1, mark = 0;
+        while (v < value.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = v;
+            } else if (p < pattern.length() && pattern.charAt(p) == value.charAt(v)) {
+                p++;
+                v++;
+            } else if (star >= 0) {
+                p = star + 1;
+                v = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+        return p == pattern.length();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("URLSelector{");
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) buf.append(", ");
+            buf.append(keys[i]).append('=').append(String.join(",", patterns[i]));
+        }
+        return buf.append('}').toString();
+    }
+}
@@ -0,0 +1,26 @@
+package com.ihenjoy.registry.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author chi
+ */
+public class AtomicCounter implements Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    @Override
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    @Override
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    @Override
+    public long get() {
+        return value.get();
+    }
+}
@@ -0,0 +1,13 @@
+package com.ihenjoy.registry.client.metrics;
+
+/**
+ * @author chi
+ */
+public interface Counter {
+
+    void increment();
+
+    void add(long delta);
+
+    long get();
+}
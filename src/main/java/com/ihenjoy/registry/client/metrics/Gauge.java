@@ -0,0 +1,11 @@
+package com.ihenjoy.registry.client.metrics;
+
+/**
+ * 取快照时才读取的瞬时值
+ *
+ * @author chi
+ */
+public interface Gauge {
+
+    long get();
+}
@@ -0,0 +1,14 @@
+package com.ihenjoy.registry.client.metrics;
+
+/**
+ * @author chi
+ */
+public interface Histogram {
+
+    /**
+     * 记录一个值，耗时类指标单位为纳秒
+     */
+    void record(long value);
+
+    HistogramSnapshot snapshot();
+}
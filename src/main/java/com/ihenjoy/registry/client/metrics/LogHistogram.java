@@ -0,0 +1,83 @@
+package com.ihenjoy.registry.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数分桶的直方图，思路同HdrHistogram。
+ * 每个2的幂区间再分为16个桶，相对误差不超过1/16；记录只有几次原子自增，不加锁。
+ *
+ * @author chi
+ */
+public class LogHistogram implements Histogram {
+
+    private static final int SUB_BITS = 4;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    @Override
+    public void record(long value) {
+        if (value < 0) value = 0;
+        buckets.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    @Override
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long maxValue = max.get();
+        return new HistogramSnapshot(total, total == 0 ? 0 : sum.get() / total, maxValue,
+                percentile(counts, total, 0.5, maxValue),
+                percentile(counts, total, 0.9, maxValue),
+                percentile(counts, total, 0.99, maxValue),
+                percentile(counts, total, 0.999, maxValue));
+    }
+
+    private static long percentile(long[] counts, long total, double percentile, long max) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + mantissa;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_COUNT) return index;
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        int mantissa = index % SUB_COUNT;
+        return (long) (SUB_COUNT + mantissa) << (exponent - SUB_BITS);
+    }
+
+    static long upperBound(int index) {
+        return index + 1 >= BUCKETS ? Long.MAX_VALUE : lowerBound(index + 1) - 1;
+    }
+}
@@ -0,0 +1,38 @@
+package com.ihenjoy.registry.client.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 某一时刻全部指标的只读快照
+ *
+ * @author chi
+ */
+public final class MetricsSnapshot {
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    public MetricsSnapshot(Map<String, Long> counters, Map<String, Long> gauges, Map<String, HistogramSnapshot> histograms) {
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{counters=" + counters + ", gauges=" + gauges + ", histograms=" + histograms + '}';
+    }
+}
@@ -0,0 +1,41 @@
+package com.ihenjoy.registry.client.metrics;
+
+/**
+ * 给指标名加前缀后交给另一个实现，多个注册中心共用同一个指标实现时按前缀区分，
+ * 名称固定的gauge不会互相覆盖
+ *
+ * @author chi
+ */
+public class PrefixedRegistryMetrics implements RegistryMetrics {
+
+    private final RegistryMetrics delegate;
+    private final String prefix;
+
+    public PrefixedRegistryMetrics(RegistryMetrics delegate, String prefix) {
+        this.delegate = delegate;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Counter counter(String name) {
+        return delegate.counter(prefix + name);
+    }
+
+    @Override
+    public Histogram histogram(String name) {
+        return delegate.histogram(prefix + name);
+    }
+
+    @Override
+    public void gauge(String name, Gauge gauge) {
+        delegate.gauge(prefix + name, gauge);
+    }
+
+    /**
+     * 包含共用实现中的全部指标
+     */
+    @Override
+    public MetricsSnapshot snapshot() {
+        return delegate.snapshot();
+    }
+}
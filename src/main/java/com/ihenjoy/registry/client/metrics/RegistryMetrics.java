@@ -0,0 +1,57 @@
+package com.ihenjoy.registry.client.metrics;
+
+/**
+ * 注册中心的指标，可替换为其他监控系统的实现。
+ * 耗时类指标单位为纳秒。
+ *
+ * @author chi
+ */
+public interface RegistryMetrics {
+
+    String REGISTER_LATENCY = "register.latency";
+
+    String REGISTER_FAILURES = "register.failures";
+
+    String SUBSCRIBE_LATENCY = "subscribe.latency";
+
+    String SUBSCRIBE_FAILURES = "subscribe.failures";
+
+    String RETRY_REGISTERED = "retry.registered";
+
+    String RETRY_SUBSCRIBED = "retry.subscribed";
+
+    // 一次子节点变更解析、分组并交给分发器的耗时
+    String NOTIFY_FANOUT = "notify.fanout";
+
+    // 变更到达分发器到投递给监听器的延迟
+    String NOTIFY_LAG = "notify.lag";
+
+    String NOTIFY_LISTENER = "notify.listener";
+
+    String NOTIFY_FAILURES = "notify.failures";
+
+    String SESSION_CONNECTED = "session.connected";
+
+    String SESSION_DISCONNECTED = "session.disconnected";
+
+    String SESSION_EXPIRED = "session.expired";
+
+    String RECONNECTS = "reconnects";
+
+    // 会话重建后一轮恢复的总耗时
+    String RECOVERY_LATENCY = "recovery.latency";
+
+    /**
+     * 获取计数器，不存在时创建
+     */
+    Counter counter(String name);
+
+    /**
+     * 获取直方图，不存在时创建
+     */
+    Histogram histogram(String name);
+
+    void gauge(String name, Gauge gauge);
+
+    MetricsSnapshot snapshot();
+}
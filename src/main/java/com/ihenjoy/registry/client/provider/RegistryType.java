@@ -4,5 +4,7 @@ package com.ihenjoy.registry.client.provider;
  * @author chi
  */
 public enum RegistryType {
-    Zookeeper;
+    Zookeeper,
+    Memory,
+    Http;
 }
@@ -0,0 +1,429 @@
+package com.ihenjoy.registry.client.provider.federation;
+
+import com.ihenjoy.registry.client.api.DeltaNotifyListener;
+import com.ihenjoy.registry.client.api.Node;
+import com.ihenjoy.registry.client.api.NotifyEvent;
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.api.RegistryService;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.exception.RegistryException;
+import com.ihenjoy.registry.client.support.RegistryExecutors;
+import com.ihenjoy.registry.client.support.Retrier;
+import com.ihenjoy.registry.client.util.Futures;
+import com.ihenjoy.registry.client.util.SerialExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 多个注册中心的联合，如每个机房一个zookeeper集群。
+ * 注册和订阅并行发往全部注册中心，在超时内至少一个成功即返回，慢的注册中心在后台继续完成。
+ * 每个注册中心的调用在各自的线程池中发起，同步实现的注册中心也不会阻塞其他注册中心，
+ * 卡住的注册中心只占用自己的线程。
+ * 各注册中心的通知按来源分别保存并合并后通知订阅方，提供者URL上带{@link #ZONE_KEY}标记来源。
+ * 本机房的注册中心可用且有提供者时只通知本机房的提供者，否则通知全部；
+ * 注册中心断开时保留其最后一次的结果，不会因为注册中心故障摘除提供者。
+ * 本机房注册中心的可用性定期检查，变化时重新合并；合并在锁内进行，通知在锁外按顺序执行。
+ *
+ * @author chi
+ */
+public class FederatedRegistry implements RegistryService, Node, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(FederatedRegistry.class);
+
+    // 提供者来源的注册中心所在机房
+    public static final String ZONE_KEY = "registry.zone";
+
+    private final String localZone;
+    private final List<Member> members;
+    private final long timeout;
+    private final ConcurrentMap<URL, ConcurrentMap<NotifyListener, Merger>> mergers = new ConcurrentHashMap<>();
+    // 执行订阅方的监听，各订阅通过自己的串行队列提交
+    private final ExecutorService notifyExecutor = RegistryExecutors.newExecutor("RegistryFederationNotify", Constants.DEFAULT_ASYNC_THREADS);
+    private final ScheduledFuture<?> checkFuture;
+
+    /**
+     * @param registries 机房 -> 注册中心
+     * @param timeout    注册、订阅等待的最长时间，毫秒
+     */
+    public FederatedRegistry(String localZone, Map<String, RegistryService> registries, long timeout) {
+        this(localZone, registries, timeout, Constants.DEFAULT_FEDERATION_CHECK_PERIOD);
+    }
+
+    /**
+     * @param checkPeriod 检查本机房注册中心可用性的间隔，毫秒
+     */
+    public FederatedRegistry(String localZone, Map<String, RegistryService> registries, long timeout, long checkPeriod) {
+        if (registries.isEmpty()) {
+            throw new IllegalArgumentException("registries is empty");
+        }
+        this.localZone = localZone;
+        this.timeout = timeout;
+        List<Member> members = new ArrayList<>(registries.size());
+        for (Map.Entry<String, RegistryService> entry : registries.entrySet()) {
+            members.add(new Member(entry.getKey(), entry.getValue()));
+        }
+        this.members = Collections.unmodifiableList(members);
+        this.checkFuture = Retrier.scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkAvailable();
+            }
+        }, checkPeriod, checkPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void register(URL url) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(members.size());
+        for (Member member : members) {
+            futures.add(member.submit(() -> member.registry.registerAsync(url)));
+        }
+        await(futures, "register " + url);
+    }
+
+    @Override
+    public void registerAll(Collection<URL> urls) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(members.size());
+        for (Member member : members) {
+            futures.add(member.submit(() -> member.registry.registerAllAsync(urls)));
+        }
+        await(futures, "register " + urls.size() + " urls");
+    }
+
+    @Override
+    public void unregister(URL url) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(members.size());
+        for (Member member : members) {
+            futures.add(member.submit(() -> member.registry.unregisterAsync(url)));
+        }
+        await(futures, "unregister " + url);
+    }
+
+    @Override
+    public void update(URL url, Map<String, String> parameters) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(members.size());
+        for (Member member : members) {
+            futures.add(member.submit(() -> Futures.run(() -> member.registry.update(url, parameters))));
+        }
+        await(futures, "update " + url);
+    }
+
+    @Override
+    public void subscribe(URL url, NotifyListener notifyListener) {
+        ConcurrentMap<NotifyListener, Merger> listeners = mergers.get(url);
+        if (listeners == null) {
+            mergers.putIfAbsent(url, new ConcurrentHashMap<NotifyListener, Merger>());
+            listeners = mergers.get(url);
+        }
+        Merger merger = listeners.get(notifyListener);
+        if (merger == null) {
+            listeners.putIfAbsent(notifyListener, new Merger(url, notifyListener));
+            merger = listeners.get(notifyListener);
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(members.size());
+        for (int i = 0; i < members.size(); i++) {
+            Member member = members.get(i);
+            NotifyListener source = merger.sources[i];
+            futures.add(member.submit(() -> member.registry.subscribeAsync(url, source)));
+        }
+        await(futures, "subscribe " + url);
+    }
+
+    @Override
+    public void unSubscribe(URL url, NotifyListener notifyListener) {
+        ConcurrentMap<NotifyListener, Merger> listeners = mergers.get(url);
+        Merger merger = listeners == null ? null : listeners.remove(notifyListener);
+        if (merger == null) return;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(members.size());
+        for (int i = 0; i < members.size(); i++) {
+            Member member = members.get(i);
+            NotifyListener source = merger.sources[i];
+            futures.add(member.submit(() -> member.registry.unSubscribeAsync(url, source)));
+        }
+        await(futures, "unsubscribe " + url);
+    }
+
+    /**
+     * 任一注册中心可用即可用
+     */
+    @Override
+    public boolean isAvailable() {
+        for (Member member : members) {
+            if (member.isAvailable()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        checkFuture.cancel(false);
+        notifyExecutor.shutdown();
+        for (Member member : members) {
+            member.executor.shutdown();
+            if (member.registry instanceof DisposableBean) {
+                try {
+                    ((DisposableBean) member.registry).destroy();
+                } catch (Exception e) {
+                    logger.warn("Failed to destroy registry of zone " + member.zone + ", cause: " + e.getMessage(), e);
+                }
+            }
+        }
+        mergers.clear();
+    }
+
+    /**
+     * 各机房注册中心最后一次通知的时间，毫秒，未收到过通知时为0
+     */
+    public Map<String, Long> getFreshness() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Member member : members) {
+            result.put(member.zone, member.lastNotify);
+        }
+        return result;
+    }
+
+    public List<String> getZones() {
+        List<String> zones = new ArrayList<>(members.size());
+        for (Member member : members) {
+            zones.add(member.zone);
+        }
+        return zones;
+    }
+
+    /**
+     * 本机房注册中心的可用性变化时，全部订阅重新合并
+     */
+    private void checkAvailable() {
+        boolean changed = false;
+        for (Member member : members) {
+            if (!member.isLocal()) continue;
+            boolean available = member.isAvailable();
+            if (available != member.available) {
+                member.available = available;
+                changed = true;
+                logger.info("Registry of zone " + member.zone + " is " + (available ? "available" : "unavailable") + ", merge providers again");
+            }
+        }
+        if (!changed) return;
+        for (ConcurrentMap<NotifyListener, Merger> listeners : mergers.values()) {
+            for (Merger merger : listeners.values()) {
+                merger.remerge();
+            }
+        }
+    }
+
+    /**
+     * 超时内全部完成或至少一个成功即返回，全部失败时抛出异常
+     */
+    private void await(List<CompletableFuture<Void>> futures, String action) {
+        try {
+            Futures.allOf(futures).get(timeout, TimeUnit.MILLISECONDS);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RegistryException("Interrupted while waiting to " + action, e);
+        } catch (ExecutionException | TimeoutException e) {
+            // 按各注册中心的结果处理
+        }
+        Throwable cause = null;
+        List<String> slow = new ArrayList<>();
+        int succeeded = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            CompletableFuture<Void> future = futures.get(i);
+            if (!future.isDone()) {
+                slow.add(members.get(i).zone);
+            } else if (future.isCompletedExceptionally()) {
+                try {
+                    future.join();
+                } catch (Throwable t) {
+                    cause = Futures.unwrap(t);
+                }
+            } else {
+                succeeded++;
+            }
+        }
+        if (succeeded == 0) {
+            throw new RegistryException("Failed to " + action + " to any registry, slow zones " + slow
+                    + (cause == null ? "" : ", cause: " + cause.getMessage()), cause);
+        }
+        logger.warn("Partially " + action + ", slow zones " + slow + ", continue in background"
+                + (cause == null ? "" : ", cause: " + cause.getMessage()));
+    }
+
+    private final class Member {
+        final String zone;
+        final RegistryService registry;
+        final ExecutorService executor;
+        volatile long lastNotify;
+        // 最近一次检查时的可用性
+        volatile boolean available;
+
+        Member(String zone, RegistryService registry) {
+            this.zone = zone;
+            this.registry = registry;
+            this.executor = RegistryExecutors.newExecutor("RegistryFederation-" + zone, Constants.DEFAULT_ASYNC_THREADS);
+            this.available = isAvailable();
+        }
+
+        /**
+         * 在本注册中心的线程池中发起调用，异步实现直接返回其future，同步实现在线程池中执行
+         */
+        CompletableFuture<Void> submit(Supplier<CompletableFuture<Void>> call) {
+            try {
+                return CompletableFuture.supplyAsync(call, executor).thenCompose(future -> future);
+            } catch (RejectedExecutionException e) {
+                return Futures.failed(new RegistryException("Registry of zone " + zone + " is destroyed", e));
+            }
+        }
+
+        boolean isAvailable() {
+            return !(registry instanceof Node) || ((Node) registry).isAvailable();
+        }
+
+        boolean isLocal() {
+            return zone.equals(localZone);
+        }
+    }
+
+    /**
+     * 一个订阅在各注册中心的结果，任一来源变化时合并后通知。
+     * 通知在锁内按合并的顺序提交到串行队列，在锁外执行，监听阻塞不影响来源的更新
+     */
+    private final class Merger {
+        final URL url;
+        final NotifyListener listener;
+        final Source[] sources;
+        private final SerialExecutor notifier = new SerialExecutor(notifyExecutor);
+        // guarded by this，分类 -> 各来源的提供者
+        private final Map<String, Part[]> categories = new HashMap<>();
+        private final Map<String, List<URL>> notified = new HashMap<>();
+        private long version;
+
+        Merger(URL url, NotifyListener listener) {
+            this.url = url;
+            this.listener = listener;
+            this.sources = new Source[members.size()];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = new Source(this, i);
+            }
+        }
+
+        synchronized void update(int source, List<URL> urls) {
+            if (urls.isEmpty()) return;
+            String category = urls.get(0).getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY);
+            Part[] bySource = categories.get(category);
+            if (bySource == null) {
+                bySource = new Part[sources.length];
+                categories.put(category, bySource);
+            }
+            Member member = members.get(source);
+            bySource[source] = new Part(member.zone, urls);
+            member.lastNotify = System.currentTimeMillis();
+            publish(category, bySource);
+        }
+
+        synchronized void remerge() {
+            for (Map.Entry<String, Part[]> entry : categories.entrySet()) {
+                publish(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // guarded by this
+        private void publish(String category, Part[] bySource) {
+            List<URL> merged = merge(bySource);
+            if (merged.isEmpty()) {
+                merged = Collections.singletonList(url.withProtocol(Constants.EMPTY_PROTOCOL).withParameter(Constants.CATEGORY_KEY, category));
+            }
+            List<URL> previous = notified.put(category, merged);
+            if (merged.equals(previous)) return;
+            Runnable task;
+            if (listener instanceof DeltaNotifyListener) {
+                NotifyEvent event = NotifyEvent.diff(url, category, ++version, previous, merged);
+                task = () -> ((DeltaNotifyListener) listener).notify(event);
+            } else {
+                List<URL> urls = merged;
+                task = () -> listener.notify(urls);
+            }
+            try {
+                notifier.execute(task);
+            } catch (RejectedExecutionException e) {
+                // 已销毁
+            }
+        }
+
+        /**
+         * 本机房可用且有提供者时只用本机房的，否则合并全部来源，相同的URL只保留一个
+         */
+        private List<URL> merge(Part[] bySource) {
+            List<URL> local = new ArrayList<>();
+            // 原始URL -> 带来源的URL
+            Map<URL, URL> all = new LinkedHashMap<>();
+            for (int i = 0; i < bySource.length; i++) {
+                Part part = bySource[i];
+                if (part == null) continue;
+                Member member = members.get(i);
+                boolean preferred = member.isLocal() && member.isAvailable();
+                for (int j = 0; j < part.urls.size(); j++) {
+                    if (preferred) local.add(part.tagged.get(j));
+                    if (!all.containsKey(part.urls.get(j))) all.put(part.urls.get(j), part.tagged.get(j));
+                }
+            }
+            return local.isEmpty() ? new ArrayList<>(all.values()) : local;
+        }
+    }
+
+    /**
+     * 一个来源某个分类的提供者，empty协议的URL表示为空
+     */
+    private static final class Part {
+        final List<URL> urls;
+        final List<URL> tagged;
+
+        Part(String zone, List<URL> providers) {
+            this.urls = new ArrayList<>(providers.size());
+            this.tagged = new ArrayList<>(providers.size());
+            for (URL u : providers) {
+                if (Constants.EMPTY_PROTOCOL.equals(u.getProtocol())) continue;
+                urls.add(u);
+                tagged.add(u.withParameter(ZONE_KEY, zone));
+            }
+        }
+    }
+
+    /**
+     * 向单个注册中心订阅时使用的监听
+     */
+    private static final class Source implements NotifyListener {
+        private final Merger merger;
+        private final int index;
+
+        Source(Merger merger, int index) {
+            this.merger = merger;
+            this.index = index;
+        }
+
+        @Override
+        public void notify(List<URL> urls) {
+            merger.update(index, urls);
+        }
+    }
+}
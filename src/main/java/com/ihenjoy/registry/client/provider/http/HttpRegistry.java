@@ -0,0 +1,872 @@
+package com.ihenjoy.registry.client.provider.http;
+
+import com.ihenjoy.registry.client.api.Node;
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.api.RegistryService;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.exception.RegistryException;
+import com.ihenjoy.registry.client.metrics.DefaultRegistryMetrics;
+import com.ihenjoy.registry.client.metrics.Gauge;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+import com.ihenjoy.registry.client.support.Backoff;
+import com.ihenjoy.registry.client.support.NotifyDispatcher;
+import com.ihenjoy.registry.client.support.RegistryExecutors;
+import com.ihenjoy.registry.client.support.RegistryUrls;
+import com.ihenjoy.registry.client.support.Retrier;
+import com.ihenjoy.registry.client.support.Subscriber;
+import com.ihenjoy.registry.client.util.ConcurrentHashSet;
+import com.ihenjoy.registry.client.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于http长轮询的注册中心，服务端见registry-server模块。
+ * 全部订阅的分类合并为一个长轮询，带上各分类已知的版本号，服务端只返回之后的变更，
+ * 不需要像zookeeper一样每次变更后重新注册监听并拉取全部子节点。
+ * dynamic的注册属于会话，会话超时后由服务端删除；会话失效后重新创建并重新注册。
+ * 注册和订阅失败时按退避重试。心跳在共享的调度线程上计时，阻塞的请求和重试一样在重试线程池中执行。
+ * 启动时服务端不可用不影响创建，会话在首次使用时创建，轮询线程按退避继续尝试。
+ *
+ * @author chi
+ */
+public class HttpRegistry implements RegistryService, Node, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpRegistry.class);
+
+    private final URL registryUrl;
+    private final HttpRegistryClient client;
+    private final RegistryMetrics metrics;
+    private final NotifyDispatcher notifyDispatcher;
+    private final long pollTimeout;
+    private final long sessionTimeout;
+    private final Backoff pollBackoff;
+    private final Set<URL> registered = new ConcurrentHashSet<>();
+    // 已注册URL更新参数后的URL，重新注册后重新发送
+    private final ConcurrentMap<URL, URL> updated = new ConcurrentHashMap<>();
+    private final ConcurrentMap<URL, Set<NotifyListener>> subscribed = new ConcurrentHashMap<>();
+    // 每个服务分类一份本地数据，分发给该分类的全部订阅
+    private final ConcurrentMap<String, CategoryWatcher> watchers = new ConcurrentHashMap<>();
+    private final Object pollLock = new Object();
+    // 新的订阅中断了长轮询，不计为失败
+    private final AtomicBoolean rewatch = new AtomicBoolean();
+    private final ExecutorService retryExecutor;
+    private final Retrier registerRetrier;
+    private final Retrier subscribeRetrier;
+    private final Thread poller;
+    private final long heartbeatInterval;
+    private volatile ScheduledFuture<?> heartbeatFuture;
+    // 尚未创建成功时为null
+    private volatile String session;
+    // 创建和重建会话时持有，阻塞的http请求不占用this上的锁
+    private final Object sessionLock = new Object();
+    // 服务端实例的标识，变化时说明服务端已重启
+    private volatile String epoch;
+    private final AtomicBoolean restarted = new AtomicBoolean();
+    private volatile boolean destroyed;
+
+    public HttpRegistry(URL url) {
+        this(url, new DefaultRegistryMetrics());
+    }
+
+    public HttpRegistry(URL url, RegistryMetrics metrics) {
+        this(url, metrics, null);
+    }
+
+    public HttpRegistry(URL url, RegistryMetrics metrics, Executor notifyExecutor) {
+        this.registryUrl = url;
+        this.metrics = metrics;
+        this.client = new HttpRegistryClient(url.getAddress(), url.getParameter(Constants.TIMEOUT_KEY, Constants.DEFAULT_CONNECTION_TIMEOUT));
+        this.notifyDispatcher = new NotifyDispatcher(url, metrics, notifyExecutor);
+        this.pollTimeout = url.getParameter(Constants.POLL_TIMEOUT_KEY, Constants.DEFAULT_POLL_TIMEOUT);
+        this.sessionTimeout = url.getParameter(Constants.SESSION_TIMEOUT_KEY, Constants.DEFAULT_SESSION_TIMEOUT);
+        this.pollBackoff = new Backoff(url.getParameter(Constants.RETRY_PERIOD_KEY, 1000),
+                url.getParameter(Constants.RETRY_MAX_PERIOD_KEY, Constants.DEFAULT_RETRY_MAX_PERIOD));
+        int retryPeriod = url.getParameter(Constants.RETRY_PERIOD_KEY, Constants.DEFAULT_REGISTRY_RETRY_PERIOD);
+        int retryMaxPeriod = url.getParameter(Constants.RETRY_MAX_PERIOD_KEY, Constants.DEFAULT_RETRY_MAX_PERIOD);
+        int retryThreads = Math.max(1, url.getParameter(Constants.ASYNC_THREADS_KEY, Constants.DEFAULT_ASYNC_THREADS));
+        this.retryExecutor = RegistryExecutors.newExecutor(url, "RegistryHttpRetry", retryThreads);
+        this.registerRetrier = new Retrier(new Backoff(retryPeriod, retryMaxPeriod), retryExecutor);
+        this.subscribeRetrier = new Retrier(new Backoff(retryPeriod, retryMaxPeriod), retryExecutor);
+        metrics.gauge(RegistryMetrics.RETRY_REGISTERED, new Gauge() {
+            @Override
+            public long get() {
+                return registerRetrier.size();
+            }
+        });
+        metrics.gauge(RegistryMetrics.RETRY_SUBSCRIBED, new Gauge() {
+            @Override
+            public long get() {
+                return subscribeRetrier.size();
+            }
+        });
+        this.heartbeatInterval = Math.max(1, sessionTimeout / 3);
+        scheduleHeartbeat();
+        this.poller = new NamedThreadFactory("RegistryHttpPoll").newThread(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        });
+        this.poller.start();
+    }
+
+    @Override
+    public void register(URL url) {
+        registerAll(Collections.singletonList(url));
+    }
+
+    /**
+     * 同一会话的注册合并为一个请求
+     */
+    @Override
+    public void registerAll(Collection<URL> urls) {
+        checkDestroyed();
+        long start = System.nanoTime();
+        try {
+            doRegister(urls);
+        } catch (IOException e) {
+            for (URL url : urls) {
+                registerRetrier.retry(new RegisterTask(url));
+            }
+            metrics.counter(RegistryMetrics.REGISTER_FAILURES).add(urls.size());
+            throw new RegistryException("Failed to register " + urls + " to http registry " + registryUrl.getAddress() + ", waiting for retry, cause: " + e.getMessage(), e);
+        }
+        // 成功后才取消重试，失败时保留原有的退避状态
+        for (URL url : urls) {
+            registerRetrier.cancel(new RegisterTask(url));
+        }
+        metrics.histogram(RegistryMetrics.REGISTER_LATENCY).record(System.nanoTime() - start);
+    }
+
+    private void doRegister(Collection<URL> urls) throws IOException {
+        List<URL> dynamic = new ArrayList<>();
+        List<URL> persistent = new ArrayList<>();
+        for (URL url : urls) {
+            (url.getParameter(Constants.DYNAMIC_KEY, true) ? dynamic : persistent).add(url);
+        }
+        if (!persistent.isEmpty()) {
+            client.register(null, persistent);
+        }
+        String current = null;
+        if (!dynamic.isEmpty()) {
+            current = session();
+            if (!client.register(current, dynamic)) {
+                renewSession(current);
+                current = session;
+                if (!client.register(current, dynamic)) {
+                    throw new IOException("Session of http registry " + registryUrl.getAddress() + " expired again");
+                }
+            }
+        }
+        // 重新注册的节点同时恢复更新后的参数
+        for (URL url : urls) {
+            URL latest = updated.get(url);
+            if (latest != null) {
+                client.update(url.getParameter(Constants.DYNAMIC_KEY, true) ? current : null, url, latest);
+            }
+        }
+        registered.addAll(urls);
+    }
+
+    @Override
+    public void unregister(URL url) {
+        checkDestroyed();
+        registerRetrier.cancel(new RegisterTask(url));
+        try {
+            boolean dynamic = url.getParameter(Constants.DYNAMIC_KEY, true);
+            String current = session;
+            // 会话尚未创建时服务端没有本实例的dynamic注册
+            if (!dynamic || current != null) {
+                client.unregister(dynamic ? current : null, Collections.singletonList(url));
+            }
+        } catch (IOException e) {
+            throw new RegistryException("Failed to unregister " + url + " to http registry " + registryUrl.getAddress() + ", cause: " + e.getMessage(), e);
+        }
+        registered.remove(url);
+        updated.remove(url);
+    }
+
+    @Override
+    public void update(URL url, Map<String, String> parameters) {
+        checkDestroyed();
+        if (!registered.contains(url)) {
+            throw new RegistryException("Failed to update " + url + ", it is not registered");
+        }
+        URL latest = url.withParameters(parameters);
+        updated.put(url, latest);
+        boolean exists;
+        try {
+            exists = client.update(url.getParameter(Constants.DYNAMIC_KEY, true) ? session : null, url, latest);
+        } catch (IOException e) {
+            throw new RegistryException("Failed to update " + url + " to http registry " + registryUrl.getAddress() + ", cause: " + e.getMessage(), e);
+        }
+        if (!exists) {
+            // 会话重建后随注册一起重新发送
+            throw new RegistryException("Failed to update " + url + ", it is not registered on http registry " + registryUrl.getAddress());
+        }
+    }
+
+    @Override
+    public void subscribe(URL url, NotifyListener notifyListener) {
+        checkDestroyed();
+        long start = System.nanoTime();
+        SubscribeTask task = new SubscribeTask(url, notifyListener);
+        try {
+            doSubscribe(url, notifyListener);
+        } catch (IOException e) {
+            subscribeRetrier.retry(task);
+            metrics.counter(RegistryMetrics.SUBSCRIBE_FAILURES).increment();
+            throw new RegistryException("Failed to subscribe " + url + " to http registry " + registryUrl.getAddress() + ", waiting for retry, cause: " + e.getMessage(), e);
+        }
+        subscribeRetrier.cancel(task);
+        metrics.histogram(RegistryMetrics.SUBSCRIBE_LATENCY).record(System.nanoTime() - start);
+    }
+
+    private void doSubscribe(URL url, NotifyListener notifyListener) throws IOException {
+        addSubscribed(url, notifyListener);
+        doRegister(Collections.singletonList(url.withParameter(Constants.CATEGORY_KEY, Constants.CONSUMER_CATEGORY)));
+
+        List<URL> urls = new ArrayList<>();
+        boolean added = false;
+        for (String category : RegistryUrls.toCategories(url)) {
+            CategoryWatcher watcher = getWatcher(url.getService(), category);
+            Subscriber subscriber;
+            while ((subscriber = watcher.add(url, notifyListener)) == null) {
+                // 并发取消订阅时监听已移除，重新创建
+                watcher = getWatcher(url.getService(), category);
+            }
+            boolean watching = watcher.isWatching();
+            List<URL> children = watcher.watch();
+            if (!watching) added = true;
+            if (!children.isEmpty()) {
+                urls.addAll(RegistryUrls.toUrlsWithEmpty(url, subscriber.getSelector(), category, children));
+            }
+        }
+        if (added) rewatch();
+        notify(url, notifyListener, urls);
+    }
+
+    /**
+     * 批量订阅。消费者节点合并为一个注册请求，未拉取过的分类合并为一个请求拉取全量，
+     * 之后一次性发出首次通知
+     */
+    @Override
+    public void subscribeAll(Map<URL, NotifyListener> subscriptions) {
+        checkDestroyed();
+        if (subscriptions.isEmpty()) return;
+        long start = System.nanoTime();
+        try {
+            doSubscribeAll(subscriptions);
+        } catch (IOException e) {
+            for (Map.Entry<URL, NotifyListener> entry : subscriptions.entrySet()) {
+                subscribeRetrier.retry(new SubscribeTask(entry.getKey(), entry.getValue()));
+            }
+            metrics.counter(RegistryMetrics.SUBSCRIBE_FAILURES).add(subscriptions.size());
+            throw new RegistryException("Failed to subscribe " + subscriptions.size() + " urls to http registry " + registryUrl.getAddress() + ", waiting for retry, cause: " + e.getMessage(), e);
+        }
+        for (Map.Entry<URL, NotifyListener> entry : subscriptions.entrySet()) {
+            subscribeRetrier.cancel(new SubscribeTask(entry.getKey(), entry.getValue()));
+        }
+        metrics.histogram(RegistryMetrics.SUBSCRIBE_LATENCY).record(System.nanoTime() - start);
+    }
+
+    private void doSubscribeAll(Map<URL, NotifyListener> subscriptions) throws IOException {
+        List<URL> consumers = new ArrayList<>(subscriptions.size());
+        Map<URL, Map<CategoryWatcher, Subscriber>> subscribing = new LinkedHashMap<>();
+        Set<CategoryWatcher> fetching = new LinkedHashSet<>();
+        for (Map.Entry<URL, NotifyListener> entry : subscriptions.entrySet()) {
+            URL url = entry.getKey();
+            addSubscribed(url, entry.getValue());
+            consumers.add(url.withParameter(Constants.CATEGORY_KEY, Constants.CONSUMER_CATEGORY));
+            Map<CategoryWatcher, Subscriber> subscribers = new LinkedHashMap<>(4);
+            for (String category : RegistryUrls.toCategories(url)) {
+                CategoryWatcher watcher = getWatcher(url.getService(), category);
+                Subscriber subscriber;
+                while ((subscriber = watcher.add(url, entry.getValue())) == null) {
+                    watcher = getWatcher(url.getService(), category);
+                }
+                subscribers.put(watcher, subscriber);
+                if (!watcher.isWatching()) fetching.add(watcher);
+            }
+            subscribing.put(url, subscribers);
+        }
+        doRegister(consumers);
+        if (!fetching.isEmpty()) {
+            List<String> keys = new ArrayList<>(fetching.size());
+            for (CategoryWatcher watcher : fetching) {
+                keys.add(watcher.key + " -1");
+            }
+            Map<CategoryWatcher, Changes> changes = parse(client.watch(keys, 0, epoch));
+            for (CategoryWatcher watcher : fetching) {
+                Changes full = changes.get(watcher);
+                if (full != null) watcher.update(full, -1);
+            }
+            rewatch();
+        }
+        for (Map.Entry<URL, Map<CategoryWatcher, Subscriber>> entry : subscribing.entrySet()) {
+            URL url = entry.getKey();
+            List<URL> urls = new ArrayList<>();
+            for (Map.Entry<CategoryWatcher, Subscriber> subscriber : entry.getValue().entrySet()) {
+                CategoryWatcher watcher = subscriber.getKey();
+                List<URL> children = watcher.current;
+                if (!children.isEmpty()) {
+                    urls.addAll(RegistryUrls.toUrlsWithEmpty(url, subscriber.getValue().getSelector(), watcher.category, children));
+                }
+            }
+            notify(url, subscriptions.get(url), urls);
+        }
+    }
+
+    private void addSubscribed(URL url, NotifyListener notifyListener) {
+        Set<NotifyListener> listeners = subscribed.get(url);
+        if (listeners == null) {
+            subscribed.putIfAbsent(url, new ConcurrentHashSet<NotifyListener>());
+            listeners = subscribed.get(url);
+        }
+        listeners.add(notifyListener);
+        notifyDispatcher.add(url, notifyListener);
+    }
+
+    /**
+     * 新的分类加入长轮询
+     */
+    private void rewatch() {
+        rewatch.set(true);
+        client.abort();
+        synchronized (pollLock) {
+            pollLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void unSubscribe(URL url, NotifyListener notifyListener) {
+        subscribeRetrier.cancel(new SubscribeTask(url, notifyListener));
+        Set<NotifyListener> listeners = subscribed.get(url);
+        if (listeners != null) {
+            listeners.remove(notifyListener);
+        }
+        for (String category : RegistryUrls.toCategories(url)) {
+            CategoryWatcher watcher = watchers.get(toKey(url.getService(), category));
+            if (watcher != null) {
+                watcher.remove(url, notifyListener);
+            }
+        }
+        notifyDispatcher.remove(url, notifyListener);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !destroyed;
+    }
+
+    /**
+     * 关闭会话，服务端删除本实例的dynamic注册
+     */
+    @Override
+    public void destroy() throws Exception {
+        destroyed = true;
+        ScheduledFuture<?> future = heartbeatFuture;
+        if (future != null) future.cancel(false);
+        registerRetrier.destroy();
+        subscribeRetrier.destroy();
+        retryExecutor.shutdown();
+        client.abort();
+        poller.interrupt();
+        try {
+            String current = session;
+            if (current != null) client.closeSession(current);
+        } catch (IOException e) {
+            logger.warn("Failed to close session of http registry " + registryUrl.getAddress() + ", cause: " + e.getMessage());
+        }
+        watchers.clear();
+        registered.clear();
+        subscribed.clear();
+        notifyDispatcher.destroy();
+    }
+
+    public URL getUrl() {
+        return registryUrl;
+    }
+
+    public RegistryMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Set<URL> getRegistered() {
+        return registered;
+    }
+
+    public Map<URL, Set<NotifyListener>> getSubscribed() {
+        return subscribed;
+    }
+
+    private void checkDestroyed() {
+        if (destroyed) {
+            throw new RegistryException("Registry " + registryUrl + " is destroyed");
+        }
+    }
+
+    // 共享的调度线程只负责计时，阻塞的心跳请求在重试线程池中执行，结束后才安排下一次
+    private void scheduleHeartbeat() {
+        if (destroyed) return;
+        heartbeatFuture = Retrier.scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    retryExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                heartbeat();
+                            } finally {
+                                scheduleHeartbeat();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 线程池已关闭或已满，间隔后再检查
+                    scheduleHeartbeat();
+                }
+            }
+        }, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void heartbeat() {
+        try {
+            String current = session;
+            // 会话由轮询线程创建
+            if (current == null) return;
+            if (!client.heartbeat(current)) {
+                logger.warn("Session of http registry " + registryUrl.getAddress() + " expired, renew it");
+                renewSession(current);
+            }
+        } catch (Throwable t) {
+            logger.warn("Failed to send heartbeat to http registry " + registryUrl.getAddress() + ", cause: " + t.getMessage());
+        }
+    }
+
+    /**
+     * 创建新的会话并重新注册全部节点，会话已被其他线程更新时不再重复创建。
+     * 会话失效也可能是服务端已重启，持久节点同样重新注册，已存在时服务端忽略。
+     * 全部节点重新注册后才使用新的会话，失败时仍保留失效的会话，由心跳再次重建，
+     * 全部节点同时交给注册重试
+     *
+     * @param expired 失效的会话
+     */
+    private void renewSession(String expired) throws IOException {
+        synchronized (sessionLock) {
+            doRenewSession(expired);
+        }
+    }
+
+    private void doRenewSession(String expired) throws IOException {
+        if (destroyed || expired == null || !expired.equals(session)) return;
+        String renewed = client.createSession(sessionTimeout);
+        List<URL> urls = new ArrayList<>(registered);
+        try {
+            List<URL> dynamic = new ArrayList<>();
+            List<URL> persistent = new ArrayList<>();
+            for (URL url : urls) {
+                (url.getParameter(Constants.DYNAMIC_KEY, true) ? dynamic : persistent).add(url);
+            }
+            if (!dynamic.isEmpty() && !client.register(renewed, dynamic)) {
+                throw new IOException("Session " + renewed + " of http registry " + registryUrl.getAddress() + " expired before recovered");
+            }
+            if (!persistent.isEmpty()) {
+                client.register(null, persistent);
+            }
+            for (Map.Entry<URL, URL> entry : updated.entrySet()) {
+                client.update(entry.getKey().getParameter(Constants.DYNAMIC_KEY, true) ? renewed : null, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            for (URL url : urls) {
+                registerRetrier.retry(new RegisterTask(url));
+            }
+            closeQuietly(renewed);
+            throw e;
+        }
+        session = renewed;
+        if (logger.isInfoEnabled()) {
+            logger.info("Renew session " + expired + " to " + renewed + ", recover register url " + urls);
+        }
+    }
+
+    /**
+     * 关闭未使用的会话，失败时由服务端超时删除
+     */
+    private void closeQuietly(String session) {
+        try {
+            client.closeSession(session);
+        } catch (IOException e) {
+            logger.warn("Failed to close session " + session + " of http registry " + registryUrl.getAddress() + ", cause: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 当前的会话，尚未创建时创建
+     */
+    private String session() throws IOException {
+        String current = session;
+        if (current != null) return current;
+        synchronized (sessionLock) {
+            if (session == null) {
+                session = client.createSession(sessionTimeout);
+                logger.info("Created session " + session + " of http registry " + registryUrl.getAddress());
+            }
+            return session;
+        }
+    }
+
+    /**
+     * 长轮询全部已拉取过的分类，没有分类时等待新的订阅。会话尚未创建时先按退避创建
+     */
+    private void poll() {
+        int failures = 0;
+        while (!destroyed) {
+            Map<CategoryWatcher, Long> versions = new HashMap<>();
+            List<String> keys = new ArrayList<>();
+            for (CategoryWatcher watcher : watchers.values()) {
+                long version = watcher.version();
+                if (version < 0) continue;
+                versions.put(watcher, version);
+                keys.add(watcher.key + " " + version);
+            }
+            try {
+                session();
+                if (keys.isEmpty()) {
+                    failures = 0;
+                    synchronized (pollLock) {
+                        pollLock.wait(pollTimeout);
+                    }
+                    continue;
+                }
+                List<String> changes = client.watch(keys, pollTimeout, epoch);
+                failures = 0;
+                apply(changes, versions);
+                if (restarted.getAndSet(false)) {
+                    try {
+                        recover();
+                    } catch (IOException e) {
+                        // 下一次轮询成功后再次恢复
+                        restarted.set(true);
+                        throw e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable t) {
+                if (destroyed) return;
+                if (t instanceof IOException && rewatch.getAndSet(false)) continue;
+                failures++;
+                logger.warn("Failed to poll http registry " + registryUrl.getAddress() + ", cause: " + t.getMessage());
+                try {
+                    Thread.sleep(pollBackoff.delay(failures));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 服务端重启后数据为空，重新创建会话并重新注册全部节点
+     */
+    private void recover() throws IOException {
+        renewSession(session);
+    }
+
+    /**
+     * 按分类应用服务端返回的变更并通知订阅
+     *
+     * @param versions 请求时各分类的版本，增量变更只应用于版本未变的分类
+     */
+    private void apply(List<String> lines, Map<CategoryWatcher, Long> versions) {
+        for (Map.Entry<CategoryWatcher, Changes> entry : parse(lines).entrySet()) {
+            CategoryWatcher watcher = entry.getKey();
+            Long since = versions.get(watcher);
+            if (watcher.update(entry.getValue(), since == null ? -1 : since)) {
+                watcher.changed();
+            }
+        }
+    }
+
+    private Map<CategoryWatcher, Changes> parse(List<String> lines) {
+        Map<CategoryWatcher, Changes> result = new LinkedHashMap<>();
+        Changes current = null;
+        boolean reset = false;
+        for (String line : lines) {
+            String[] fields = line.split(" ");
+            if ("@".equals(fields[0])) {
+                reset = changeEpoch(fields[1]);
+            } else if ("=".equals(fields[0]) || "~".equals(fields[0])) {
+                CategoryWatcher watcher = watchers.get(toKey(fields[1], fields[2]));
+                current = new Changes("=".equals(fields[0]), Long.parseLong(fields[3]), reset);
+                // 已取消的订阅
+                if (watcher != null) result.put(watcher, current);
+            } else if (current != null) {
+                current.lines.add(line);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 是否为新的服务端实例，此时全量结果不再与之前的版本比较
+     */
+    private synchronized boolean changeEpoch(String current) {
+        String previous = epoch;
+        if (current.equals(previous)) return false;
+        epoch = current;
+        if (previous != null) {
+            logger.warn("Http registry " + registryUrl.getAddress() + " restarted, recover registrations");
+            restarted.set(true);
+        }
+        return true;
+    }
+
+    private CategoryWatcher getWatcher(String service, String category) {
+        String key = toKey(service, category);
+        CategoryWatcher watcher = watchers.get(key);
+        if (watcher == null) {
+            watchers.putIfAbsent(key, new CategoryWatcher(key, category));
+            watcher = watchers.get(key);
+        }
+        return watcher;
+    }
+
+    private static String toKey(String service, String category) {
+        return service + " " + category;
+    }
+
+    private void notify(URL url, NotifyListener listener, List<URL> urls) {
+        for (Map.Entry<String, List<URL>> entry : RegistryUrls.groupByCategory(url, urls).entrySet()) {
+            notifyDispatcher.notify(url, listener, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void dispatch(URL url, NotifyListener listener, List<URL> urls) {
+        for (Map.Entry<String, List<URL>> entry : RegistryUrls.groupByCategory(url, urls).entrySet()) {
+            notifyDispatcher.dispatch(url, listener, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private class RegisterTask implements Runnable {
+        private final URL url;
+
+        RegisterTask(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            if (destroyed) return;
+            try {
+                doRegister(Collections.singletonList(url));
+            } catch (IOException e) {
+                throw new RegistryException("Failed to register " + url + " to http registry " + registryUrl.getAddress() + ", cause: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RegisterTask && url.equals(((RegisterTask) o).url);
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "register " + url;
+        }
+    }
+
+    private class SubscribeTask implements Runnable {
+        private final URL url;
+        private final NotifyListener listener;
+
+        SubscribeTask(URL url, NotifyListener listener) {
+            this.url = url;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            if (destroyed) return;
+            try {
+                doSubscribe(url, listener);
+            } catch (IOException e) {
+                throw new RegistryException("Failed to subscribe " + url + " to http registry " + registryUrl.getAddress() + ", cause: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SubscribeTask)) return false;
+            SubscribeTask that = (SubscribeTask) o;
+            return url.equals(that.url) && listener.equals(that.listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode() * 31 + listener.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "subscribe " + url;
+        }
+    }
+
+    /**
+     * 一个分类的全量或增量变更，按顺序的"+ url [published]"、"- url"，URL为编码后的字符串
+     */
+    private static final class Changes {
+        final boolean full;
+        final long version;
+        // 来自新的服务端实例，版本号重新开始
+        final boolean reset;
+        final List<String> lines = new ArrayList<>();
+
+        Changes(boolean full, long version, boolean reset) {
+            this.full = full;
+            this.version = version;
+            this.reset = reset;
+        }
+    }
+
+    /**
+     * 服务分类的本地数据和订阅
+     */
+    private class CategoryWatcher {
+        private final String key;
+        private final String category;
+        private final ConcurrentMap<URL, Subscriber> subscribers = new ConcurrentHashMap<>();
+        // guarded by this
+        private final Map<String, URL> urls = new LinkedHashMap<>();
+        private long version = -1;
+        private boolean closed;
+        private volatile List<URL> current = Collections.emptyList();
+
+        CategoryWatcher(String key, String category) {
+            this.key = key;
+            this.category = category;
+        }
+
+        /**
+         * @return 订阅的筛选条件和监听，已关闭时为null
+         */
+        synchronized Subscriber add(URL url, NotifyListener listener) {
+            if (closed) return null;
+            Subscriber subscriber = subscribers.get(url);
+            if (subscriber == null) {
+                subscriber = new Subscriber(url);
+                subscribers.put(url, subscriber);
+            }
+            subscriber.getListeners().add(listener);
+            return subscriber;
+        }
+
+        synchronized void remove(URL url, NotifyListener listener) {
+            Subscriber subscriber = subscribers.get(url);
+            if (subscriber != null) {
+                subscriber.getListeners().remove(listener);
+                if (subscriber.getListeners().isEmpty()) subscribers.remove(url);
+            }
+            if (subscribers.isEmpty()) {
+                closed = true;
+                watchers.remove(key, this);
+            }
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized boolean isWatching() {
+            return version >= 0;
+        }
+
+        /**
+         * 首次调用时拉取全量，之后由长轮询更新
+         */
+        synchronized List<URL> watch() throws IOException {
+            if (version < 0) {
+                Map<CategoryWatcher, Changes> changes = parse(client.watch(Collections.singletonList(key + " -1"), 0, epoch));
+                Changes full = changes.get(this);
+                if (full != null) update(full, -1);
+            }
+            return current;
+        }
+
+        /**
+         * @param since 请求时的版本
+         * @return 本地数据是否变化
+         */
+        synchronized boolean update(Changes changes, long since) {
+            if (changes.full) {
+                if (!changes.reset && changes.version < version) return false;
+                urls.clear();
+            } else if (since != version) {
+                // 请求后本地数据已更新，等下一次长轮询
+                return false;
+            }
+            for (String line : changes.lines) {
+                String encoded = line.substring(2);
+                int i = encoded.indexOf(' ');
+                if (line.charAt(0) == '-') {
+                    urls.remove(encoded);
+                } else if (i > 0) {
+                    // 参数已更新的节点
+                    urls.put(encoded.substring(0, i), URL.valueOf(URL.decode(encoded.substring(i + 1))));
+                } else if (!urls.containsKey(encoded)) {
+                    urls.put(encoded, URL.valueOf(URL.decode(encoded)));
+                }
+            }
+            version = changes.version;
+            current = Collections.unmodifiableList(new ArrayList<>(urls.values()));
+            return true;
+        }
+
+        void changed() {
+            long start = System.nanoTime();
+            List<URL> urls = current;
+            for (Map.Entry<URL, Subscriber> entry : subscribers.entrySet()) {
+                URL url = entry.getKey();
+                Subscriber subscriber = entry.getValue();
+                List<URL> consumerUrls = RegistryUrls.toUrlsWithEmpty(url, subscriber.getSelector(), category, urls);
+                for (NotifyListener listener : subscriber.getListeners()) {
+                    try {
+                        dispatch(url, listener, consumerUrls);
+                    } catch (Throwable t) {
+                        logger.error("Failed to notify " + url + ", cause: " + t.getMessage(), t);
+                    }
+                }
+            }
+            metrics.histogram(RegistryMetrics.NOTIFY_FANOUT).record(System.nanoTime() - start);
+        }
+    }
+}
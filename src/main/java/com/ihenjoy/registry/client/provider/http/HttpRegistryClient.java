@@ -0,0 +1,185 @@
+package com.ihenjoy.registry.client.provider.http;
+
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 注册中心服务端的http接口，请求和响应都是按行的文本。
+ * 长轮询的连接可由其他线程通过{@link #abort()}中断。
+ *
+ * @author chi
+ */
+public class HttpRegistryClient {
+
+    private final String address;
+    private final int timeout;
+    private volatile HttpURLConnection polling;
+    // 中断时还没有发出的长轮询也立即结束
+    private volatile boolean aborted;
+
+    /**
+     * @param timeout 连接和普通请求的超时，毫秒
+     */
+    public HttpRegistryClient(String address, int timeout) {
+        this.address = "http://" + address;
+        this.timeout = timeout;
+    }
+
+    public String createSession(long sessionTimeout) throws IOException {
+        Response response = post("/session?timeout=" + sessionTimeout, Collections.<String>emptyList(), timeout, false);
+        response.check();
+        return response.lines.isEmpty() ? null : response.lines.get(0);
+    }
+
+    /**
+     * @return 会话已超时时为false
+     */
+    public boolean heartbeat(String session) throws IOException {
+        Response response = post("/heartbeat?session=" + session, Collections.<String>emptyList(), timeout, false);
+        if (response.status == HttpURLConnection.HTTP_NOT_FOUND) return false;
+        response.check();
+        return true;
+    }
+
+    public void closeSession(String session) throws IOException {
+        post("/close?session=" + session, Collections.<String>emptyList(), timeout, false).check();
+    }
+
+    /**
+     * @param session 为null时注册持久节点
+     * @return 会话已超时时为false
+     */
+    public boolean register(String session, List<URL> urls) throws IOException {
+        Response response = post(session == null ? "/register" : "/register?session=" + session, toLines(urls), timeout, false);
+        if (response.status == HttpURLConnection.HTTP_NOT_FOUND) return false;
+        response.check();
+        return true;
+    }
+
+    public void unregister(String session, List<URL> urls) throws IOException {
+        post(session == null ? "/unregister" : "/unregister?session=" + session, toLines(urls), timeout, false).check();
+    }
+
+    /**
+     * @param session   注册节点的会话，持久节点为null
+     * @param url       注册时的URL
+     * @param published 更新后对外的URL
+     * @return 未注册或不属于该会话时为false
+     */
+    public boolean update(String session, URL url, URL published) throws IOException {
+        String line = toLine(url) + " " + URL.encode(published.toFullString());
+        Response response = post(session == null ? "/update" : "/update?session=" + session, Collections.singletonList(line), timeout, false);
+        if (response.status == HttpURLConnection.HTTP_NOT_FOUND) return false;
+        response.check();
+        return true;
+    }
+
+    /**
+     * 等待任一分类的版本变化，超时返回空
+     *
+     * @param keys  每行"service category version"
+     * @param epoch 版本所属的服务端实例，未知时为null
+     */
+    public List<String> watch(List<String> keys, long pollTimeout, String epoch) throws IOException {
+        String path = "/watch?timeout=" + pollTimeout + (epoch == null ? "" : "&epoch=" + URL.encode(epoch));
+        Response response = post(path, keys, (int) (pollTimeout + timeout), pollTimeout > 0);
+        response.check();
+        return response.lines;
+    }
+
+    /**
+     * 中断正在进行的长轮询
+     */
+    public void abort() {
+        aborted = true;
+        HttpURLConnection connection = polling;
+        if (connection != null) connection.disconnect();
+    }
+
+    static String toLine(URL url) {
+        String category = url.getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY);
+        return url.getService() + " " + category + " " + URL.encode(url.toFullString());
+    }
+
+    private static List<String> toLines(List<URL> urls) {
+        List<String> lines = new ArrayList<>(urls.size());
+        for (URL url : urls) {
+            lines.add(toLine(url));
+        }
+        return lines;
+    }
+
+    private Response post(String path, List<String> lines, int readTimeout, boolean poll) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new java.net.URL(address + path).openConnection();
+        if (poll) {
+            polling = connection;
+            if (aborted) {
+                aborted = false;
+                polling = null;
+                throw new InterruptedIOException("poll aborted");
+            }
+        }
+        try {
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setDoOutput(true);
+            StringBuilder body = new StringBuilder();
+            for (String line : lines) {
+                body.append(line).append('\n');
+            }
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            connection.setFixedLengthStreamingMode(bytes.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(bytes);
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            return new Response(status, in == null ? Collections.<String>emptyList() : readLines(in));
+        } finally {
+            if (poll) {
+                polling = null;
+                aborted = false;
+            }
+        }
+    }
+
+    private static List<String> readLines(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static final class Response {
+        final int status;
+        final List<String> lines;
+
+        Response(int status, List<String> lines) {
+            this.status = status;
+            this.lines = lines;
+        }
+
+        void check() throws IOException {
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + status + " " + lines);
+            }
+        }
+    }
+}
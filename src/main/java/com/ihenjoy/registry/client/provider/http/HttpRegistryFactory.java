@@ -0,0 +1,38 @@
+package com.ihenjoy.registry.client.provider.http;
+
+import com.ihenjoy.registry.client.api.RegistryFactory;
+import com.ihenjoy.registry.client.api.RegistryService;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.metrics.DefaultRegistryMetrics;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+
+import java.util.concurrent.Executor;
+
+/**
+ * @author chi
+ */
+public class HttpRegistryFactory implements RegistryFactory {
+    private final RegistryMetrics metrics;
+    private final Executor notifyExecutor;
+
+    public HttpRegistryFactory() {
+        this(new DefaultRegistryMetrics());
+    }
+
+    public HttpRegistryFactory(RegistryMetrics metrics) {
+        this(metrics, null);
+    }
+
+    /**
+     * @param notifyExecutor 执行监听器的执行器，为null时按注册中心URL的配置创建
+     */
+    public HttpRegistryFactory(RegistryMetrics metrics, Executor notifyExecutor) {
+        this.metrics = metrics;
+        this.notifyExecutor = notifyExecutor;
+    }
+
+    @Override
+    public RegistryService getRegistry(URL url) {
+        return new HttpRegistry(url, metrics, notifyExecutor);
+    }
+}
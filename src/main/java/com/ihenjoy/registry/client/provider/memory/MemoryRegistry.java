@@ -0,0 +1,294 @@
+package com.ihenjoy.registry.client.provider.memory;
+
+import com.ihenjoy.registry.client.api.Node;
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.api.RegistryService;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.exception.RegistryException;
+import com.ihenjoy.registry.client.metrics.DefaultRegistryMetrics;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+import com.ihenjoy.registry.client.support.NotifyDispatcher;
+import com.ihenjoy.registry.client.support.RegistryUrls;
+import com.ihenjoy.registry.client.support.Subscriber;
+import com.ihenjoy.registry.client.util.ConcurrentHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * 进程内的注册中心，用于集成测试和压测，不依赖zookeeper。
+ * 注册地址相同的实例共享同一份数据，通知语义与{@link com.ihenjoy.registry.client.provider.zookeeper.ZookeeperRegistry}一致：
+ * 按分类通知，分类为空时通知empty协议的URL，dynamic的注册在实例销毁时删除。
+ *
+ * @author chi
+ */
+public class MemoryRegistry implements RegistryService, Node, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryRegistry.class);
+
+    private static final String[] CATEGORIES = {Constants.PROVIDER_CATEGORY, Constants.CONSUMER_CATEGORY};
+
+    private final URL registryUrl;
+    private final MemoryStore store;
+    private final RegistryMetrics metrics;
+    private final NotifyDispatcher notifyDispatcher;
+    private final Set<URL> registered = new ConcurrentHashSet<>();
+    private final ConcurrentMap<URL, Set<NotifyListener>> subscribed = new ConcurrentHashMap<>();
+    // 每个服务分类只向存储注册一个监听，分发给该分类的全部订阅
+    private final ConcurrentMap<String, CategoryWatcher> watchers = new ConcurrentHashMap<>();
+    private volatile boolean destroyed;
+
+    public MemoryRegistry(URL url) {
+        this(url, new DefaultRegistryMetrics());
+    }
+
+    public MemoryRegistry(URL url, RegistryMetrics metrics) {
+        this(url, metrics, null);
+    }
+
+    public MemoryRegistry(URL url, RegistryMetrics metrics, Executor notifyExecutor) {
+        this.registryUrl = url;
+        this.metrics = metrics;
+        this.store = MemoryStore.acquire(url.getAddress());
+        this.notifyDispatcher = new NotifyDispatcher(url, metrics, notifyExecutor);
+    }
+
+    @Override
+    public void register(URL url) {
+        checkDestroyed();
+        long start = System.nanoTime();
+        store.register(url.getService(), RegistryUrls.toCategory(url), url);
+        registered.add(url);
+        metrics.histogram(RegistryMetrics.REGISTER_LATENCY).record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void registerAll(Collection<URL> urls) {
+        for (URL url : urls) {
+            register(url);
+        }
+    }
+
+    @Override
+    public void unregister(URL url) {
+        checkDestroyed();
+        store.unregister(url.getService(), RegistryUrls.toCategory(url), url);
+        registered.remove(url);
+    }
+
+    @Override
+    public void update(URL url, Map<String, String> parameters) {
+        checkDestroyed();
+        if (!registered.contains(url) || !store.update(url.getService(), RegistryUrls.toCategory(url), url, url.withParameters(parameters))) {
+            throw new RegistryException("Failed to update " + url + ", it is not registered");
+        }
+    }
+
+    @Override
+    public void subscribe(URL url, NotifyListener notifyListener) {
+        checkDestroyed();
+        long start = System.nanoTime();
+        Set<NotifyListener> listeners = subscribed.get(url);
+        if (listeners == null) {
+            subscribed.putIfAbsent(url, new ConcurrentHashSet<NotifyListener>());
+            listeners = subscribed.get(url);
+        }
+        listeners.add(notifyListener);
+        notifyDispatcher.add(url, notifyListener);
+        register(url.withParameter(Constants.CATEGORY_KEY, Constants.CONSUMER_CATEGORY));
+
+        List<URL> urls = new ArrayList<>();
+        for (String category : CATEGORIES) {
+            CategoryWatcher watcher = getWatcher(url.getService(), category);
+            Subscriber subscriber;
+            while ((subscriber = watcher.add(url, notifyListener)) == null) {
+                // 并发取消订阅时监听已移除，重新创建
+                watcher = getWatcher(url.getService(), category);
+            }
+            List<URL> children = watcher.watch();
+            if (!children.isEmpty()) {
+                urls.addAll(RegistryUrls.toUrlsWithEmpty(url, subscriber.getSelector(), category, children));
+            }
+        }
+        notify(url, notifyListener, urls);
+        metrics.histogram(RegistryMetrics.SUBSCRIBE_LATENCY).record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void unSubscribe(URL url, NotifyListener notifyListener) {
+        Set<NotifyListener> listeners = subscribed.get(url);
+        if (listeners != null) {
+            listeners.remove(notifyListener);
+        }
+        for (String category : CATEGORIES) {
+            CategoryWatcher watcher = watchers.get(url.getService() + Constants.PATH_SEPARATOR + category);
+            if (watcher != null) {
+                watcher.remove(url, notifyListener);
+            }
+        }
+        notifyDispatcher.remove(url, notifyListener);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !destroyed;
+    }
+
+    /**
+     * 删除本实例的dynamic注册，相当于zookeeper会话关闭时删除临时节点，并释放共享的存储
+     */
+    @Override
+    public synchronized void destroy() throws Exception {
+        if (destroyed) return;
+        destroyed = true;
+        for (CategoryWatcher watcher : watchers.values()) {
+            watcher.close();
+        }
+        watchers.clear();
+        for (URL url : registered) {
+            if (url.getParameter(Constants.DYNAMIC_KEY, true)) {
+                store.unregister(url.getService(), RegistryUrls.toCategory(url), url);
+            }
+        }
+        registered.clear();
+        subscribed.clear();
+        notifyDispatcher.destroy();
+        store.release();
+    }
+
+    public URL getUrl() {
+        return registryUrl;
+    }
+
+    public RegistryMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Set<URL> getRegistered() {
+        return registered;
+    }
+
+    public Map<URL, Set<NotifyListener>> getSubscribed() {
+        return subscribed;
+    }
+
+    private void checkDestroyed() {
+        if (destroyed) {
+            throw new RegistryException("Registry " + registryUrl + " is destroyed");
+        }
+    }
+
+    private CategoryWatcher getWatcher(String service, String category) {
+        String key = service + Constants.PATH_SEPARATOR + category;
+        CategoryWatcher watcher = watchers.get(key);
+        if (watcher == null) {
+            watchers.putIfAbsent(key, new CategoryWatcher(key, service, category));
+            watcher = watchers.get(key);
+        }
+        return watcher;
+    }
+
+    private void notify(URL url, NotifyListener listener, List<URL> urls) {
+        for (Map.Entry<String, List<URL>> entry : RegistryUrls.groupByCategory(url, urls).entrySet()) {
+            notifyDispatcher.notify(url, listener, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void dispatch(URL url, NotifyListener listener, List<URL> urls) {
+        for (Map.Entry<String, List<URL>> entry : RegistryUrls.groupByCategory(url, urls).entrySet()) {
+            notifyDispatcher.dispatch(url, listener, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 服务分类上共享的监听
+     */
+    private class CategoryWatcher implements MemoryStore.CategoryListener {
+        private final String key;
+        private final String service;
+        private final String category;
+        private final ConcurrentMap<URL, Subscriber> subscribers = new ConcurrentHashMap<>();
+        // guarded by this
+        private boolean watching;
+        private boolean closed;
+
+        CategoryWatcher(String key, String service, String category) {
+            this.key = key;
+            this.service = service;
+            this.category = category;
+        }
+
+        /**
+         * @return 订阅的筛选条件和监听，已关闭时为null
+         */
+        synchronized Subscriber add(URL url, NotifyListener listener) {
+            if (closed) return null;
+            Subscriber subscriber = subscribers.get(url);
+            if (subscriber == null) {
+                subscriber = new Subscriber(url);
+                subscribers.put(url, subscriber);
+            }
+            subscriber.getListeners().add(listener);
+            return subscriber;
+        }
+
+        synchronized void remove(URL url, NotifyListener listener) {
+            Subscriber subscriber = subscribers.get(url);
+            if (subscriber != null) {
+                subscriber.getListeners().remove(listener);
+                if (subscriber.getListeners().isEmpty()) subscribers.remove(url);
+            }
+            if (subscribers.isEmpty()) {
+                watchers.remove(key, this);
+                close();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (watching) {
+                store.unwatch(service, category, this);
+                watching = false;
+            }
+        }
+
+        /**
+         * 首次调用时向存储注册监听，返回当前的节点
+         */
+        synchronized List<URL> watch() {
+            if (!watching) {
+                store.watch(service, category, this);
+                watching = true;
+            }
+            return store.lookup(service, category);
+        }
+
+        @Override
+        public void changed(String service, String category, List<URL> urls) {
+            long start = System.nanoTime();
+            for (Map.Entry<URL, Subscriber> entry : subscribers.entrySet()) {
+                URL url = entry.getKey();
+                Subscriber subscriber = entry.getValue();
+                List<URL> consumerUrls = RegistryUrls.toUrlsWithEmpty(url, subscriber.getSelector(), category, urls);
+                for (NotifyListener listener : subscriber.getListeners()) {
+                    try {
+                        dispatch(url, listener, consumerUrls);
+                    } catch (Throwable t) {
+                        logger.error("Failed to notify " + url + ", cause: " + t.getMessage(), t);
+                    }
+                }
+            }
+            metrics.histogram(RegistryMetrics.NOTIFY_FANOUT).record(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.ihenjoy.registry.client.provider.memory;
+
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 进程内的注册数据，同名的{@link MemoryRegistry}共享一份，相当于同一个注册中心集群。
+ * 读写都基于并发容器，不加锁；同一分类的连续变更合并后再通知监听器。
+ * 按引用计数共享，最后一个实例释放后删除数据并停止通知线程。
+ *
+ * @author chi
+ */
+public class MemoryStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryStore.class);
+
+    // 获取和释放在STORES上同步，引用计数guarded by STORES
+    private static final ConcurrentMap<String, MemoryStore> STORES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private int references;
+    // 服务 -> 分类 -> 节点
+    private final ConcurrentMap<String, ConcurrentMap<String, Category>> services = new ConcurrentHashMap<>();
+    private final ExecutorService publisher;
+
+    private MemoryStore(String name) {
+        this.name = name;
+        this.publisher = Executors.newSingleThreadExecutor(new NamedThreadFactory("MemoryRegistry-" + name));
+    }
+
+    /**
+     * 获取同名的存储并增加引用，与{@link #release()}成对调用
+     */
+    public static MemoryStore acquire(String name) {
+        synchronized (STORES) {
+            MemoryStore store = STORES.get(name);
+            if (store == null) {
+                store = new MemoryStore(name);
+                STORES.put(name, store);
+            }
+            store.references++;
+            return store;
+        }
+    }
+
+    /**
+     * @return 同名的存储，没有实例在使用时为null
+     */
+    public static MemoryStore get(String name) {
+        return STORES.get(name);
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时删除存储并停止通知线程
+     */
+    public void release() {
+        synchronized (STORES) {
+            if (--references > 0) return;
+            STORES.remove(name, this);
+        }
+        publisher.shutdown();
+    }
+
+    public void register(String service, String category, URL url) {
+        Category node = getCategory(service, category);
+        if (node.urls.putIfAbsent(url, url) == null) {
+            node.changed();
+        }
+    }
+
+    public void unregister(String service, String category, URL url) {
+        Category node = getCategory(service, category);
+        if (node.urls.remove(url) != null) {
+            node.changed();
+        }
+    }
+
+    /**
+     * 替换已注册URL对外的参数，节点不变
+     *
+     * @return 未注册时为false
+     */
+    public boolean update(String service, String category, URL url, URL published) {
+        Category node = getCategory(service, category);
+        URL previous = node.urls.replace(url, published);
+        if (previous == null) return false;
+        if (!previous.equals(published)) node.changed();
+        return true;
+    }
+
+    public List<URL> lookup(String service, String category) {
+        return getCategory(service, category).snapshot();
+    }
+
+    public void watch(String service, String category, CategoryListener listener) {
+        getCategory(service, category).listeners.add(listener);
+    }
+
+    public void unwatch(String service, String category, CategoryListener listener) {
+        getCategory(service, category).listeners.remove(listener);
+    }
+
+    private Category getCategory(String service, String category) {
+        ConcurrentMap<String, Category> categories = services.get(service);
+        if (categories == null) {
+            services.putIfAbsent(service, new ConcurrentHashMap<String, Category>());
+            categories = services.get(service);
+        }
+        Category node = categories.get(category);
+        if (node == null) {
+            categories.putIfAbsent(category, new Category(service, category));
+            node = categories.get(category);
+        }
+        return node;
+    }
+
+    public interface CategoryListener {
+        void changed(String service, String category, List<URL> urls);
+    }
+
+    private class Category implements Runnable {
+        final String service;
+        final String category;
+        // 注册时的URL -> 对外的URL
+        final ConcurrentMap<URL, URL> urls = new ConcurrentHashMap<>();
+        final Set<CategoryListener> listeners = new CopyOnWriteArraySet<>();
+        final AtomicBoolean dirty = new AtomicBoolean();
+
+        Category(String service, String category) {
+            this.service = service;
+            this.category = category;
+        }
+
+        List<URL> snapshot() {
+            return Collections.unmodifiableList(new ArrayList<>(urls.values()));
+        }
+
+        void changed() {
+            if (!listeners.isEmpty() && dirty.compareAndSet(false, true)) {
+                publisher.execute(this);
+            }
+        }
+
+        // 合并期间的全部变更只生成一次快照
+        @Override
+        public void run() {
+            dirty.set(false);
+            List<URL> current = snapshot();
+            for (CategoryListener listener : listeners) {
+                try {
+                    listener.changed(service, category, current);
+                } catch (Throwable t) {
+                    logger.error("Failed to publish " + service + "/" + category + ", cause: " + t.getMessage(), t);
+                }
+            }
+        }
+    }
+}
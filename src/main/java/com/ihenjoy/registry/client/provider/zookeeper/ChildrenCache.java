@@ -0,0 +1,208 @@
+package com.ihenjoy.registry.client.provider.zookeeper;
+
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.URLCodec;
+import com.ihenjoy.registry.client.common.URLInterner;
+import com.ihenjoy.registry.client.common.URLSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 分类路径下子节点的本地快照，以原始节点名为key。
+ * 子节点变更时只处理新增的节点，已有的直接复用，删除的节点随新快照丢弃。
+ * 节点名只解码为字符串，URL在首次被订阅选中时才解析，不匹配任何订阅的提供者不会被解析。
+ * 紧凑编码的节点名只是ID，新增的ID批量读取节点数据后解码。
+ * 带load参数的提供者发布的最新URL在节点数据中，新增时同样读取，之后由数据监听更新；
+ * 数据监听每个分类路径最多data.watches个，超出的节点只在新增时读取一次。
+ *
+ * @author chi
+ */
+class ChildrenCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChildrenCache.class);
+
+    private final ConcurrentMap<String, Map<String, Child>> snapshots = new ConcurrentHashMap<>();
+    private final URLInterner interner;
+    private final DataLoader loader;
+
+    /**
+     * @param interner URL复用池，为null时不复用
+     * @param loader   读取新增节点的数据
+     */
+    ChildrenCache(URLInterner interner, DataLoader loader) {
+        this.interner = interner;
+        this.loader = loader;
+    }
+
+    /**
+     * 用最新的子节点列表刷新快照
+     *
+     * @param path     分类路径
+     * @param children 当前全部子节点
+     * @return URL格式的子节点，顺序与children一致
+     */
+    List<Child> update(String path, List<String> children) {
+        if (children == null || children.isEmpty()) {
+            snapshots.remove(path);
+            return Collections.emptyList();
+        }
+        Map<String, Child> previous = snapshots.get(path);
+        // 新增的节点，紧凑编码的和带load参数的需要读取数据
+        Map<String, Child> added = new HashMap<>();
+        List<String> reads = null;
+        for (String name : children) {
+            if (previous != null && previous.containsKey(name)) continue;
+            Child child = URLCodec.isId(name) ? null : parse(name);
+            added.put(name, child);
+            if (child == null ? URLCodec.isId(name) : child.isDynamic()) {
+                if (reads == null) reads = new ArrayList<>();
+                reads.add(name);
+            }
+        }
+        Map<String, byte[]> loaded = reads == null ? Collections.<String, byte[]>emptyMap() : load(path, reads);
+        Map<String, Child> current = new HashMap<>(children.size() * 4 / 3 + 1);
+        List<Child> result = new ArrayList<>(children.size());
+        for (String name : children) {
+            Child child;
+            if (!added.containsKey(name)) {
+                child = previous.get(name);
+            } else if (URLCodec.isId(name)) {
+                byte[] data = loaded.get(name);
+                // 读取失败的不记入快照，下次变更时重新读取
+                if (data == null) continue;
+                URL url = decode(path, name, data);
+                child = url == null ? null : new Child(name, null, url);
+            } else {
+                child = added.get(name);
+                byte[] data = loaded.get(name);
+                if (child != null && data != null) child.update(path, data);
+            }
+            current.put(name, child);
+            if (child != null) result.add(child);
+        }
+        snapshots.put(path, current);
+        return result;
+    }
+
+    void remove(String path) {
+        snapshots.remove(path);
+    }
+
+    void clear() {
+        snapshots.clear();
+    }
+
+    private Map<String, byte[]> load(String path, List<String> children) {
+        try {
+            return loader.load(path, children);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            logger.warn("Failed to read " + children.size() + " nodes under " + path + ", cause: " + t.getMessage(), t);
+        }
+        return Collections.emptyMap();
+    }
+
+    // 版本不支持或数据损坏的节点记为null，下次变更时同样不再解码
+    private URL decode(String path, String child, byte[] data) {
+        try {
+            return URLCodec.decode(data, interner);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignore node " + path + "/" + child + ", cause: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // 非URL格式的节点记为null，下次变更时同样不再处理
+    private Child parse(String name) {
+        String provider = URL.decode(name);
+        if (!provider.contains("://")) return null;
+        return new Child(name, provider, null);
+    }
+
+    /**
+     * 子节点，URL在首次使用时解析
+     */
+    final class Child {
+        private final String name;
+        // 解码后的URL字符串，紧凑编码或已由节点数据更新时为null
+        private volatile String raw;
+        private volatile URL url;
+        private volatile boolean broken;
+        private final boolean dynamic;
+
+        Child(String name, String raw, URL url) {
+            this.name = name;
+            this.raw = raw;
+            this.url = url;
+            this.dynamic = raw != null ? URL.getRawParameter(raw, Constants.LOAD_KEY) != null : url.getParameter(Constants.LOAD_KEY) != null;
+        }
+
+        String name() {
+            return name;
+        }
+
+        /**
+         * 是否带load参数，其最新的URL在节点数据中
+         */
+        boolean isDynamic() {
+            return dynamic;
+        }
+
+        boolean matches(URLSelector selector) {
+            if (selector.isAll()) return true;
+            String r = raw;
+            return r != null ? selector.matches(r) : selector.matches(url);
+        }
+
+        /**
+         * @return 解析失败时为null
+         */
+        URL url() {
+            URL u = url;
+            if (u != null || broken) return u;
+            try {
+                u = interner == null ? URL.valueOf(raw) : interner.intern(raw);
+                url = u;
+            } catch (RuntimeException e) {
+                broken = true;
+                logger.warn("Ignore broken provider " + raw + ", cause: " + e.getMessage());
+            }
+            return u;
+        }
+
+        /**
+         * 用节点数据中的URL替换
+         *
+         * @return URL是否变化
+         */
+        boolean update(String path, byte[] data) {
+            URL u = decode(path, name, data);
+            if (u == null || u.equals(url())) return false;
+            url = u;
+            raw = null;
+            broken = false;
+            return true;
+        }
+    }
+
+    /**
+     * 批量读取子节点数据
+     */
+    interface DataLoader {
+        /**
+         * @return 子节点名到数据，读取失败的不在结果中
+         */
+        Map<String, byte[]> load(String path, Collection<String> children) throws InterruptedException;
+    }
+}
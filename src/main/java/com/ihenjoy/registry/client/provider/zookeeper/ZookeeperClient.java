@@ -1,32 +1,84 @@
 package com.ihenjoy.registry.client.provider.zookeeper;
 
+import com.ihenjoy.registry.client.common.Constants;
 import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.util.ConcurrentHashSet;
+import com.ihenjoy.registry.client.util.Futures;
 import org.I0Itec.zkclient.IZkChildListener;
 import org.I0Itec.zkclient.IZkStateListener;
 import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.ZkConnection;
 import org.I0Itec.zkclient.exception.ZkNoNodeException;
 import org.I0Itec.zkclient.exception.ZkNodeExistsException;
+import org.I0Itec.zkclient.exception.ZkTimeoutException;
+import org.I0Itec.zkclient.serialize.BytesPushThroughSerializer;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author chi
  */
 public class ZookeeperClient {
 
-    private final ZkClient zkClient;
+    private static final Logger logger = LoggerFactory.getLogger(ZookeeperClient.class);
+
+    private final String server;
+    private final int connectionTimeout;
     private final Set<StateListener> stateListeners = new CopyOnWriteArraySet<>();
-    private volatile Watcher.Event.KeeperState state = Watcher.Event.KeeperState.SyncConnected;
+    // 已确认存在的持久节点
+    private final Set<String> knownPaths = new ConcurrentHashSet<>();
+    private volatile ZkConnection zkConnection;
+    private volatile ZkClient zkClient;
+    private volatile Watcher.Event.KeeperState state = Watcher.Event.KeeperState.Disconnected;
+    // 首次连接是否已结束，无论成功与否
+    private volatile boolean attempted;
 
+    /**
+     * 创建时不连接，由{@link #connect()}或首次使用时连接，zookeeper不可用时不阻塞创建
+     */
     public ZookeeperClient(URL url) {
-        String server = url.getBackupAddress();
+        this.server = url.getBackupAddress();
         Assert.hasText(server, "zookeeper settings's server should not be empty!");
-        zkClient = new ZkClient(server);
-        zkClient.subscribeStateChanges(new IZkStateListener() {
+        this.connectionTimeout = url.getParameter(Constants.TIMEOUT_KEY, Constants.DEFAULT_CONNECTION_TIMEOUT);
+    }
+
+    /**
+     * 建立连接，已连接时直接返回，zookeeper不可用时在连接超时后抛出{@link ZkTimeoutException}
+     */
+    public synchronized void connect() {
+        if (zkClient != null) return;
+        try {
+            doConnect();
+        } finally {
+            attempted = true;
+        }
+    }
+
+    private void doConnect() {
+        ZkConnection connection = new ZkConnection(server);
+        // 节点数据按原始字节读写
+        ZkClient client = new ZkClient(connection, connectionTimeout, new BytesPushThroughSerializer());
+        client.subscribeStateChanges(new IZkStateListener() {
             @Override
             public void handleStateChanged(Watcher.Event.KeeperState state) throws Exception {
                 ZookeeperClient.this.state = state;
@@ -38,9 +90,37 @@ public class ZookeeperClient {
 
             @Override
             public void handleNewSession() throws Exception {
+                knownPaths.clear();
                 stateChanged(StateListener.RECONNECTED);
             }
         });
+        this.state = Watcher.Event.KeeperState.SyncConnected;
+        this.zkConnection = connection;
+        this.zkClient = client;
+    }
+
+    private ZkClient client() {
+        ZkClient client = zkClient;
+        if (client == null && !attempted) {
+            connectOnce();
+            client = zkClient;
+        }
+        if (client == null)
+            throw new IllegalStateException("zookeeper " + server + " is not connected");
+        return client;
+    }
+
+    /**
+     * 首次连接结束前连接一次，其他线程正在首次连接时等待其结束，最长为连接超时；
+     * 首次连接失败后不再等待，由注册中心的重连任务继续尝试
+     */
+    private synchronized void connectOnce() {
+        if (!attempted) connect();
+    }
+
+    private ZooKeeper zooKeeper() {
+        client();
+        return zkConnection.getZookeeper();
     }
 
     public boolean isConnected() {
@@ -48,11 +128,11 @@ public class ZookeeperClient {
     }
 
     public List<String> addChildListener(String path, IZkChildListener listener) {
-        return zkClient.subscribeChildChanges(path, listener);
+        return client().subscribeChildChanges(path, listener);
     }
 
     public void removeChildListener(String path, IZkChildListener listener) {
-        zkClient.unsubscribeChildChanges(path, listener);
+        client().unsubscribeChildChanges(path, listener);
     }
 
     public void addStateListener(StateListener stateListener) {
@@ -73,31 +153,241 @@ public class ZookeeperClient {
     }
 
     public void create(String path, boolean ephemeral) {
+        create(path, null, ephemeral);
+    }
+
+    /**
+     * @param data 节点数据，只写入叶子节点，可为null
+     */
+    public void create(String path, byte[] data, boolean ephemeral) {
+        try {
+            doCreate(path, data, ephemeral);
+        } catch (ZkNoNodeException e) {
+            // 缓存的父节点已被删除
+            invalidate(path);
+            doCreate(path, data, ephemeral);
+        }
+    }
+
+    private void doCreate(String path, byte[] data, boolean ephemeral) {
+        if (!ephemeral && knownPaths.contains(path)) {
+            return;
+        }
         int index = path.lastIndexOf('/');
         if (index > 0) {
-            create(path.substring(0, index), false);
+            doCreate(path.substring(0, index), null, false);
         }
         try {
             if (ephemeral)
-                zkClient.createEphemeral(path);
+                client().createEphemeral(path, data);
+            else if (data != null)
+                client().createPersistent(path, data);
             else
-                zkClient.createPersistent(path);
+                client().createPersistent(path);
         } catch (ZkNodeExistsException e) {
             // if node is exists,we should not handle
         }
+        if (!ephemeral) {
+            knownPaths.add(path);
+        }
+    }
+
+    /**
+     * 异步创建节点，未确认存在的父节点依次异步创建。
+     * future在zookeeper事件线程上完成，后续步骤不能阻塞。
+     */
+    public CompletableFuture<Void> createAsync(String path, boolean ephemeral) {
+        return createAsync(path, null, ephemeral);
+    }
+
+    public CompletableFuture<Void> createAsync(final String path, final byte[] data, final boolean ephemeral) {
+        return doCreateAsync(path, data, ephemeral).handle((v, t) -> {
+            if (t == null) return CompletableFuture.<Void>completedFuture(null);
+            // 缓存的父节点已被删除，清除缓存后重试一次
+            Throwable cause = Futures.unwrap(t);
+            if (cause instanceof KeeperException.NoNodeException) {
+                invalidate(path);
+                return doCreateAsync(path, data, ephemeral);
+            }
+            return Futures.<Void>failed(cause);
+        }).thenCompose(future -> future);
+    }
+
+    private CompletableFuture<Void> doCreateAsync(final String path, final byte[] data, final boolean ephemeral) {
+        if (!ephemeral && knownPaths.contains(path)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int index = path.lastIndexOf('/');
+        CompletableFuture<Void> parent = index > 0
+                ? doCreateAsync(path.substring(0, index), null, false) : CompletableFuture.<Void>completedFuture(null);
+        return parent.thenCompose(v -> {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            CreateMode mode = ephemeral ? CreateMode.EPHEMERAL : CreateMode.PERSISTENT;
+            zooKeeper().create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, mode, new AsyncCallback.StringCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, String name) {
+                    KeeperException.Code code = KeeperException.Code.get(rc);
+                    if (code == KeeperException.Code.OK || code == KeeperException.Code.NODEEXISTS) {
+                        if (!ephemeral) knownPaths.add(path);
+                        future.complete(null);
+                    } else {
+                        future.completeExceptionally(KeeperException.create(code, path));
+                    }
+                }
+            }, null);
+            return future;
+        });
+    }
+
+    /**
+     * 批量读取子节点数据，请求通过异步接口一次性发出，整批只等待一轮响应
+     *
+     * @return 子节点名到数据，已删除或读取失败的子节点不在结果中
+     */
+    public Map<String, byte[]> readAll(String parent, Collection<String> children) throws InterruptedException {
+        final Map<String, byte[]> result = new ConcurrentHashMap<>();
+        if (children.isEmpty()) return result;
+        ZooKeeper zooKeeper = zooKeeper();
+        final CountDownLatch latch = new CountDownLatch(children.size());
+        for (final String child : children) {
+            zooKeeper.getData(parent + "/" + child, false, new AsyncCallback.DataCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+                    if (rc == KeeperException.Code.OK.intValue() && data != null) {
+                        result.put(child, data);
+                    }
+                    latch.countDown();
+                }
+            }, null);
+        }
+        if (!latch.await(connectionTimeout, TimeUnit.MILLISECONDS)) {
+            logger.warn("Timeout to read " + children.size() + " nodes under " + parent + ", got " + result.size());
+        }
+        return result;
+    }
+
+    /**
+     * 异步读取节点数据并注册一次性的数据监听，回调和监听都在zookeeper事件线程上执行，不能阻塞
+     */
+    public void getData(String path, Watcher watcher, AsyncCallback.DataCallback callback) {
+        zooKeeper().getData(path, watcher, callback, null);
+    }
+
+    public void setData(String path, byte[] data) {
+        client().writeData(path, data);
+    }
+
+    /**
+     * 异步删除节点，节点不存在视为成功
+     */
+    public CompletableFuture<Void> deleteAsync(String path) {
+        knownPaths.remove(path);
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            zooKeeper().delete(path, -1, new AsyncCallback.VoidCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx) {
+                    KeeperException.Code code = KeeperException.Code.get(rc);
+                    if (code == KeeperException.Code.OK || code == KeeperException.Code.NONODE)
+                        future.complete(null);
+                    else
+                        future.completeExceptionally(KeeperException.create(code, path));
+                }
+            }, null);
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
+    /**
+     * 清除路径及其全部父节点的缓存
+     */
+    private void invalidate(String path) {
+        String parent = path;
+        while (parent.length() > 0) {
+            knownPaths.remove(parent);
+            int index = parent.lastIndexOf('/');
+            parent = index > 0 ? parent.substring(0, index) : "";
+        }
+    }
+
+    /**
+     * 批量创建节点。父节点按路径去重后只创建一次，叶子节点通过异步接口一次性发出，
+     * 整批只等待一轮响应。
+     *
+     * @return 创建失败的路径
+     */
+    public Set<String> createAll(Collection<String> paths, boolean ephemeral) throws InterruptedException {
+        Map<String, byte[]> nodes = new LinkedHashMap<>();
+        for (String path : paths) {
+            nodes.put(path, null);
+        }
+        return createAll(nodes, ephemeral);
+    }
+
+    /**
+     * @param nodes 路径及其数据，数据可为null
+     */
+    public Set<String> createAll(final Map<String, byte[]> nodes, boolean ephemeral) throws InterruptedException {
+        Collection<String> paths = nodes.keySet();
+        Set<String> parents = new LinkedHashSet<>();
+        for (String path : paths) {
+            int index = path.lastIndexOf('/');
+            if (index > 0) parents.add(path.substring(0, index));
+        }
+        for (String parent : parents) {
+            create(parent, false);
+        }
+
+        ZooKeeper zooKeeper = zooKeeper();
+        final Set<String> failed = new ConcurrentHashSet<>();
+        final CountDownLatch latch = new CountDownLatch(paths.size());
+        CreateMode mode = ephemeral ? CreateMode.EPHEMERAL : CreateMode.PERSISTENT;
+        for (String path : paths) {
+            zooKeeper.create(path, nodes.get(path), ZooDefs.Ids.OPEN_ACL_UNSAFE, mode, new AsyncCallback.StringCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, String name) {
+                    KeeperException.Code code = KeeperException.Code.get(rc);
+                    if (code == KeeperException.Code.NONODE) {
+                        invalidate(path);
+                    }
+                    if (code != KeeperException.Code.OK && code != KeeperException.Code.NODEEXISTS) {
+                        failed.add(path);
+                    }
+                    latch.countDown();
+                }
+            }, null);
+        }
+        if (!latch.await(connectionTimeout, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Timeout to create " + paths.size() + " nodes on zookeeper " + server);
+        }
+        // 父节点缓存失效的，清除缓存后逐个同步重试
+        Set<String> result = new LinkedHashSet<>();
+        for (String path : failed) {
+            try {
+                create(path, nodes.get(path), ephemeral);
+            } catch (Throwable e) {
+                logger.warn("Failed to create " + path + ", cause: " + e.getMessage(), e);
+                result.add(path);
+            }
+        }
+        return result;
     }
 
     public void delete(String path) {
+        knownPaths.remove(path);
         try {
-            zkClient.delete(path);
+            client().delete(path);
         } catch (ZkNoNodeException ex) {
 
         }
     }
 
-    public void destroy() {
+    public synchronized void destroy() {
         if (this.zkClient != null)
             this.zkClient.close();
+        this.zkClient = null;
     }
 
 }
@@ -6,28 +6,54 @@ import com.ihenjoy.registry.client.api.NotifyListener;
 import com.ihenjoy.registry.client.api.RegistryService;
 import com.ihenjoy.registry.client.common.Constants;
 import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.URLCodec;
+import com.ihenjoy.registry.client.common.URLSelector;
+import com.ihenjoy.registry.client.common.URLInterner;
 import com.ihenjoy.registry.client.common.exception.RegistryException;
+import com.ihenjoy.registry.client.metrics.DefaultRegistryMetrics;
+import com.ihenjoy.registry.client.metrics.Gauge;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+import com.ihenjoy.registry.client.support.Backoff;
+import com.ihenjoy.registry.client.support.NotifyDispatcher;
+import com.ihenjoy.registry.client.support.RecoveryEngine;
+import com.ihenjoy.registry.client.support.RegistryExecutors;
+import com.ihenjoy.registry.client.support.RegistrySnapshot;
+import com.ihenjoy.registry.client.support.RegistryUrls;
+import com.ihenjoy.registry.client.support.Retrier;
+import com.ihenjoy.registry.client.support.Subscriber;
 import com.ihenjoy.registry.client.util.ConcurrentHashSet;
+import com.ihenjoy.registry.client.util.Futures;
 import org.I0Itec.zkclient.IZkChildListener;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.util.CollectionUtils;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -37,27 +63,86 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
 
     final Logger logger = LoggerFactory.getLogger(ZookeeperRegistry.class);
 
-    private final Set<URL> failedRegistered = new ConcurrentHashSet<>();
     private final URL registryUrl;
-    private final ConcurrentMap<URL, Set<NotifyListener>> failedSubscribed = new ConcurrentHashMap<>();
+    // 紧凑编码：节点名为短ID，URL以二进制存放在节点数据中
+    private final boolean compact;
     private final ZookeeperClient zookeeperClient;
     private final Set<URL> registered = new ConcurrentHashSet<>();
+    // 已注册URL更新参数后的URL，写入节点数据
+    private final ConcurrentMap<URL, URL> updated = new ConcurrentHashMap<>();
     private final ConcurrentMap<URL, Set<NotifyListener>> subscribed = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService retryExecutor = Executors.newScheduledThreadPool(1);
-    private final ScheduledExecutorService reConnectExecutor = Executors.newScheduledThreadPool(1);
-    private final ScheduledFuture<?> reConnectFuture;
-    private final ScheduledFuture<?> retryFuture;
-    private final ConcurrentMap<URL, ConcurrentMap<NotifyListener, IZkChildListener>> zkListeners = new ConcurrentHashMap<>();
+    // 失败的注册、订阅各自按退避重试
+    private final Retrier registerRetrier;
+    private final Retrier subscribeRetrier;
+    private final Backoff reconnectBackoff;
+    private volatile ScheduledFuture<?> reconnectFuture;
+    // 只在重连检查中修改，检查在异步线程池中依次执行，上一次结束后才安排下一次
+    private int reconnectFailures;
+    private volatile boolean destroyed;
+    // 每个分类路径只注册一个zk监听，解析一次后分发给该路径的全部订阅
+    private final ConcurrentMap<String, PathWatcher> watchers = new ConcurrentHashMap<>();
+    // 各分类路径下已解析的子节点，变更时只解析新增节点
+    private final ChildrenCache childrenCache;
+    // 每个分类路径最多的数据监听数
+    private final int dataWatches;
+    private final NotifyDispatcher notifyDispatcher;
+    // 订阅结果的本地快照，zookeeper不可用时使用
+    private final RegistrySnapshot snapshot;
+    // 会话重建后并行、限速地恢复注册和订阅
+    private final RecoveryEngine recoveryEngine;
+    // 异步接口的回调、其中的阻塞步骤和失败重试在此执行，不占用zookeeper事件线程
+    private final ExecutorService asyncExecutor;
+    private final RegistryMetrics metrics;
     // 客户端获取过程锁，锁定客户端实例的创建过程，防止重复的客户端
     private final ReentrantLock clientLock = new ReentrantLock();
 
     public ZookeeperRegistry(URL url) {
+        this(url, new DefaultRegistryMetrics());
+    }
+
+    public ZookeeperRegistry(URL url, RegistryMetrics metrics) {
+        this(url, metrics, null);
+    }
+
+    /**
+     * @param notifyExecutor 执行监听器的执行器，为null时按URL的配置创建
+     */
+    public ZookeeperRegistry(URL url, RegistryMetrics metrics, Executor notifyExecutor) {
+        this(url, metrics, notifyExecutor, new ZookeeperClient(url));
+    }
+
+    ZookeeperRegistry(URL url, RegistryMetrics metrics, Executor notifyExecutor, ZookeeperClient zookeeperClient) {
         this.registryUrl = url;
-        this.zookeeperClient = new ZookeeperClient(url);
+        this.metrics = metrics;
+        int asyncThreads = Math.max(1, url.getParameter(Constants.ASYNC_THREADS_KEY, Constants.DEFAULT_ASYNC_THREADS));
+        this.asyncExecutor = RegistryExecutors.newExecutor(url, "RegistryAsync", asyncThreads);
+        int retryPeriod = url.getParameter(Constants.RETRY_PERIOD_KEY, Constants.DEFAULT_REGISTRY_RETRY_PERIOD);
+        int retryMaxPeriod = url.getParameter(Constants.RETRY_MAX_PERIOD_KEY, Constants.DEFAULT_RETRY_MAX_PERIOD);
+        this.registerRetrier = new Retrier(new Backoff(retryPeriod, retryMaxPeriod), asyncExecutor);
+        this.subscribeRetrier = new Retrier(new Backoff(retryPeriod, retryMaxPeriod), asyncExecutor);
+        this.reconnectBackoff = new Backoff(url.getParameter(Constants.RECONNECT_PERIOD_KEY, Constants.RECONNECT_PERIOD_DEFAULT),
+                url.getParameter(Constants.RECONNECT_MAX_PERIOD_KEY, Constants.DEFAULT_RECONNECT_MAX_PERIOD));
+        int internCapacity = url.getParameter(Constants.INTERN_KEY, Constants.DEFAULT_INTERN_CAPACITY);
+        this.notifyDispatcher = new NotifyDispatcher(url, metrics, notifyExecutor);
+        this.snapshot = new RegistrySnapshot(url, asyncExecutor);
+        this.recoveryEngine = new RecoveryEngine(url, metrics);
+        this.compact = Constants.COMPACT_ENCODING.equals(url.getParameter(Constants.ENCODING_KEY));
+        this.zookeeperClient = zookeeperClient;
+        this.dataWatches = url.getParameter(Constants.DATA_WATCHES_KEY, Constants.DEFAULT_DATA_WATCHES);
+        this.childrenCache = new ChildrenCache(internCapacity > 0 ? new URLInterner(internCapacity) : null, zookeeperClient::readAll);
         this.zookeeperClient.addStateListener(new StateListener() {
             @Override
             public void stateChanged(int state) {
-                if (state == RECONNECTED) {
+                if (state == CONNECTED) {
+                    ZookeeperRegistry.this.metrics.counter(RegistryMetrics.SESSION_CONNECTED).increment();
+                } else if (state == DISCONNECTED) {
+                    ZookeeperRegistry.this.metrics.counter(RegistryMetrics.SESSION_DISCONNECTED).increment();
+                } else if (state == RECONNECTED) {
+                    ZookeeperRegistry.this.metrics.counter(RegistryMetrics.SESSION_EXPIRED).increment();
+                    // 数据监听随会话失效
+                    for (PathWatcher watcher : watchers.values()) {
+                        watcher.rewatchData();
+                    }
                     try {
                         recover();
                     } catch (Exception e) {
@@ -66,109 +151,439 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
                 }
             }
         });
-
-        // 重新注册
-        this.retryFuture = retryExecutor.scheduleWithFixedDelay(new Runnable() {
+        metrics.gauge(RegistryMetrics.RETRY_REGISTERED, new Gauge() {
             @Override
-            public void run() {
-                retry();
+            public long get() {
+                return registerRetrier.size();
             }
-        }, Constants.DEFAULT_REGISTRY_RETRY_PERIOD, Constants.DEFAULT_REGISTRY_RETRY_PERIOD, TimeUnit.MILLISECONDS);
-
-        // 重新连接
-        this.reConnectFuture = reConnectExecutor.scheduleWithFixedDelay(new Runnable() {
+        });
+        metrics.gauge(RegistryMetrics.RETRY_SUBSCRIBED, new Gauge() {
             @Override
-            public void run() {
-                connect();
+            public long get() {
+                return subscribeRetrier.size();
             }
-        }, Constants.RECONNECT_PERIOD_DEFAULT, Constants.RECONNECT_PERIOD_DEFAULT, TimeUnit.MILLISECONDS);
+        });
+
+        // 首次连接在异步线程中进行，zookeeper不可用时不阻塞创建，订阅可以立即使用本地快照
+        try {
+            asyncExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connectFirst();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            scheduleReconnect(0);
+        }
     }
 
     @Override
     public void register(URL url) {
+        long start = System.nanoTime();
+        RegisterTask task = new RegisterTask(url);
         try {
-            failedRegistered.remove(url);
-            this.zookeeperClient.create(toUrlPath(url), url.getParameter(Constants.DYNAMIC_KEY, true));
-            registered.add(url);
+            task.run();
+            // 成功后才取消，失败时保留已有的退避状态
+            registerRetrier.cancel(task);
+            metrics.histogram(RegistryMetrics.REGISTER_LATENCY).record(System.nanoTime() - start);
         } catch (Throwable e) {
-            failedRegistered.add(url);
+            registerRetrier.retry(task);
+            metrics.counter(RegistryMetrics.REGISTER_FAILURES).increment();
             throw new RegistryException("Failed to register " + url + "to zookeeper ,cause :" + e.getMessage(), e);
         }
     }
 
+    @Override
+    public CompletableFuture<Void> registerAsync(final URL url) {
+        final long start = System.nanoTime();
+        final RegisterTask task = new RegisterTask(url);
+        return zookeeperClient.createAsync(toUrlPath(url), toData(url), url.getParameter(Constants.DYNAMIC_KEY, true))
+                .handleAsync((v, t) -> {
+                    if (t == null) {
+                        registered.add(url);
+                        registerRetrier.cancel(task);
+                        metrics.histogram(RegistryMetrics.REGISTER_LATENCY).record(System.nanoTime() - start);
+                        return null;
+                    }
+                    Throwable cause = Futures.unwrap(t);
+                    registerRetrier.retry(task);
+                    metrics.counter(RegistryMetrics.REGISTER_FAILURES).increment();
+                    throw new RegistryException("Failed to register " + url + " to zookeeper, cause: " + cause.getMessage(), cause);
+                }, asyncExecutor);
+    }
+
+    private void doRegister(URL url) {
+        this.zookeeperClient.create(toUrlPath(url), toData(url), url.getParameter(Constants.DYNAMIC_KEY, true));
+        registered.add(url);
+    }
+
+    @Override
+    public void registerAll(Collection<URL> urls) {
+        Map<String, URL> ephemerals = new LinkedHashMap<>();
+        Map<String, URL> persistents = new LinkedHashMap<>();
+        for (URL url : urls) {
+            if (url.getParameter(Constants.DYNAMIC_KEY, true))
+                ephemerals.put(toUrlPath(url), url);
+            else
+                persistents.put(toUrlPath(url), url);
+        }
+        long start = System.nanoTime();
+        int failed = registerAll(ephemerals, true) + registerAll(persistents, false);
+        metrics.histogram(RegistryMetrics.REGISTER_LATENCY).record(System.nanoTime() - start);
+        if (failed > 0) {
+            metrics.counter(RegistryMetrics.REGISTER_FAILURES).add(failed);
+            throw new RegistryException("Failed to register " + failed + " of " + urls.size() + " urls to zookeeper, waiting for retry");
+        }
+    }
+
+    private int registerAll(Map<String, URL> paths, boolean ephemeral) {
+        if (paths.isEmpty()) return 0;
+        Map<String, byte[]> nodes = new LinkedHashMap<>();
+        for (Map.Entry<String, URL> entry : paths.entrySet()) {
+            nodes.put(entry.getKey(), toData(entry.getValue()));
+        }
+        Set<String> failed;
+        try {
+            failed = zookeeperClient.createAll(nodes, ephemeral);
+        } catch (Throwable e) {
+            logger.warn("Failed to register " + paths.values() + " to zookeeper, cause: " + e.getMessage(), e);
+            failed = paths.keySet();
+        }
+        for (Map.Entry<String, URL> entry : paths.entrySet()) {
+            if (failed.contains(entry.getKey())) {
+                registerRetrier.retry(new RegisterTask(entry.getValue()));
+            } else {
+                registered.add(entry.getValue());
+                registerRetrier.cancel(new RegisterTask(entry.getValue()));
+            }
+        }
+        return failed.size();
+    }
+
     @Override
     public void unregister(URL url) {
         try {
+            registered.remove(url);
+            updated.remove(url);
+            registerRetrier.cancel(new RegisterTask(url));
             this.zookeeperClient.delete(toUrlPath(url));
         } catch (Throwable e) {
             throw new RegistryException("Failed to unregister " + url + " to zookeeper , cause: " + e.getMessage(), e);
         }
     }
 
+    @Override
+    public CompletableFuture<Void> unregisterAsync(final URL url) {
+        registered.remove(url);
+        updated.remove(url);
+        registerRetrier.cancel(new RegisterTask(url));
+        return zookeeperClient.deleteAsync(toUrlPath(url)).handleAsync((v, t) -> {
+            if (t == null) return null;
+            Throwable cause = Futures.unwrap(t);
+            throw new RegistryException("Failed to unregister " + url + " to zookeeper, cause: " + cause.getMessage(), cause);
+        }, asyncExecutor);
+    }
+
+    /**
+     * 更新后的URL写入原节点的数据，节点名不变，订阅方对带load参数的节点监听数据变更。
+     * 每个订阅方在每个分类路径上最多监听data.watches个节点，同一路径的数据变更在通知窗口内合并为一次分发。
+     * 会话重建后按更新后的URL重新创建节点
+     */
+    @Override
+    public void update(URL url, Map<String, String> parameters) {
+        if (!registered.contains(url)) {
+            throw new RegistryException("Failed to update " + url + ", it is not registered");
+        }
+        URL latest = url.withParameters(parameters);
+        updated.put(url, latest);
+        try {
+            zookeeperClient.setData(toUrlPath(url), URLCodec.encode(latest));
+        } catch (Throwable e) {
+            throw new RegistryException("Failed to update " + url + " to zookeeper, cause: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public void subscribe(final URL url, final NotifyListener notifyListener) {
-        removeFailedSubscribed(url, notifyListener);
+        long start = System.nanoTime();
+        SubscribeTask task = new SubscribeTask(url, notifyListener);
+        if (subscribeFromSnapshot(task)) return;
         try {
-            Set<NotifyListener> sublisteners = subscribed.get(url);
-            if (sublisteners == null) {
-                subscribed.putIfAbsent(url, new ConcurrentHashSet<NotifyListener>());
-                sublisteners = subscribed.get(url);
+            task.run();
+            subscribeRetrier.cancel(task);
+            metrics.histogram(RegistryMetrics.SUBSCRIBE_LATENCY).record(System.nanoTime() - start);
+        } catch (Throwable e) {
+            subscribeFailed(task, e);
+        }
+    }
+
+    /**
+     * 异步订阅。消费者节点和分类路径通过zookeeper异步接口创建，
+     * 注册子节点监听和首次通知仍需zkclient的同步调用，在异步线程池中执行。
+     */
+    @Override
+    public CompletableFuture<Void> subscribeAsync(final URL url, final NotifyListener notifyListener) {
+        final long start = System.nanoTime();
+        final SubscribeTask task = new SubscribeTask(url, notifyListener);
+        if (subscribeFromSnapshot(task)) return CompletableFuture.completedFuture(null);
+        addSubscribed(url, notifyListener);
+        final URL consumer = url.withParameter(Constants.CATEGORY_KEY, Constants.CONSUMER_CATEGORY);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        writes.add(zookeeperClient.createAsync(toUrlPath(consumer), toData(consumer), consumer.getParameter(Constants.DYNAMIC_KEY, true)));
+        for (String path : toCategoriesPath(url.withParameter(Constants.CATEGORY_KEY, Constants.ANY_VALUE))) {
+            writes.add(zookeeperClient.createAsync(path, false));
+        }
+        return Futures.allOf(writes).handleAsync((v, t) -> {
+            try {
+                if (t != null) throw Futures.unwrap(t);
+                registered.add(consumer);
+                watch(url, notifyListener);
+                subscribeRetrier.cancel(task);
+                metrics.histogram(RegistryMetrics.SUBSCRIBE_LATENCY).record(System.nanoTime() - start);
+            } catch (Throwable e) {
+                subscribeFailed(task, e);
             }
-            sublisteners.add(notifyListener);
-            register(url.withParameter(Constants.CATEGORY_KEY, Constants.CONSUMER_CATEGORY)); // 如果有订阅，记录下当前的信息
-            List<URL> urls = new ArrayList<>();
+            return null;
+        }, asyncExecutor);
+    }
+
+    /**
+     * 批量订阅。全部消费者节点和去重后的分类路径通过异步接口一次性发出；
+     * 就绪后每个分类路径只注册一次监听，各路径的注册和拉取在异步线程池中并行执行；
+     * 全部拉取完成后一次性发出首次通知。
+     */
+    @Override
+    public void subscribeAll(Map<URL, NotifyListener> subscriptions) {
+        if (subscriptions.isEmpty()) return;
+        long start = System.nanoTime();
+        long timeout = registryUrl.getParameter(Constants.TIMEOUT_KEY, Constants.DEFAULT_CONNECTION_TIMEOUT);
+        List<SubscribeTask> tasks = new ArrayList<>(subscriptions.size());
+        Map<SubscribeTask, CompletableFuture<Void>> writes = new LinkedHashMap<>();
+        Map<String, CompletableFuture<Void>> paths = new HashMap<>();
+        for (Map.Entry<URL, NotifyListener> entry : subscriptions.entrySet()) {
+            final URL url = entry.getKey();
+            SubscribeTask task = new SubscribeTask(url, entry.getValue());
+            if (subscribeFromSnapshot(task)) continue;
+            addSubscribed(url, entry.getValue());
+            tasks.add(task);
+            final URL consumer = url.withParameter(Constants.CATEGORY_KEY, Constants.CONSUMER_CATEGORY);
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            futures.add(zookeeperClient.createAsync(toUrlPath(consumer), toData(consumer), consumer.getParameter(Constants.DYNAMIC_KEY, true))
+                    .thenRun(() -> registered.add(consumer)));
             for (String path : toCategoriesPath(url.withParameter(Constants.CATEGORY_KEY, Constants.ANY_VALUE))) {
-                ConcurrentMap<NotifyListener, IZkChildListener> listeners = zkListeners.get(url);
-                if (listeners == null) {
-                    zkListeners.put(url, new ConcurrentHashMap<NotifyListener, IZkChildListener>());
-                    listeners = zkListeners.get(url);
+                CompletableFuture<Void> future = paths.get(path);
+                if (future == null) {
+                    future = zookeeperClient.createAsync(path, false);
+                    paths.put(path, future);
                 }
+                futures.add(future);
+            }
+            writes.put(task, Futures.allOf(futures));
+        }
+        Map<SubscribeTask, Throwable> failures = new LinkedHashMap<>();
+        await(writes.values(), timeout);
+        for (Map.Entry<SubscribeTask, CompletableFuture<Void>> entry : writes.entrySet()) {
+            Throwable cause = failure(entry.getValue());
+            if (cause != null) failures.put(entry.getKey(), cause);
+        }
 
-                IZkChildListener listener = listeners.get(notifyListener);
-                if (listener == null) {
-                    listeners.put(notifyListener, new IZkChildListener() {
-                        @Override
-                        public void handleChildChange(String parentPath, List<String> currentChilds) throws Exception {
-                            ZookeeperRegistry.this.notify(url, notifyListener, toUrlWithEmpty(url, parentPath, currentChilds));
-                        }
-                    });
-                    listener = listeners.get(notifyListener);
+        // 分类路径的监听及其首次拉取，同一路径的订阅共享
+        Map<SubscribeTask, List<PathWatcher>> watching = new LinkedHashMap<>();
+        Map<PathWatcher, CompletableFuture<List<ChildrenCache.Child>>> fetches = new LinkedHashMap<>();
+        for (SubscribeTask task : tasks) {
+            if (failures.containsKey(task)) continue;
+            List<PathWatcher> list = new ArrayList<>(2);
+            for (String path : toCategoriesPath(task.url.withParameter(Constants.CATEGORY_KEY, Constants.ANY_VALUE))) {
+                PathWatcher watcher = getWatcher(path);
+                while (!watcher.add(task.url, task.listener)) {
+                    // 并发取消订阅时监听已移除，重新创建
+                    watcher = getWatcher(path);
                 }
+                list.add(watcher);
+                if (!fetches.containsKey(watcher)) {
+                    final PathWatcher w = watcher;
+                    fetches.put(watcher, CompletableFuture.supplyAsync(() -> w.watch(), asyncExecutor));
+                }
+            }
+            watching.put(task, list);
+        }
+        await(fetches.values(), timeout);
 
-
-                zookeeperClient.create(path, false);
-                List<String> children = zookeeperClient.addChildListener(path, listener);
+        for (Map.Entry<SubscribeTask, List<PathWatcher>> entry : watching.entrySet()) {
+            SubscribeTask task = entry.getKey();
+            URLSelector selector = URLSelector.compile(task.url);
+            List<URL> urls = new ArrayList<>();
+            for (PathWatcher watcher : entry.getValue()) {
+                CompletableFuture<List<ChildrenCache.Child>> fetch = fetches.get(watcher);
+                Throwable cause = failure(fetch);
+                if (cause != null) {
+                    failures.put(task, cause);
+                    break;
+                }
+                List<ChildrenCache.Child> children = fetch.join();
                 if (!CollectionUtils.isEmpty(children)) {
-                    urls.addAll(toUrlWithEmpty(url, path, children));
+                    urls.addAll(toUrlWithEmpty(task.url, selector, watcher.path, children));
                 }
-
             }
+            if (!failures.containsKey(task)) {
+                notify(task.url, task.listener, urls);
+                subscribeRetrier.cancel(task);
+            }
+        }
+        metrics.histogram(RegistryMetrics.SUBSCRIBE_LATENCY).record(System.nanoTime() - start);
 
-            notify(url, notifyListener, urls);
-        } catch (Throwable e) {
-            addFailedSubscribed(url, notifyListener);
-            throw new RegistryException("Failed to subscribe " + url + " to zookeeper , cause: " + e.getMessage(), e);
+        Throwable cause = null;
+        int failed = 0;
+        for (Map.Entry<SubscribeTask, Throwable> entry : failures.entrySet()) {
+            cause = entry.getValue();
+            if (!retrySubscribe(entry.getKey(), cause)) failed++;
+        }
+        if (failed > 0) {
+            throw new RegistryException("Failed to subscribe " + failed + " of " + subscriptions.size() + " urls to zookeeper, waiting for retry, cause: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 等待全部完成，超时未完成的按失败处理
+     */
+    private void await(Collection<? extends CompletableFuture<?>> futures, long timeout) {
+        try {
+            Futures.allOf(futures).get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 各自的结果由调用方检查
+        }
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        if (!future.isDone()) return new RegistryException("Timeout to subscribe");
+        try {
+            future.join();
+            return null;
+        } catch (Throwable t) {
+            return Futures.unwrap(t);
         }
     }
 
+    /**
+     * 未连接zookeeper且有本地快照时，直接通知快照并进入重试，不等待连接超时
+     *
+     * @return 是否已通知快照
+     */
+    private boolean subscribeFromSnapshot(SubscribeTask task) {
+        if (isAvailable()) return false;
+        List<URL> cached = snapshot.get(task.url);
+        if (cached.isEmpty()) return false;
+        addSubscribed(task.url, task.listener);
+        subscribeRetrier.retry(task);
+        logger.warn("Zookeeper is not connected, use snapshot for " + task.url + " and waiting for retry");
+        notify(task.url, task.listener, cached);
+        return true;
+    }
+
+    private void subscribeFailed(SubscribeTask task, Throwable e) {
+        if (!retrySubscribe(task, e)) {
+            throw new RegistryException("Failed to subscribe " + task.url + " to zookeeper , cause: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 订阅进入重试，有本地快照时先通知快照
+     *
+     * @return 是否已通知快照
+     */
+    private boolean retrySubscribe(SubscribeTask task, Throwable e) {
+        subscribeRetrier.retry(task);
+        metrics.counter(RegistryMetrics.SUBSCRIBE_FAILURES).increment();
+        List<URL> cached = snapshot.get(task.url);
+        if (cached.isEmpty()) return false;
+        logger.warn("Failed to subscribe " + task.url + " to zookeeper, use snapshot and waiting for retry, cause: " + e.getMessage(), e);
+        notify(task.url, task.listener, cached);
+        return true;
+    }
+
+    private void doSubscribe(URL url, NotifyListener notifyListener) {
+        addSubscribed(url, notifyListener);
+        doRegister(url.withParameter(Constants.CATEGORY_KEY, Constants.CONSUMER_CATEGORY)); // 如果有订阅，记录下当前的信息
+        for (String path : toCategoriesPath(url.withParameter(Constants.CATEGORY_KEY, Constants.ANY_VALUE))) {
+            zookeeperClient.create(path, false);
+        }
+        watch(url, notifyListener);
+    }
+
+    private void addSubscribed(URL url, NotifyListener notifyListener) {
+        Set<NotifyListener> sublisteners = subscribed.get(url);
+        if (sublisteners == null) {
+            subscribed.putIfAbsent(url, new ConcurrentHashSet<NotifyListener>());
+            sublisteners = subscribed.get(url);
+        }
+        sublisteners.add(notifyListener);
+        notifyDispatcher.add(url, notifyListener);
+    }
+
+    /**
+     * 在各分类路径上注册监听，并同步通知当前的结果
+     */
+    private void watch(URL url, NotifyListener notifyListener) {
+        List<URL> urls = new ArrayList<>();
+        for (String path : toCategoriesPath(url.withParameter(Constants.CATEGORY_KEY, Constants.ANY_VALUE))) {
+            PathWatcher watcher = getWatcher(path);
+            while (!watcher.add(url, notifyListener)) {
+                // 并发取消订阅时监听已移除，重新创建
+                watcher = getWatcher(path);
+            }
+            List<ChildrenCache.Child> children = watcher.watch();
+            if (!CollectionUtils.isEmpty(children)) {
+                urls.addAll(toUrlWithEmpty(url, URLSelector.compile(url), path, children));
+            }
+        }
+
+        notify(url, notifyListener, urls);
+    }
+
     @Override
     public void unSubscribe(URL url, NotifyListener notifyListener) {
         try {
-
-            ConcurrentMap<NotifyListener, IZkChildListener> listeners = zkListeners.get(url);
+            Set<NotifyListener> listeners = subscribed.get(url);
             if (listeners != null) {
-                IZkChildListener zkListener = listeners.get(notifyListener);
-                if (zkListener != null) {
-                    zookeeperClient.removeChildListener(toUrlPath(url), zkListener);
+                listeners.remove(notifyListener);
+            }
+            subscribeRetrier.cancel(new SubscribeTask(url, notifyListener));
+            for (String path : toCategoriesPath(url.withParameter(Constants.CATEGORY_KEY, Constants.ANY_VALUE))) {
+                PathWatcher watcher = watchers.get(path);
+                if (watcher != null) {
+                    watcher.remove(url, notifyListener);
                 }
             }
+            notifyDispatcher.remove(url, notifyListener);
         } catch (Throwable e) {
             throw new RegistryException("Failed to unsubscribe " + url + " to zookeeper , cause: " + e.getMessage(), e);
         }
     }
 
+    private PathWatcher getWatcher(String path) {
+        PathWatcher watcher = watchers.get(path);
+        if (watcher == null) {
+            watchers.putIfAbsent(path, new PathWatcher(path));
+            watcher = watchers.get(path);
+        }
+        return watcher;
+    }
+
+    public RegistryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 失败的注册和订阅已按任务各自退避重试，没有单一的周期性重试任务
+     *
+     * @return 后台的重连检查任务，销毁后为已取消
+     * @deprecated 重试状态见{@link RegistryMetrics#RETRY_REGISTERED}、{@link RegistryMetrics#RETRY_SUBSCRIBED}
+     */
+    @Deprecated
     public Future<?> getRetryFuture() {
-        return retryFuture;
+        return reconnectFuture;
     }
 
     public Set<URL> getRegistered() {
@@ -182,16 +597,18 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
     protected void recover() throws Exception {
         //register
         Set<URL> recoverRegistered = new HashSet<>(getRegistered());
+        List<Runnable> registrations = new ArrayList<>(recoverRegistered.size());
         if (!recoverRegistered.isEmpty()) {
             if (logger.isInfoEnabled()) {
                 logger.info("Recover register url " + recoverRegistered);
             }
             for (URL url : recoverRegistered) {
-                failedRegistered.add(url);
+                registrations.add(new RecoverRegister(url));
             }
         }
         //subscribe
         Map<URL, Set<NotifyListener>> recoverSubscribed = new HashMap<URL, Set<NotifyListener>>(getSubscribed());
+        List<Runnable> subscriptions = new ArrayList<>();
         if (!recoverSubscribed.isEmpty()) {
             if (logger.isInfoEnabled()) {
                 logger.info("Recover subscribe url " + recoverSubscribed.keySet());
@@ -199,70 +616,22 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
             for (Map.Entry<URL, Set<NotifyListener>> entry : recoverSubscribed.entrySet()) {
                 URL url = entry.getKey();
                 for (NotifyListener listener : entry.getValue()) {
-                    addFailedSubscribed(url, listener);
+                    subscriptions.add(new RecoverSubscribe(url, listener));
                 }
             }
         }
+        recoveryEngine.recover(registrations, subscriptions);
     }
 
-    private void addFailedSubscribed(URL url, NotifyListener listener) {
-        Set<NotifyListener> listeners = failedSubscribed.get(url);
-        if (listeners == null) {
-            failedSubscribed.putIfAbsent(url, new ConcurrentHashSet<NotifyListener>());
-            listeners = failedSubscribed.get(url);
-        }
-        listeners.add(listener);
-    }
-
-    private void removeFailedSubscribed(URL url, NotifyListener listener) {
-        Set<NotifyListener> listeners = failedSubscribed.get(url);
-        if (listeners != null) {
-            listeners.remove(listener);
-        }
-    }
-
-    protected void retry() {
-        if (!failedRegistered.isEmpty()) {
-            Set<URL> failed = new HashSet<>(failedRegistered);
-            if (!failed.isEmpty()) {
-                for (URL url : failed) {
-                    try {
-                        register(url);
-                        failedRegistered.remove(url);
-                    } catch (Throwable e) {
-                        logger.warn("Failed to retry register " + url + " ,waiting for again ,cause: " + e.getMessage(), e);
-                    }
-                }
-            }
-        }
-
-        if (!failedSubscribed.isEmpty()) {
-            Map<URL, Set<NotifyListener>> failed = new HashMap<URL, Set<NotifyListener>>(failedSubscribed);
-            for (Map.Entry<URL, Set<NotifyListener>> entry : new HashMap<>(failed).entrySet()) {
-                if (entry.getValue() == null || entry.getValue().size() == 0) {
-                    failed.remove(entry.getKey());
-                }
-            }
-            if (!failed.isEmpty()) {
-                for (Map.Entry<URL, Set<NotifyListener>> entry : failed.entrySet()) {
-                    URL url = entry.getKey();
-                    Set<NotifyListener> listeners = entry.getValue();
-                    for (NotifyListener listener : listeners) {
-                        try {
-                            subscribe(url, listener);
-                            listeners.remove(listener);
-                        } catch (Throwable t) {
-                            logger.warn("Failed to retry subscribe " + failed + ", waiting for again, cause: " + t.getMessage(), t);
-                        }
-                    }
-                }
-            }
-        }
-
+    private String toUrlPath(URL url) {
+        String name = compact ? URLCodec.id(url) : URL.encode(url.toFullString());
+        return toCategoryPath(url) + Constants.PATH_SEPARATOR + name;
     }
 
-    private String toUrlPath(URL url) {
-        return toCategoryPath(url) + Constants.PATH_SEPARATOR + url.encode(url.toFullString());
+    private byte[] toData(URL url) {
+        URL latest = updated.get(url);
+        if (latest != null) return URLCodec.encode(latest);
+        return compact ? URLCodec.encode(url) : null;
     }
 
     public String toServicePath(URL url) {
@@ -275,16 +644,11 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
     }
 
     private String toCategoryPath(URL url) {
-        return toServicePath(url) + Constants.PATH_SEPARATOR + url.getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY);
+        return toServicePath(url) + Constants.PATH_SEPARATOR + RegistryUrls.toCategory(url);
     }
 
     private String[] toCategoriesPath(URL url) {
-        String[] categories;
-        if (Constants.ANY_VALUE.equals(url.getParameter(Constants.CATEGORY_KEY, ""))) {
-            categories = new String[]{Constants.PROVIDER_CATEGORY, Constants.CONSUMER_CATEGORY};
-        } else {
-            categories = new String[]{Constants.PROVIDER_CATEGORY};
-        }
+        String[] categories = RegistryUrls.toCategories(url);
         String[] paths = new String[categories.length];
         for (int i = 0; i < categories.length; i++) {
             paths[i] = toServicePath(url) + Constants.PATH_SEPARATOR + categories[i];
@@ -292,29 +656,27 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
         return paths;
     }
 
-    private List<URL> toUrlsWithoutEmpty(URL consumer, List<String> providers) {
+    private List<URL> toUrlsWithoutEmpty(URL consumer, URLSelector selector, List<ChildrenCache.Child> providers) {
         List<URL> urls = new ArrayList<>();
-        if (CollectionUtils.isEmpty(providers)) return urls;
-        for (String provider : providers) {
-            provider = URL.decode(provider);
-            if (provider.contains("://")) {
-                URL url = URL.valueOf(provider);
-                if (StringUtils.equalsIgnoreCase(consumer.getService(), url.getService())) {
-                    urls.add(url);
-                }
+        for (ChildrenCache.Child child : providers) {
+            // 先按筛选条件过滤，不匹配的节点不解析
+            if (!child.matches(selector)) continue;
+            URL url = child.url();
+            if (url != null && StringUtils.equalsIgnoreCase(consumer.getService(), url.getService())) {
+                urls.add(url);
             }
         }
         return urls;
     }
 
 
-    private List<URL> toUrlWithEmpty(URL consumer, String path, List<String> providers) {
-        List<URL> urls = toUrlsWithoutEmpty(consumer, providers);
+    // 筛选条件只作用于提供者分类
+    private List<URL> toUrlWithEmpty(URL consumer, URLSelector selector, String path, List<ChildrenCache.Child> providers) {
+        int i = path.lastIndexOf('/');
+        String category = i < 0 ? path : path.substring(i + 1);
+        List<URL> urls = toUrlsWithoutEmpty(consumer, Constants.PROVIDER_CATEGORY.equals(category) ? selector : URLSelector.ALL, providers);
         if (urls.isEmpty()) {
-            int i = path.lastIndexOf('/');
-            String category = i < 0 ? path : path.substring(i + 1);
-            URL url = consumer.withProtocol(Constants.EMPTY_PROTOCOL).withParameter(Constants.CATEGORY_KEY, category);
-            urls.add(url);
+            urls.add(RegistryUrls.toEmptyUrl(consumer, category));
         }
         return urls;
     }
@@ -326,41 +688,35 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
         if (listener == null) {
             throw new IllegalArgumentException("notify listener == null");
         }
-        Map<String, List<URL>> result = new HashMap<>();
-        for (URL u : urls) {
-            if (StringUtils.equals(u.getService(), url.getService())) {
-                String category = u.getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY);
-                List<URL> categoryList = result.get(category);
-                if (categoryList == null) {
-                    categoryList = new ArrayList<>();
-                    result.put(category, categoryList);
-                }
-                categoryList.add(u);
-            }
-        }
-        if (CollectionUtils.isEmpty(result)) {
-            return;
+        for (Map.Entry<String, List<URL>> entry : RegistryUrls.groupByCategory(url, urls).entrySet()) {
+            snapshot.save(url, entry.getKey(), entry.getValue());
+            notifyDispatcher.notify(url, listener, entry.getKey(), entry.getValue());
         }
+    }
 
-        for (Map.Entry<String, List<URL>> entry : result.entrySet()) {
-            List<URL> categoryList = entry.getValue();
-            listener.notify(categoryList);
+    private void dispatch(URL url, NotifyListener listener, List<URL> urls) {
+        for (Map.Entry<String, List<URL>> entry : RegistryUrls.groupByCategory(url, urls).entrySet()) {
+            snapshot.save(url, entry.getKey(), entry.getValue());
+            notifyDispatcher.dispatch(url, listener, entry.getKey(), entry.getValue());
         }
     }
 
     public void destroy() throws Exception {
+        destroyed = true;
         try {
-            if (!retryFuture.isCancelled())
-                retryFuture.cancel(true);
-        } catch (Throwable t) {
-            logger.warn(t.getMessage(), t);
-        }
-        try {
-            if (!reConnectFuture.isCancelled())
-                reConnectFuture.cancel(true);
+            ScheduledFuture<?> future = reconnectFuture;
+            if (future != null && !future.isCancelled())
+                future.cancel(true);
         } catch (Throwable t) {
             logger.warn(t.getMessage(), t);
         }
+        registerRetrier.destroy();
+        subscribeRetrier.destroy();
+        recoveryEngine.destroy();
+        // 快照写入在异步线程池中执行，先写完再关闭
+        snapshot.destroy();
+        asyncExecutor.shutdown();
+        notifyDispatcher.destroy();
 
     }
 
@@ -368,6 +724,48 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
         return this.registryUrl;
     }
 
+    // 共享的调度线程只负责计时，阻塞的连接在异步线程池中执行
+    private void scheduleReconnect(long delay) {
+        if (destroyed) return;
+        reconnectFuture = Retrier.scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    asyncExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            reconnect();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 线程池已关闭或已满，稍后再检查
+                    scheduleReconnect(reconnectBackoff.getInitial());
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // 首次连接没有需要恢复的注册和订阅，结束后开始重连检查
+    private void connectFirst() {
+        try {
+            zookeeperClient.connect();
+        } catch (Throwable t) {
+            logger.warn("Failed to connect to zookeeper " + getUrl().getAddress() + ", waiting for reconnect, cause: " + t.getMessage());
+        }
+        scheduleReconnect(reconnectBackoff.getInitial());
+    }
+
+    // 连接正常时按初始间隔检查，连续重连失败时按退避延长间隔
+    private void reconnect() {
+        connect();
+        if (isAvailable()) {
+            reconnectFailures = 0;
+            scheduleReconnect(reconnectBackoff.getInitial());
+        } else {
+            scheduleReconnect(reconnectBackoff.delay(reconnectFailures++));
+        }
+    }
+
     private void connect() {
         try {
 
@@ -377,6 +775,7 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
             if (logger.isInfoEnabled()) {
                 logger.info("Reconnect to registry " + getUrl());
             }
+            metrics.counter(RegistryMetrics.RECONNECTS).increment();
             checkLock();
 
         } catch (Throwable t) {
@@ -392,7 +791,12 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
             if (isAvailable()) {
                 return;
             }
-            recover();
+            zookeeperClient.connect();
+            // 已有的客户端断开期间connect直接返回，仍未连接时不恢复，只在连上时恢复一次；
+            // 同一会话重新连上时节点和监听仍在，会话过期重建由RECONNECTED事件恢复
+            if (isAvailable()) {
+                recover();
+            }
         } finally {
             clientLock.unlock();
         }
@@ -403,4 +807,304 @@ public class ZookeeperRegistry implements RegistryService, Node, DisposableBean
     public boolean isAvailable() {
         return this.zookeeperClient.isConnected();
     }
+
+    private class RegisterTask implements Runnable {
+        private final URL url;
+
+        RegisterTask(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            doRegister(url);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RegisterTask && url.equals(((RegisterTask) o).url);
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "register " + url;
+        }
+    }
+
+    private class SubscribeTask implements Runnable {
+        private final URL url;
+        private final NotifyListener listener;
+
+        SubscribeTask(URL url, NotifyListener listener) {
+            this.url = url;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            doSubscribe(url, listener);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SubscribeTask)) return false;
+            SubscribeTask that = (SubscribeTask) o;
+            return url.equals(that.url) && listener.equals(that.listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode() * 31 + listener.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "subscribe " + url;
+        }
+    }
+
+    private class RecoverRegister implements Runnable {
+        private final URL url;
+
+        RecoverRegister(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            register(url);
+        }
+
+        @Override
+        public String toString() {
+            return "register " + url;
+        }
+    }
+
+    private class RecoverSubscribe implements Runnable {
+        private final URL url;
+        private final NotifyListener listener;
+
+        RecoverSubscribe(URL url, NotifyListener listener) {
+            this.url = url;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            subscribe(url, listener);
+        }
+
+        @Override
+        public String toString() {
+            return "subscribe " + url;
+        }
+    }
+
+    /**
+     * 分类路径上共享的子节点监听
+     */
+    private class PathWatcher implements IZkChildListener {
+        private final String path;
+        private final ConcurrentMap<URL, Subscriber> subscribers = new ConcurrentHashMap<>();
+        private volatile List<ChildrenCache.Child> current = Collections.emptyList();
+        // 带load参数的子节点的数据监听，节点名 -> 监听，最多dataWatches个
+        private final ConcurrentMap<String, DataWatcher> dataWatchers = new ConcurrentHashMap<>();
+        // 已安排的数据变更分发，窗口期内的变更合并为一次
+        private final AtomicBoolean dataPending = new AtomicBoolean();
+        // guarded by this
+        private boolean watching;
+        private boolean closed;
+
+        PathWatcher(String path) {
+            this.path = path;
+        }
+
+        synchronized boolean add(URL url, NotifyListener listener) {
+            if (closed) return false;
+            Subscriber subscriber = subscribers.get(url);
+            if (subscriber == null) {
+                subscriber = new Subscriber(url);
+                subscribers.put(url, subscriber);
+            }
+            subscriber.getListeners().add(listener);
+            return true;
+        }
+
+        synchronized void remove(URL url, NotifyListener listener) {
+            Subscriber subscriber = subscribers.get(url);
+            if (subscriber != null) {
+                subscriber.getListeners().remove(listener);
+                if (subscriber.getListeners().isEmpty()) subscribers.remove(url);
+            }
+            if (!subscribers.isEmpty()) return;
+            closed = true;
+            dataWatchers.clear();
+            watchers.remove(path, this);
+            if (watching) {
+                zookeeperClient.removeChildListener(path, this);
+                childrenCache.remove(path);
+            }
+        }
+
+        /**
+         * 首次调用时注册zk监听并拉取子节点，之后直接返回最近一次的结果
+         */
+        synchronized List<ChildrenCache.Child> watch() {
+            if (!watching) {
+                List<String> children = zookeeperClient.addChildListener(path, this);
+                current = parse(children);
+                watchData(current);
+                watching = true;
+            }
+            return current;
+        }
+
+        @Override
+        public void handleChildChange(String parentPath, List<String> currentChilds) throws Exception {
+            long start = System.nanoTime();
+            List<ChildrenCache.Child> children;
+            // 与watch()互斥，避免注册监听时拉取的旧结果覆盖新的变更
+            synchronized (this) {
+                children = parse(currentChilds);
+                current = children;
+                watchData(children);
+            }
+            fanout(children);
+            metrics.histogram(RegistryMetrics.NOTIFY_FANOUT).record(System.nanoTime() - start);
+        }
+
+        private void fanout(List<ChildrenCache.Child> children) {
+            for (Map.Entry<URL, Subscriber> entry : subscribers.entrySet()) {
+                URL url = entry.getKey();
+                Subscriber subscriber = entry.getValue();
+                List<URL> consumerUrls = toUrlWithEmpty(url, subscriber.getSelector(), path, children);
+                for (NotifyListener listener : subscriber.getListeners()) {
+                    dispatch(url, listener, consumerUrls);
+                }
+            }
+        }
+
+        /**
+         * 新增的带load参数的子节点注册数据监听，已删除的子节点不再监听。
+         * 超出上限的子节点不监听，其负载只在新增时读取
+         */
+        private void watchData(List<ChildrenCache.Child> children) {
+            Set<String> names = new HashSet<>();
+            for (ChildrenCache.Child child : children) {
+                if (child.isDynamic()) names.add(child.name());
+            }
+            dataWatchers.keySet().retainAll(names);
+            for (ChildrenCache.Child child : children) {
+                if (dataWatchers.size() >= dataWatches) break;
+                if (!child.isDynamic() || dataWatchers.containsKey(child.name())) continue;
+                DataWatcher watcher = new DataWatcher(this, child);
+                dataWatchers.put(child.name(), watcher);
+                watcher.watch();
+            }
+        }
+
+        /**
+         * 会话重建后重新注册全部数据监听，并读取期间的变更
+         */
+        void rewatchData() {
+            for (DataWatcher watcher : dataWatchers.values()) {
+                watcher.watch();
+            }
+        }
+
+        boolean isWatching(String name, DataWatcher watcher) {
+            return dataWatchers.get(name) == watcher;
+        }
+
+        /**
+         * 子节点的数据变更后重新通知当前的子节点，窗口期内多个子节点的变更只分发一次
+         */
+        void dataChanged() {
+            if (destroyed || !dataPending.compareAndSet(false, true)) return;
+            final Runnable fanout = new Runnable() {
+                @Override
+                public void run() {
+                    // 先清除标记，分发期间的变更再安排一次
+                    dataPending.set(false);
+                    long start = System.nanoTime();
+                    fanout(current);
+                    metrics.histogram(RegistryMetrics.NOTIFY_FANOUT).record(System.nanoTime() - start);
+                }
+            };
+            long window = notifyDispatcher.getWindow();
+            if (window <= 0) {
+                executeFanout(fanout);
+                return;
+            }
+            // 共享的调度线程只负责计时
+            Retrier.scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    executeFanout(fanout);
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        }
+
+        private void executeFanout(Runnable fanout) {
+            try {
+                asyncExecutor.execute(fanout);
+            } catch (RejectedExecutionException e) {
+                // 已销毁
+                dataPending.set(false);
+            }
+        }
+
+        private List<ChildrenCache.Child> parse(List<String> children) {
+            if (CollectionUtils.isEmpty(children)) {
+                childrenCache.remove(path);
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableList(childrenCache.update(path, children));
+        }
+    }
+
+    /**
+     * 子节点的数据监听，zookeeper的监听只触发一次，每次变更后重新注册并读取最新的数据
+     */
+    private class DataWatcher implements Watcher, AsyncCallback.DataCallback {
+        private final PathWatcher parent;
+        private final ChildrenCache.Child child;
+        private final String path;
+
+        DataWatcher(PathWatcher parent, ChildrenCache.Child child) {
+            this.parent = parent;
+            this.child = child;
+            this.path = parent.path + Constants.PATH_SEPARATOR + child.name();
+        }
+
+        void watch() {
+            try {
+                zookeeperClient.getData(path, this, this);
+            } catch (Throwable t) {
+                // 未连接时由会话重建后重新注册
+                logger.warn("Failed to watch data of " + path + ", cause: " + t.getMessage());
+            }
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.NodeDataChanged && parent.isWatching(child.name(), this)) {
+                watch();
+            }
+        }
+
+        @Override
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            if (rc != KeeperException.Code.OK.intValue() || data == null || !parent.isWatching(child.name(), this)) return;
+            if (child.update(parent.path, data)) {
+                parent.dataChanged();
+            }
+        }
+    }
 }
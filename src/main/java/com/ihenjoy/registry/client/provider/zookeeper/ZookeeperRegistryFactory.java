@@ -3,13 +3,36 @@ package com.ihenjoy.registry.client.provider.zookeeper;
 import com.ihenjoy.registry.client.common.URL;
 import com.ihenjoy.registry.client.api.RegistryService;
 import com.ihenjoy.registry.client.api.RegistryFactory;
+import com.ihenjoy.registry.client.metrics.DefaultRegistryMetrics;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+
+import java.util.concurrent.Executor;
 
 /**
  * @author chi
  */
 public class ZookeeperRegistryFactory implements RegistryFactory {
+    private final RegistryMetrics metrics;
+    private final Executor notifyExecutor;
+
+    public ZookeeperRegistryFactory() {
+        this(new DefaultRegistryMetrics());
+    }
+
+    public ZookeeperRegistryFactory(RegistryMetrics metrics) {
+        this(metrics, null);
+    }
+
+    /**
+     * @param notifyExecutor 执行监听器的执行器，为null时按注册中心URL的配置创建
+     */
+    public ZookeeperRegistryFactory(RegistryMetrics metrics, Executor notifyExecutor) {
+        this.metrics = metrics;
+        this.notifyExecutor = notifyExecutor;
+    }
+
     @Override
     public RegistryService getRegistry(URL url) {
-        return new ZookeeperRegistry(url);
+        return new ZookeeperRegistry(url, metrics, notifyExecutor);
     }
 }
@@ -0,0 +1,49 @@
+package com.ihenjoy.registry.client.support;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 指数退避，每次失败后等待时间翻倍直到上限，并在[d/2, d]之间随机，
+ * 避免大量客户端在同一时刻重试。
+ *
+ * @author chi
+ */
+public class Backoff {
+
+    private final long initial;
+    private final long max;
+
+    /**
+     * @param initial 首次重试的等待时间，毫秒
+     * @param max     等待时间上限，毫秒
+     */
+    public Backoff(long initial, long max) {
+        if (initial <= 0) {
+            throw new IllegalArgumentException("initial <= 0");
+        }
+        this.initial = initial;
+        this.max = Math.max(initial, max);
+    }
+
+    /**
+     * @param attempt 已失败的次数，从0开始
+     * @return 下次重试前的等待时间，毫秒
+     */
+    public long delay(int attempt) {
+        long delay = initial;
+        for (int i = 0; i < attempt && delay < max; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, max);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    public long getInitial() {
+        return initial;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
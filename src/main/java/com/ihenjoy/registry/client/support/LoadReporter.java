@@ -0,0 +1,216 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.api.RegistryService;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 提供者通过注册的URL发布权重、预热和处理中请求数。
+ * 请求数按对数分桶，桶不变时不发布；变更在最小间隔内合并，只发布最后一次的值。
+ * 发布通过{@link RegistryService#update}更新注册节点上的参数，注册的URL和节点不变，
+ * 消费端不会看到提供者重复或短暂消失。
+ * 共享的调度线程只负责计时，阻塞的发布在执行器中进行。
+ *
+ * @author chi
+ */
+public class LoadReporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadReporter.class);
+
+    // 未指定执行器时共用，空闲时线程自动回收
+    private static final ExecutorService PUBLISHER = RegistryExecutors.newExecutor("RegistryLoadReport", 1);
+
+    private final RegistryService registryService;
+    private final long interval;
+    // guarded by this，注册的URL，开始发布后不变
+    private URL url;
+    private final Executor executor;
+    // 处理中的请求数和最近一次发布的桶，调用路径上不加锁读写
+    private volatile int inflight;
+    private volatile int publishedBucket;
+    // guarded by this，最近一次发布的URL
+    private URL published;
+    private int weight;
+    private boolean started;
+    private boolean closed;
+    private long lastPublish;
+    private ScheduledFuture<?> pending;
+
+    /**
+     * @param url      已注册或将要注册的URL，其上的weight、load参数作为初始值
+     * @param interval 两次发布的最小间隔，毫秒
+     */
+    public LoadReporter(RegistryService registryService, URL url, long interval) {
+        this(registryService, url, interval, PUBLISHER);
+    }
+
+    /**
+     * @param executor 执行发布的执行器
+     */
+    public LoadReporter(RegistryService registryService, URL url, long interval, Executor executor) {
+        this.registryService = registryService;
+        this.url = url;
+        this.published = url;
+        this.interval = interval;
+        this.executor = executor;
+        this.weight = url.getParameter(Constants.WEIGHT_KEY, Constants.DEFAULT_WEIGHT);
+        this.inflight = url.getParameter(Constants.LOAD_KEY, 0);
+        this.publishedBucket = bucket(inflight);
+    }
+
+    /**
+     * 初始URL注册完成后开始发布，之前的变更暂存
+     */
+    public synchronized void start() {
+        if (started || closed) return;
+        started = true;
+        lastPublish = System.currentTimeMillis();
+        if (!toUrl().equals(published)) schedule();
+    }
+
+    public synchronized void setWeight(int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight < 0");
+        }
+        this.weight = weight;
+        changed();
+    }
+
+    /**
+     * 更新处理中的请求数，可在调用路径上频繁调用
+     */
+    public void setInflight(int inflight) {
+        this.inflight = inflight;
+        // 桶不变时不加锁，发布完成后会再次检查期间的变更
+        if (bucket(inflight) != publishedBucket) {
+            synchronized (this) {
+                changed();
+            }
+        }
+    }
+
+    /**
+     * 最近一次发布的URL，即消费端看到的URL，取消注册时使用{@link #getRegisteredUrl()}
+     */
+    public synchronized URL getUrl() {
+        return published;
+    }
+
+    public synchronized URL getRegisteredUrl() {
+        return url;
+    }
+
+    /**
+     * 预热从实际提交注册时开始，推迟提交的注册在提交前更新开始时间，之后注册{@link #getRegisteredUrl()}。
+     * 开始发布后或URL不预热时不变
+     */
+    public synchronized void resetStart(long start) {
+        if (started || url.getParameter(Constants.START_KEY) == null) return;
+        url = url.withParameter(Constants.START_KEY, String.valueOf(start));
+        published = url;
+    }
+
+    /**
+     * 停止发布，已发布的参数不变
+     */
+    public synchronized void close() {
+        closed = true;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * 请求数的分桶：0、1、2~3、4~7...，以桶的下界发布
+     */
+    static int bucket(int inflight) {
+        return inflight <= 0 ? 0 : Integer.highestOneBit(inflight);
+    }
+
+    private void changed() {
+        if (started && !closed && pending == null) schedule();
+    }
+
+    private void schedule() {
+        long delay = Math.max(0, lastPublish + interval - System.currentTimeMillis());
+        pending = Retrier.scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            publish();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 不在调度线程上发布，间隔后再次提交
+                    synchronized (LoadReporter.this) {
+                        pending = null;
+                        lastPublish = System.currentTimeMillis();
+                        changed();
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void publish() {
+        Map<String, String> parameters;
+        URL registered;
+        URL next;
+        synchronized (this) {
+            pending = null;
+            if (closed) return;
+            lastPublish = System.currentTimeMillis();
+            parameters = toParameters();
+            registered = url;
+            next = registered.withParameters(parameters);
+            if (next.equals(published)) return;
+        }
+        try {
+            registryService.update(registered, parameters);
+        } catch (UnsupportedOperationException e) {
+            // 注册中心不支持更新，不再重试
+            logger.warn("Stop publishing load of " + registered + ", cause: " + e.getMessage());
+            close();
+            return;
+        } catch (Throwable t) {
+            logger.warn("Failed to publish load " + next + ", cause: " + t.getMessage(), t);
+            synchronized (this) {
+                changed();
+            }
+            return;
+        }
+        synchronized (this) {
+            published = next;
+            publishedBucket = next.getParameter(Constants.LOAD_KEY, 0);
+            // 发布期间的变更
+            if (!toUrl().equals(published)) changed();
+        }
+    }
+
+    // guarded by this
+    private Map<String, String> toParameters() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(Constants.WEIGHT_KEY, String.valueOf(weight));
+        parameters.put(Constants.LOAD_KEY, String.valueOf(bucket(inflight)));
+        return parameters;
+    }
+
+    // guarded by this
+    private URL toUrl() {
+        return url.withParameters(toParameters());
+    }
+}
@@ -0,0 +1,253 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.api.NotifyEvent;
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+import com.ihenjoy.registry.client.util.NamedThreadFactory;
+import com.ihenjoy.registry.client.util.SerialExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通知分发器。
+ * 同一订阅、同一监听器在窗口期内的多次变更合并为一次，只投递最新状态。
+ * 每个监听器一个串行队列，同一监听器按顺序执行，阻塞的监听器只延迟自己的通知；
+ * 队列在共享的执行器上运行，默认为有界线程池，可配置为虚拟线程或由调用方提供，不占用zkclient的事件线程。
+ * 窗口期在{@link Retrier#scheduler()}共享的调度线程上计时，到期后只提交，不在调度线程上执行监听器。
+ * 执行器饱和时变更继续在各自的队列中合并，由调度线程稍后重新提交，监听器不会在调用线程上执行。
+ * 订阅时通过{@link #add}登记监听，取消订阅后已排队和迟到的变更都不再投递。
+ *
+ * @author chi
+ */
+public class NotifyDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotifyDispatcher.class);
+
+    // 执行器饱和时重新提交的间隔，毫秒
+    private static final long SATURATED_DELAY = 10;
+
+    private final long window;
+    private final RegistryMetrics metrics;
+    private volatile boolean destroyed;
+    private final Executor executor;
+    // 自行创建的执行器在销毁时关闭
+    private final ExecutorService ownExecutor;
+    private final AtomicLong version = new AtomicLong();
+    private final ConcurrentMap<URL, ConcurrentMap<NotifyListener, Channel>> channels = new ConcurrentHashMap<>();
+
+    public NotifyDispatcher(URL registryUrl, RegistryMetrics metrics) {
+        this(registryUrl, metrics, null);
+    }
+
+    /**
+     * @param executor 执行监听器的执行器，为null时按注册中心URL的配置创建
+     */
+    public NotifyDispatcher(URL registryUrl, RegistryMetrics metrics, Executor executor) {
+        this.metrics = metrics;
+        this.window = registryUrl.getParameter(Constants.NOTIFY_WINDOW_KEY, Constants.DEFAULT_NOTIFY_WINDOW);
+        int threads = registryUrl.getParameter(Constants.NOTIFY_THREADS_KEY, Constants.DEFAULT_NOTIFY_THREADS);
+        int queues = registryUrl.getParameter(Constants.NOTIFY_QUEUES_KEY, Constants.DEFAULT_NOTIFY_QUEUES);
+        if (executor != null) {
+            this.ownExecutor = null;
+            this.executor = executor;
+        } else {
+            ExecutorService virtual = RegistryExecutors.isVirtual(registryUrl) ? RegistryExecutors.newVirtualExecutor() : null;
+            // 每个监听器最多占一个队列位置，队列满时拒绝，由dispatch稍后重新提交
+            this.ownExecutor = virtual != null ? virtual : new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queues), new NamedThreadFactory("RegistryNotify"));
+            this.executor = ownExecutor;
+        }
+    }
+
+    /**
+     * 合并变更的窗口期，毫秒
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * 登记订阅的监听，在首次通知和监听变更之前调用，只有登记过的监听会收到通知
+     */
+    public void add(URL url, NotifyListener listener) {
+        getChannel(url, listener);
+    }
+
+    /**
+     * 异步通知，窗口期内的多次变更只投递最后一次。监听未登记或已取消时忽略
+     */
+    public void dispatch(URL url, NotifyListener listener, String category, List<URL> urls) {
+        final Channel channel = findChannel(url, listener);
+        if (channel == null) return;
+        synchronized (channel) {
+            if (channel.closed) return;
+            channel.pending.put(category, urls);
+            if (channel.scheduled) {
+                return;
+            }
+            channel.scheduled = true;
+            channel.pendingSince = System.nanoTime();
+        }
+        Runnable flush = new Runnable() {
+            @Override
+            public void run() {
+                if (isShutdown()) return;
+                try {
+                    channel.serial.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(channel);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 执行器饱和，不在当前线程(可能是zk事件线程)执行监听器；
+                    // scheduled未清除，期间的变更继续合并到pending，重新提交时只投递最新状态
+                    if (isShutdown()) return;
+                    try {
+                        Retrier.scheduler().schedule(this, SATURATED_DELAY, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException ignored) {
+                        // 已销毁
+                    }
+                }
+            }
+        };
+        // 共享的调度线程只负责计时，到期后提交到监听器的队列
+        if (window <= 0)
+            flush.run();
+        else
+            Retrier.scheduler().schedule(flush, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在调用线程上同步通知，用于订阅时的首次通知。监听未登记或已取消时忽略
+     */
+    public void notify(URL url, NotifyListener listener, String category, List<URL> urls) {
+        Channel channel = findChannel(url, listener);
+        if (channel == null) return;
+        synchronized (channel.deliverLock) {
+            synchronized (channel) {
+                if (channel.closed) return;
+                // 同步拉取的结果比尚未投递的事件更新
+                channel.pending.remove(category);
+            }
+            deliver(channel, category, urls);
+        }
+    }
+
+    /**
+     * 取消订阅，关闭监听的队列，订阅的全部监听都已取消时一并移除
+     */
+    public void remove(URL url, final NotifyListener listener) {
+        channels.computeIfPresent(url, (key, listeners) -> {
+            Channel channel = listeners.remove(listener);
+            if (channel != null) channel.close();
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    public void destroy() {
+        destroyed = true;
+        if (ownExecutor != null) ownExecutor.shutdown();
+    }
+
+    private boolean isShutdown() {
+        return destroyed || executor instanceof ExecutorService && ((ExecutorService) executor).isShutdown();
+    }
+
+    // 只查找已登记的队列，不创建
+    private Channel findChannel(URL url, NotifyListener listener) {
+        Map<NotifyListener, Channel> listeners = channels.get(url);
+        return listeners == null ? null : listeners.get(listener);
+    }
+
+    private Channel getChannel(final URL url, NotifyListener listener) {
+        Channel channel = findChannel(url, listener);
+        if (channel != null) return channel;
+        // 与remove在同一个url上互斥，不会加入已被移除的空集合
+        final Channel[] created = new Channel[1];
+        channels.compute(url, (key, listeners) -> {
+            if (listeners == null) listeners = new ConcurrentHashMap<>();
+            created[0] = listeners.computeIfAbsent(listener, l -> new Channel(url, l, new SerialExecutor(executor)));
+            return listeners;
+        });
+        return created[0];
+    }
+
+    private void flush(Channel channel) {
+        // 持有deliverLock再取出待投递的状态，保证先取出的先投递
+        synchronized (channel.deliverLock) {
+            Map<String, List<URL>> batch;
+            synchronized (channel) {
+                channel.scheduled = false;
+                if (channel.closed) return;
+                batch = new LinkedHashMap<>(channel.pending);
+                channel.pending.clear();
+                metrics.histogram(RegistryMetrics.NOTIFY_LAG).record(System.nanoTime() - channel.pendingSince);
+            }
+            for (Map.Entry<String, List<URL>> entry : batch.entrySet()) {
+                deliver(channel, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void deliver(Channel channel, String category, List<URL> urls) {
+        // 投递期间取消的订阅
+        if (channel.closed) return;
+        List<URL> previous = channel.delivered.get(category);
+        NotifyEvent event = NotifyEvent.diff(channel.url, category, version.incrementAndGet(), previous, urls);
+        if (previous != null && !event.hasChanges()) {
+            return;
+        }
+        channel.delivered.put(category, event.getUrls());
+        long start = System.nanoTime();
+        try {
+            NotifyListenerAdapter.adapt(channel.listener).notify(event);
+            metrics.histogram(RegistryMetrics.NOTIFY_LISTENER).record(System.nanoTime() - start);
+        } catch (Throwable t) {
+            metrics.counter(RegistryMetrics.NOTIFY_FAILURES).increment();
+            logger.error("Failed to notify " + channel.url + " of " + event + ", cause: " + t.getMessage(), t);
+        }
+    }
+
+    private static class Channel {
+        final URL url;
+        final NotifyListener listener;
+        final SerialExecutor serial;
+        final Object deliverLock = new Object();
+        // guarded by this
+        final Map<String, List<URL>> pending = new LinkedHashMap<>();
+        boolean scheduled;
+        long pendingSince;
+        // 写入时持有this
+        volatile boolean closed;
+        // guarded by deliverLock
+        final Map<String, List<URL>> delivered = new HashMap<>();
+
+        Channel(URL url, NotifyListener listener, SerialExecutor serial) {
+            this.url = url;
+            this.listener = listener;
+            this.serial = serial;
+        }
+
+        synchronized void close() {
+            closed = true;
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.api.DeltaNotifyListener;
+import com.ihenjoy.registry.client.api.NotifyEvent;
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.common.URL;
+
+import java.util.List;
+
+/**
+ * 将全量通知的{@link NotifyListener}适配为增量监听器，每次回调事件中的全量列表
+ *
+ * @author chi
+ */
+public class NotifyListenerAdapter implements DeltaNotifyListener {
+
+    private final NotifyListener delegate;
+
+    private NotifyListenerAdapter(NotifyListener delegate) {
+        this.delegate = delegate;
+    }
+
+    public static DeltaNotifyListener adapt(NotifyListener listener) {
+        if (listener instanceof DeltaNotifyListener) {
+            return (DeltaNotifyListener) listener;
+        }
+        return new NotifyListenerAdapter(listener);
+    }
+
+    @Override
+    public void notify(NotifyEvent event) {
+        delegate.notify(event.getUrls());
+    }
+
+    @Override
+    public void notify(List<URL> urls) {
+        delegate.notify(urls);
+    }
+
+    public NotifyListener getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,36 @@
+package com.ihenjoy.registry.client.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按固定间隔发放许可的限速器，不累积空闲期的许可，避免恢复开始时的突发。
+ *
+ * @author chi
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+    // 下一个许可可用的时间，guarded by this
+    private long next;
+
+    /**
+     * @param permitsPerSecond 每秒许可数，小于等于0时不限速
+     */
+    public RateLimiter(int permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+    }
+
+    public void acquire() throws InterruptedException {
+        if (intervalNanos == 0) return;
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (next - now < 0) next = now;
+            wait = next - now;
+            next += intervalNanos;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
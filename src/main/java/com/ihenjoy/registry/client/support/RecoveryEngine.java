@@ -0,0 +1,132 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+import com.ihenjoy.registry.client.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话重建后的恢复过程。
+ * 先随机等待一段时间，错开整个集群同时重连时的请求高峰；
+ * 然后并行、限速地重新注册，全部完成后再重新订阅。
+ * 新一轮恢复开始时，上一轮尚未执行的任务直接放弃。
+ * 任务失败时由任务自身提交重试，这里只负责调度。
+ * 随机等待由共享的调度线程计时，下一阶段在上一阶段最后一个任务完成时提交，没有线程阻塞等待恢复完成。
+ *
+ * @author chi
+ */
+public class RecoveryEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecoveryEngine.class);
+
+    private final int jitter;
+    private final RateLimiter rateLimiter;
+    private final RegistryMetrics metrics;
+    private final ThreadPoolExecutor workers;
+    private final AtomicLong generation = new AtomicLong();
+    private final Random random = new Random();
+
+    public RecoveryEngine(URL registryUrl, RegistryMetrics metrics) {
+        this.metrics = metrics;
+        this.jitter = registryUrl.getParameter(Constants.RECOVER_JITTER_KEY, Constants.DEFAULT_RECOVER_JITTER);
+        this.rateLimiter = new RateLimiter(registryUrl.getParameter(Constants.RECOVER_RATE_KEY, Constants.DEFAULT_RECOVER_RATE));
+        int threads = Math.max(1, registryUrl.getParameter(Constants.RECOVER_THREADS_KEY, Constants.DEFAULT_RECOVER_THREADS));
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("RegistryRecoveryWorker"));
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 开始新一轮恢复，立即返回
+     *
+     * @param registrations 重新注册的任务，先执行
+     * @param subscriptions 重新订阅的任务，注册全部完成后执行
+     */
+    public void recover(final List<? extends Runnable> registrations, final List<? extends Runnable> subscriptions) {
+        final long current = generation.incrementAndGet();
+        final long start = System.nanoTime();
+        final AtomicInteger failed = new AtomicInteger();
+        final Runnable finish = new Runnable() {
+            @Override
+            public void run() {
+                if (generation.get() != current) return;
+                metrics.histogram(RegistryMetrics.RECOVERY_LATENCY).record(System.nanoTime() - start);
+                if (logger.isInfoEnabled()) {
+                    logger.info("Recovered " + registrations.size() + " registrations and " + subscriptions.size()
+                            + " subscriptions in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms, failed: " + failed.get());
+                }
+            }
+        };
+        final Runnable subscribe = new Runnable() {
+            @Override
+            public void run() {
+                runAll(current, subscriptions, failed, finish);
+            }
+        };
+        Runnable register = new Runnable() {
+            @Override
+            public void run() {
+                runAll(current, registrations, failed, subscribe);
+            }
+        };
+        if (jitter > 0) {
+            Retrier.scheduler().schedule(register, random.nextInt(jitter), TimeUnit.MILLISECONDS);
+        } else {
+            register.run();
+        }
+    }
+
+    public void destroy() {
+        generation.incrementAndGet();
+        // 取消未执行的任务，之后的阶段不再提交
+        workers.shutdownNow();
+    }
+
+    /**
+     * 提交一个阶段的全部任务，最后一个任务完成后执行next
+     */
+    private void runAll(final long current, List<? extends Runnable> tasks, final AtomicInteger failed, final Runnable next) {
+        if (generation.get() != current) return;
+        if (tasks.isEmpty()) {
+            next.run();
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(tasks.size());
+        for (final Runnable task : tasks) {
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (generation.get() != current) return;
+                            rateLimiter.acquire();
+                            task.run();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (Throwable t) {
+                            failed.incrementAndGet();
+                            logger.warn("Failed to recover " + task + ", waiting for retry, cause: " + t.getMessage());
+                        } finally {
+                            if (remaining.decrementAndGet() == 0) next.run();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 注册中心已销毁
+                logger.warn("Recovery rejected, registry is destroyed");
+                return;
+            }
+        }
+    }
+}
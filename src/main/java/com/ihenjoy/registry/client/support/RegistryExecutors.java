@@ -0,0 +1,82 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 注册中心内部执行器的创建。
+ * 注册中心URL上executor=virtual时使用虚拟线程，每个任务一个线程，阻塞的监听器不占用平台线程；
+ * 虚拟线程需要jdk21及以上，通过反射创建，低版本jdk上退回线程池。
+ *
+ * @author chi
+ */
+public final class RegistryExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistryExecutors.class);
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+    private RegistryExecutors() {
+    }
+
+    public static boolean isVirtualThreadsAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    public static boolean isVirtual(URL url) {
+        return Constants.VIRTUAL_EXECUTOR.equals(url.getParameter(Constants.EXECUTOR_KEY));
+    }
+
+    /**
+     * 按配置创建虚拟线程执行器，未配置或不支持时创建有界的线程池，空闲线程自动回收
+     */
+    public static ExecutorService newExecutor(URL url, String name, int threads) {
+        if (isVirtual(url)) {
+            ExecutorService executor = newVirtualExecutor();
+            if (executor != null) return executor;
+            logger.warn("Virtual threads are not supported by java " + System.getProperty("java.version") + ", use thread pool " + name);
+        }
+        return newExecutor(name, threads);
+    }
+
+    /**
+     * 有界的线程池，空闲线程自动回收
+     */
+    public static ExecutorService newExecutor(String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return 不支持虚拟线程时为null
+     */
+    public static ExecutorService newVirtualExecutor() {
+        if (NEW_VIRTUAL_EXECUTOR == null) return null;
+        try {
+            return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+        } catch (Exception e) {
+            logger.warn("Failed to create virtual thread executor, cause: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private static Method findVirtualExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
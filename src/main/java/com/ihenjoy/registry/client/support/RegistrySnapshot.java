@@ -0,0 +1,376 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.util.NamedThreadFactory;
+import com.ihenjoy.registry.client.util.SerialExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订阅结果的本地快照。
+ * 每次通知后异步追加到本地文件，启动时读入内存，zookeeper不可用时可直接使用上次的结果。
+ * 文件每行一条记录：订阅URL、分类、该分类下的全部URL，同一订阅和分类以最后一条为准，
+ * 过期记录过多时整体重写。
+ * 多个进程可能共用同一文件，追加和重写都持有同名.lock文件的锁，重写时的删除、改名不会与其他进程交错；
+ * 重写时重新读取文件，保留其他进程的记录，文件被其他进程修改过时按实际行数判断是否需要重写。
+ *
+ * @author chi
+ */
+public class RegistrySnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistrySnapshot.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String HEADER = "#registry snapshot v1";
+
+    private static final int MIN_COMPACT_LINES = 1024;
+
+    // 同一进程内共用文件的实例先互斥，FileLock只在进程之间互斥
+    private static final ConcurrentMap<String, Object> MUTEXES = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final File lockFile;
+    private final Object mutex;
+    // 订阅URL -> 分类 -> URL列表
+    private final ConcurrentMap<String, ConcurrentMap<String, List<URL>>> snapshots = new ConcurrentHashMap<>();
+    // 等待写入的记录，在写线程上编码，guarded by this
+    private final Map<String, Record> pending = new LinkedHashMap<>();
+    // 写入按提交顺序在执行器上逐个执行，后提交的记录不会被先提交的覆盖
+    private final Executor writer;
+    // 自行创建的写线程在销毁时关闭
+    private final ExecutorService ownWriter;
+    private boolean scheduled;
+    // 以下在写线程上访问：文件的行数、上次读取时的记录数、本进程最后一次写入后的文件长度
+    private int lines;
+    private int recordCount;
+    private long length;
+
+    /**
+     * @param registryUrl 快照文件由file参数指定，默认为用户目录下的.registry/registry-主机-端口.cache，
+     *                    测试和内嵌使用时应指定临时文件，避免写入用户目录或读到上次运行留下的快照
+     */
+    public RegistrySnapshot(URL registryUrl) {
+        this(registryUrl, null);
+    }
+
+    /**
+     * @param executor 写文件的执行器，可与注册中心的其他任务共享，为null时使用自己的写线程
+     */
+    public RegistrySnapshot(URL registryUrl, Executor executor) {
+        this.ownWriter = executor == null ? Executors.newSingleThreadExecutor(new NamedThreadFactory("RegistrySnapshot")) : null;
+        this.writer = new SerialExecutor(executor == null ? ownWriter : executor);
+        String fileName = registryUrl.getParameter(Constants.FILE_KEY,
+                System.getProperty("user.home") + "/.registry/registry-" + registryUrl.getHost() + "-" + registryUrl.getPort() + ".cache");
+        this.file = new File(fileName);
+        this.lockFile = new File(fileName + ".lock");
+        String path = file.getAbsolutePath();
+        MUTEXES.putIfAbsent(path, new Object());
+        this.mutex = MUTEXES.get(path);
+        load();
+    }
+
+    /**
+     * 获取订阅的全部分类的快照
+     */
+    public List<URL> get(URL url) {
+        Map<String, List<URL>> categories = snapshots.get(url.toFullString());
+        if (categories == null) return Collections.emptyList();
+        List<URL> urls = new ArrayList<>();
+        for (List<URL> categoryList : categories.values()) {
+            urls.addAll(categoryList);
+        }
+        return urls;
+    }
+
+    public void save(URL url, String category, List<URL> urls) {
+        String key = url.toFullString();
+        ConcurrentMap<String, List<URL>> categories = snapshots.get(key);
+        if (categories == null) {
+            snapshots.putIfAbsent(key, new ConcurrentHashMap<String, List<URL>>());
+            categories = snapshots.get(key);
+        }
+        List<URL> copy = Collections.unmodifiableList(new ArrayList<>(urls));
+        if (copy.equals(categories.put(category, copy))) return;
+
+        synchronized (this) {
+            pending.put(key + '\t' + category, new Record(key, category, copy));
+            if (scheduled) return;
+            scheduled = true;
+        }
+        try {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 已销毁，内存中的快照仍然有效
+            synchronized (this) {
+                scheduled = false;
+            }
+        }
+    }
+
+    /**
+     * 尽量写完尚未落盘的记录，共享的执行器需在此之后关闭
+     */
+    public void destroy() {
+        final CountDownLatch written = new CountDownLatch(1);
+        try {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    written.countDown();
+                }
+            });
+            written.await(1, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // 执行器已关闭
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownWriter != null) ownWriter.shutdown();
+    }
+
+    private void flush() {
+        List<Record> records;
+        synchronized (this) {
+            records = new ArrayList<>(pending.values());
+            pending.clear();
+            scheduled = false;
+        }
+        if (records.isEmpty()) return;
+        try {
+            List<String> batch = new ArrayList<>(records.size());
+            for (Record record : records) {
+                batch.add(toLine(record.key, record.category, record.urls));
+            }
+            synchronized (mutex) {
+                mkdirs(lockFile);
+                RandomAccessFile lockOut = new RandomAccessFile(lockFile, "rw");
+                try {
+                    FileLock lock = lockOut.getChannel().lock();
+                    try {
+                        if (file.length() != length) {
+                            // 其他进程追加或重写过，重新统计实际的行数
+                            readRecords();
+                        }
+                        if (lines + batch.size() > Math.max(MIN_COMPACT_LINES, Math.max(snapshotSize(), recordCount) * 4)) {
+                            compact(batch);
+                        } else {
+                            append(file, batch);
+                            lines += batch.size();
+                        }
+                        length = file.length();
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    lockOut.close();
+                }
+            }
+        } catch (Throwable t) {
+            logger.warn("Failed to save registry snapshot to " + file + ", cause: " + t.getMessage(), t);
+        }
+    }
+
+    private static void mkdirs(File target) throws IOException {
+        File dir = target.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new IOException("Failed to create directory " + dir);
+        }
+    }
+
+    // 调用方持有.lock文件的锁；文件本身的锁兼容只锁文件的旧版本
+    private void append(File target, List<String> batch) throws IOException {
+        mkdirs(target);
+        boolean header = !target.exists() || target.length() == 0;
+        FileOutputStream out = new FileOutputStream(target, true);
+        try {
+            FileLock lock = out.getChannel().lock();
+            try {
+                Writer w = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+                if (header) {
+                    w.write(HEADER);
+                    w.write('\n');
+                }
+                for (String line : batch) {
+                    w.write(line);
+                    w.write('\n');
+                }
+                w.flush();
+            } finally {
+                lock.release();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 合并文件中各进程的记录和本次的记录，只写入每个订阅、分类的最新记录，调用方持有.lock文件的锁。
+     * 合并后过期记录仍不多时只追加
+     */
+    private void compact(List<String> batch) throws IOException {
+        Map<String, String> merged = readRecords();
+        for (String line : batch) {
+            merged.put(recordKey(line), line);
+        }
+        if (lines + batch.size() <= Math.max(MIN_COMPACT_LINES, merged.size() * 4)) {
+            append(file, batch);
+            lines += batch.size();
+            recordCount = merged.size();
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        if (tmp.exists() && !tmp.delete()) {
+            throw new IOException("Failed to delete " + tmp);
+        }
+        append(tmp, new ArrayList<>(merged.values()));
+        if (!tmp.renameTo(file)) {
+            // 部分平台rename不能覆盖已有文件
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmp + " to " + file);
+            }
+        }
+        lines = merged.size();
+        recordCount = merged.size();
+    }
+
+    /**
+     * 读取文件中每个订阅、分类的最新一行，同时更新文件的行数
+     */
+    private Map<String, String> readRecords() throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        int count = 0;
+        if (file.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    count++;
+                    if (line.length() == 0 || line.charAt(0) == '#') continue;
+                    String key = recordKey(line);
+                    if (key != null) result.put(key, line);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        lines = count;
+        recordCount = result.size();
+        return result;
+    }
+
+    // 订阅URL和分类，不完整的行为null
+    private static String recordKey(String line) {
+        int i = line.indexOf('\t');
+        int j = i < 0 ? -1 : line.indexOf('\t', i + 1);
+        return j < 0 ? null : line.substring(0, j);
+    }
+
+    private int snapshotSize() {
+        int size = 0;
+        for (Map<String, List<URL>> categories : snapshots.values()) {
+            size += categories.size();
+        }
+        return size;
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    if (line.length() == 0 || line.charAt(0) == '#') continue;
+                    loadLine(line);
+                }
+            } finally {
+                reader.close();
+            }
+            length = file.length();
+            if (logger.isInfoEnabled()) {
+                logger.info("Load registry snapshot from " + file + ", subscriptions: " + snapshots.size());
+            }
+        } catch (Throwable t) {
+            logger.warn("Failed to load registry snapshot from " + file + ", cause: " + t.getMessage(), t);
+        }
+    }
+
+    private void loadLine(String line) {
+        String[] parts = line.split("\t", -1);
+        // 进程退出时可能写入了不完整的行
+        if (parts.length != 3) return;
+        try {
+            List<URL> urls = new ArrayList<>();
+            if (parts[2].length() > 0) {
+                for (String url : parts[2].split(",")) {
+                    urls.add(URL.valueOf(URL.decode(url)));
+                }
+            }
+            String key = URL.decode(parts[0]);
+            ConcurrentMap<String, List<URL>> categories = snapshots.get(key);
+            if (categories == null) {
+                categories = new ConcurrentHashMap<>();
+                snapshots.put(key, categories);
+            }
+            categories.put(parts[1], Collections.unmodifiableList(urls));
+        } catch (RuntimeException e) {
+            logger.warn("Ignore broken registry snapshot line: " + line);
+        }
+    }
+
+    private String toLine(String key, String category, List<URL> urls) {
+        StringBuilder buf = new StringBuilder();
+        buf.append(URL.encode(key)).append('\t').append(category).append('\t');
+        for (int i = 0; i < urls.size(); i++) {
+            if (i > 0) buf.append(',');
+            buf.append(URL.encode(urls.get(i).toFullString()));
+        }
+        return buf.toString();
+    }
+
+    private static class Record {
+        final String key;
+        final String category;
+        final List<URL> urls;
+
+        Record(String key, String category, List<URL> urls) {
+            this.key = key;
+            this.category = category;
+            this.urls = urls;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.URLSelector;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 各注册中心共用的分类处理：订阅的分类、通知的URL按分类分组、分类为空时的empty协议URL
+ *
+ * @author chi
+ */
+public final class RegistryUrls {
+
+    private RegistryUrls() {
+    }
+
+    public static String toCategory(URL url) {
+        return url.getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY);
+    }
+
+    /**
+     * 订阅的分类，category=*时为提供者和消费者，否则只有提供者
+     */
+    public static String[] toCategories(URL url) {
+        if (Constants.ANY_VALUE.equals(url.getParameter(Constants.CATEGORY_KEY, ""))) {
+            return new String[]{Constants.PROVIDER_CATEGORY, Constants.CONSUMER_CATEGORY};
+        }
+        return new String[]{Constants.PROVIDER_CATEGORY};
+    }
+
+    /**
+     * 分类为空时通知的URL
+     */
+    public static URL toEmptyUrl(URL consumer, String category) {
+        return consumer.withProtocol(Constants.EMPTY_PROTOCOL).withParameter(Constants.CATEGORY_KEY, category);
+    }
+
+    /**
+     * 同一服务且匹配筛选条件的节点，没有时为该分类的empty协议URL。筛选条件只作用于提供者分类
+     */
+    public static List<URL> toUrlsWithEmpty(URL consumer, URLSelector selector, String category, List<URL> providers) {
+        if (!Constants.PROVIDER_CATEGORY.equals(category)) selector = URLSelector.ALL;
+        List<URL> urls = new ArrayList<>();
+        for (URL url : providers) {
+            if (StringUtils.equalsIgnoreCase(consumer.getService(), url.getService()) && selector.matches(url)) {
+                urls.add(url);
+            }
+        }
+        if (urls.isEmpty()) {
+            urls.add(toEmptyUrl(consumer, category));
+        }
+        return urls;
+    }
+
+    /**
+     * 按分类分组，其他服务的URL丢弃
+     */
+    public static Map<String, List<URL>> groupByCategory(URL url, List<URL> urls) {
+        Map<String, List<URL>> result = new HashMap<>();
+        for (URL u : urls) {
+            if (StringUtils.equals(u.getService(), url.getService())) {
+                String category = toCategory(u);
+                List<URL> categoryList = result.get(category);
+                if (categoryList == null) {
+                    categoryList = new ArrayList<>();
+                    result.put(category, categoryList);
+                }
+                categoryList.add(u);
+            }
+        }
+        return result;
+    }
+}
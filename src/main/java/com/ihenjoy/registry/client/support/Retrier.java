@@ -0,0 +1,146 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 失败任务的重试。
+ * 每个任务独立记录失败次数，按{@link Backoff}计算下次执行时间，成功或取消后不再执行。
+ * 任务以equals区分，同一任务重复提交时保留原有的退避状态。
+ * 全部实例共享一个调度线程池，只负责计时，任务可在指定的执行器上运行，避免阻塞的任务占用调度线程。
+ *
+ * @author chi
+ */
+public class Retrier {
+
+    private static final Logger logger = LoggerFactory.getLogger(Retrier.class);
+
+    private static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+    private final Backoff backoff;
+    private final Executor executor;
+    private final ConcurrentMap<Runnable, Attempt> attempts = new ConcurrentHashMap<>();
+
+    public Retrier(Backoff backoff) {
+        this(backoff, null);
+    }
+
+    /**
+     * @param executor 执行任务的执行器，为null时在调度线程上执行
+     */
+    public Retrier(Backoff backoff, Executor executor) {
+        this.backoff = backoff;
+        this.executor = executor;
+    }
+
+    /**
+     * 共享的调度线程池，也用于其他周期性的注册中心任务
+     */
+    public static ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * 提交失败的任务，已在重试中的任务不重复提交
+     */
+    public void retry(Runnable task) {
+        Attempt attempt = new Attempt(task);
+        if (attempts.putIfAbsent(task, attempt) == null) {
+            attempt.schedule();
+        }
+    }
+
+    public void cancel(Runnable task) {
+        Attempt attempt = attempts.remove(task);
+        if (attempt != null) {
+            attempt.cancel();
+        }
+    }
+
+    public boolean contains(Runnable task) {
+        return attempts.containsKey(task);
+    }
+
+    /**
+     * 等待重试的任务数
+     */
+    public int size() {
+        return attempts.size();
+    }
+
+    public void destroy() {
+        for (Attempt attempt : attempts.values()) {
+            attempt.cancel();
+        }
+        attempts.clear();
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(2, new NamedThreadFactory("RegistryRetry"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private class Attempt implements Runnable {
+        private final Runnable task;
+        // 同一任务不会并发执行
+        private volatile int failures;
+        private volatile ScheduledFuture<?> future;
+
+        Attempt(Runnable task) {
+            this.task = task;
+        }
+
+        void schedule() {
+            Runnable run = this;
+            if (executor != null) {
+                run = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            executor.execute(Attempt.this);
+                        } catch (RejectedExecutionException e) {
+                            // 不在调度线程上执行阻塞的任务，按退避再次提交
+                            if (attempts.get(task) == Attempt.this) {
+                                failures++;
+                                schedule();
+                            }
+                        }
+                    }
+                };
+            }
+            future = SCHEDULER.schedule(run, backoff.delay(failures), TimeUnit.MILLISECONDS);
+        }
+
+        void cancel() {
+            ScheduledFuture<?> f = future;
+            if (f != null) f.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            // 已取消或被新的提交替换
+            if (attempts.get(task) != this) return;
+            try {
+                task.run();
+                attempts.remove(task, this);
+            } catch (Throwable t) {
+                failures++;
+                logger.warn("Failed to retry " + task + " " + failures + " times, waiting for again, cause: " + t.getMessage());
+                if (attempts.get(task) == this) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.api.DeltaNotifyListener;
+import com.ihenjoy.registry.client.api.NotifyEvent;
+import com.ihenjoy.registry.client.api.ServiceSnapshot;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订阅通知后维护服务的{@link ServiceSnapshot}，每次变更生成新快照并整体替换。
+ * 调用方通过{@link #get()}读取，只有一次volatile读。
+ *
+ * @author chi
+ */
+public class ServiceSnapshotListener implements DeltaNotifyListener {
+
+    private final String service;
+    private final String[] indexKeys;
+    // 各分类的最新节点，guarded by this
+    private final Map<String, List<URL>> categories = new HashMap<>();
+    private volatile ServiceSnapshot snapshot;
+
+    /**
+     * @param indexKeys 需要预先分组的提供者参数，如version、group、zone
+     */
+    public ServiceSnapshotListener(String service, String... indexKeys) {
+        this.service = service;
+        this.indexKeys = indexKeys;
+        this.snapshot = ServiceSnapshot.empty(service, indexKeys);
+    }
+
+    public ServiceSnapshot get() {
+        return snapshot;
+    }
+
+    @Override
+    public void notify(NotifyEvent event) {
+        Map<String, List<URL>> changed = new HashMap<>();
+        changed.put(event.getCategory(), event.getUrls());
+        update(changed);
+    }
+
+    @Override
+    public void notify(List<URL> urls) {
+        Map<String, List<URL>> changed = new LinkedHashMap<>();
+        for (URL url : urls) {
+            String category = url.getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY);
+            List<URL> categoryList = changed.get(category);
+            if (categoryList == null) {
+                categoryList = new ArrayList<>();
+                changed.put(category, categoryList);
+            }
+            categoryList.add(url);
+        }
+        update(changed);
+    }
+
+    private synchronized void update(Map<String, List<URL>> changed) {
+        if (changed.isEmpty()) return;
+        categories.putAll(changed);
+        snapshot = ServiceSnapshot.build(service, snapshot.getVersion() + 1, categories, indexKeys);
+    }
+}
@@ -0,0 +1,31 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.URLSelector;
+import com.ihenjoy.registry.client.util.ConcurrentHashSet;
+
+import java.util.Set;
+
+/**
+ * 同一订阅URL的监听，筛选条件只编译一次
+ *
+ * @author chi
+ */
+public final class Subscriber {
+
+    private final URLSelector selector;
+    private final Set<NotifyListener> listeners = new ConcurrentHashSet<>();
+
+    public Subscriber(URL url) {
+        this.selector = URLSelector.compile(url);
+    }
+
+    public URLSelector getSelector() {
+        return selector;
+    }
+
+    public Set<NotifyListener> getListeners() {
+        return listeners;
+    }
+}
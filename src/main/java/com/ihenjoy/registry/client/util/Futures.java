@@ -0,0 +1,46 @@
+package com.ihenjoy.registry.client.util;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * @author chi
+ */
+public final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * 在调用线程上执行，结果包装为已完成的future
+     */
+    public static CompletableFuture<Void> run(Runnable action) {
+        try {
+            action.run();
+            return CompletableFuture.completedFuture(null);
+        } catch (Throwable t) {
+            return failed(t);
+        }
+    }
+
+    public static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    public static CompletableFuture<Void> allOf(Collection<? extends CompletableFuture<?>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+    }
+
+    /**
+     * 去掉CompletableFuture包装的CompletionException
+     */
+    public static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+}
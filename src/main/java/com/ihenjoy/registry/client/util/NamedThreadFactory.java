@@ -0,0 +1,32 @@
+package com.ihenjoy.registry.client.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author chi
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNum = new AtomicInteger(1);
+
+    private final String prefix;
+
+    private final boolean daemon;
+
+    public NamedThreadFactory(String prefix) {
+        this(prefix, true);
+    }
+
+    public NamedThreadFactory(String prefix, boolean daemon) {
+        this.prefix = prefix + "-thread-";
+        this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + threadNum.getAndIncrement());
+        thread.setDaemon(daemon);
+        return thread;
+    }
+}
@@ -0,0 +1,97 @@
+package com.ihenjoy.registry.client.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * 按提交顺序逐个执行任务，任务在底层执行器上运行，同一时刻最多占用一个线程。
+ * 底层执行器可以是共享的线程池或虚拟线程，互不影响的串行队列之间并发执行。
+ *
+ * @author chi
+ */
+public class SerialExecutor implements Executor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Executor delegate;
+    // guarded by this
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean active;
+
+    public SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 底层执行器拒绝时，本次的任务不会执行；提交期间其他线程加入的任务重新提交一次，
+     * 仍被拒绝时全部丢弃，不会留在队列中等待无关的下一次提交
+     *
+     * @throws java.util.concurrent.RejectedExecutionException 底层执行器拒绝时
+     */
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            tasks.addLast(task);
+            if (active) return;
+            active = true;
+        }
+        try {
+            submit();
+        } catch (RuntimeException e) {
+            boolean others;
+            synchronized (this) {
+                tasks.removeLastOccurrence(task);
+                others = !tasks.isEmpty();
+                active = others;
+            }
+            if (others) resubmit();
+            throw e;
+        }
+    }
+
+    private void submit() {
+        delegate.execute(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+    }
+
+    // 其他线程看到active后已返回，由被拒绝的线程负责它们的任务
+    private void resubmit() {
+        try {
+            submit();
+        } catch (RuntimeException e) {
+            int dropped;
+            synchronized (this) {
+                dropped = tasks.size();
+                tasks.clear();
+                active = false;
+            }
+            logger.error("Drop " + dropped + " serial tasks rejected by " + delegate + ", cause: " + e.getMessage(), e);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.pollFirst();
+                if (task == null) {
+                    active = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // 失败的任务不影响后续任务
+                logger.error("Failed to run serial task " + task + ", cause: " + t.getMessage(), t);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.ihenjoy.registry.client;
+
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.provider.RegistryType;
+import com.ihenjoy.registry.client.provider.memory.MemoryStore;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * @author chi
+ */
+public class DefaultRegistryConfigTest {
+
+    private static final String STORE = "deferred-register-test";
+
+    @Test
+    public void registerAfterRefresh() throws Exception {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.register(TestRegistryConfig.class);
+        context.refresh();
+        try {
+            // 容器初始化期间注册被暂存
+            Assert.assertTrue(TestRegistryConfig.registeredDuringInit.isEmpty());
+            Assert.assertEquals(1, MemoryStore.get(STORE).lookup("demo", "providers").size());
+        } finally {
+            context.close();
+        }
+    }
+
+    @Configuration
+    public static class TestRegistryConfig extends DefaultRegistryConfig {
+        static volatile List<URL> registeredDuringInit;
+
+        @Bean
+        @Override
+        public RegistrySettings registrySettings() {
+            RegistrySettings settings = new RegistrySettings();
+            settings.setRegistryType(RegistryType.Memory);
+            settings.setServer(URL.valueOf("memory://" + STORE));
+            settings.setLocalPort(8080);
+            settings.setDeferRegister(true);
+            return settings;
+        }
+
+        @Override
+        protected void registry(RegistryConfig registryConfig) {
+            registryConfig.register(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            registeredDuringInit = MemoryStore.get(STORE).lookup("demo", "providers");
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.ihenjoy.registry.client.api;
+
+import com.ihenjoy.registry.client.common.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author chi
+ */
+public class NotifyEventTest {
+
+    private final URL consumer = URL.valueOf("consumer://10.0.0.1/demo");
+    private final URL a = URL.valueOf("dubbo://10.0.0.2:20880/demo?category=providers");
+    private final URL b = URL.valueOf("dubbo://10.0.0.3:20880/demo?category=providers");
+    private final URL c = URL.valueOf("dubbo://10.0.0.4:20880/demo?category=providers");
+
+    @Test
+    public void firstNotifyIsAllAdded() {
+        NotifyEvent event = NotifyEvent.diff(consumer, "providers", 1, null, Arrays.asList(a, b));
+        Assert.assertEquals(2, event.getAdded().size());
+        Assert.assertTrue(event.getRemoved().isEmpty());
+        Assert.assertTrue(event.getUnchanged().isEmpty());
+        Assert.assertTrue(event.hasChanges());
+    }
+
+    @Test
+    public void diffAgainstPrevious() {
+        NotifyEvent event = NotifyEvent.diff(consumer, "providers", 2, Arrays.asList(a, b), Arrays.asList(b, c));
+        Assert.assertEquals(Collections.singleton(c), event.getAdded());
+        Assert.assertEquals(Collections.singleton(a), event.getRemoved());
+        Assert.assertEquals(Collections.singleton(b), event.getUnchanged());
+        Assert.assertEquals(Arrays.asList(b, c), event.getUrls());
+        Assert.assertEquals(2, event.getVersion());
+    }
+
+    @Test
+    public void noChanges() {
+        NotifyEvent event = NotifyEvent.diff(consumer, "providers", 3, Arrays.asList(a, b), Arrays.asList(b, a));
+        Assert.assertFalse(event.hasChanges());
+    }
+}
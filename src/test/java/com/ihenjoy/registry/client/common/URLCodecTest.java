@@ -0,0 +1,34 @@
+package com.ihenjoy.registry.client.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author chi
+ */
+public class URLCodecTest {
+
+    @Test
+    public void roundTrip() {
+        URL url = URL.valueOf("dubbo://10.0.0.1:20880/demo?version=1.0&weight=100&category=providers");
+        URL decoded = URLCodec.decode(URLCodec.encode(url), null);
+        Assert.assertEquals(url, decoded);
+        Assert.assertEquals(url.toFullString(), decoded.toFullString());
+    }
+
+    @Test
+    public void stableId() {
+        String id = URLCodec.id(URL.valueOf("dubbo://10.0.0.1:20880/demo?version=1.0"));
+        Assert.assertEquals(id, URLCodec.id(URL.valueOf("dubbo://10.0.0.1:20880/demo?version=1.0")));
+        Assert.assertNotEquals(id, URLCodec.id(URL.valueOf("dubbo://10.0.0.2:20880/demo?version=1.0")));
+        Assert.assertTrue(URLCodec.isId(id));
+        Assert.assertFalse(URLCodec.isId(URL.encode("dubbo://10.0.0.1:20880/demo")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedVersion() {
+        byte[] data = URLCodec.encode(URL.valueOf("dubbo://10.0.0.1:20880/demo"));
+        data[0] = 99;
+        URLCodec.decode(data, null);
+    }
+}
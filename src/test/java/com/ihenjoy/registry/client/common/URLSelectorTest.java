@@ -0,0 +1,44 @@
+package com.ihenjoy.registry.client.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author chi
+ */
+public class URLSelectorTest {
+
+    @Test
+    public void matchUrlAndString() {
+        URLSelector selector = URLSelector.compile(URL.valueOf("consumer://10.0.0.1/demo?select.version=1.0,2.*&select.zone=cn-*"));
+        String[] matched = {
+                "dubbo://10.0.1.1:20880/demo?version=1.0&zone=cn-east",
+                "dubbo://10.0.1.2:20880/demo?zone=cn-north&version=2.1",
+        };
+        String[] unmatched = {
+                "dubbo://10.0.1.3:20880/demo?version=3.0&zone=cn-east",
+                "dubbo://10.0.1.4:20880/demo?version=1.0&zone=us-west",
+                "dubbo://10.0.1.5:20880/demo?version=1.0",
+                "dubbo://10.0.1.6:20880/demo",
+        };
+        for (String provider : matched) {
+            Assert.assertTrue(provider, selector.matches(provider));
+            Assert.assertTrue(provider, selector.matches(URL.valueOf(provider)));
+        }
+        for (String provider : unmatched) {
+            Assert.assertFalse(provider, selector.matches(provider));
+            Assert.assertFalse(provider, selector.matches(URL.valueOf(provider)));
+        }
+    }
+
+    @Test
+    public void emptyAndAny() {
+        Assert.assertSame(URLSelector.ALL, URLSelector.compile(URL.valueOf("consumer://10.0.0.1/demo?version=1.0")));
+        Assert.assertSame(URLSelector.ALL, URLSelector.compile(URL.valueOf("consumer://10.0.0.1/demo?select.group=a,*")));
+        // 空候选值只匹配未设置该参数的提供者
+        URLSelector selector = URLSelector.compile(URL.valueOf("consumer://10.0.0.1/demo?select.group=a,"));
+        Assert.assertTrue(selector.matches("dubbo://10.0.1.1:20880/demo"));
+        Assert.assertTrue(selector.matches("dubbo://10.0.1.1:20880/demo?group=a"));
+        Assert.assertFalse(selector.matches("dubbo://10.0.1.1:20880/demo?group=b"));
+    }
+}
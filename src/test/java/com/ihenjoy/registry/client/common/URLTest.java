@@ -0,0 +1,137 @@
+package com.ihenjoy.registry.client.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author chi
+ */
+public class URLTest {
+
+    @Test
+    public void valueOf() {
+        URL url = URL.valueOf(" dubbo://10.0.0.1:20880/com.demo.Service?version=1.0&& group=a &flag ");
+        Assert.assertEquals("dubbo", url.getProtocol());
+        Assert.assertEquals("10.0.0.1", url.getHost());
+        Assert.assertEquals(20880, url.getPort());
+        Assert.assertEquals("com.demo.Service", url.getService());
+        Assert.assertEquals("1.0", url.getParameter("version"));
+        Assert.assertEquals("a", url.getParameter("group"));
+        Assert.assertEquals("flag", url.getParameter("flag"));
+        Assert.assertEquals(3, url.getParameters().size());
+    }
+
+    @Test
+    public void valueOfWithoutPortAndService() {
+        URL url = URL.valueOf("zookeeper://127.0.0.1?backup=127.0.0.2:2181,127.0.0.3:2181");
+        Assert.assertEquals("127.0.0.1", url.getHost());
+        Assert.assertEquals(0, url.getPort());
+        Assert.assertNull(url.getService());
+        Assert.assertEquals("127.0.0.1,127.0.0.2:2181,127.0.0.3:2181", url.getBackupAddress());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void valueOfMissingProtocol() {
+        URL.valueOf("10.0.0.1:20880/demo");
+    }
+
+    @Test
+    public void encodeDecode() {
+        URL url = URL.valueOf("dubbo://10.0.0.1:20880/demo?name=中文 value&category=providers");
+        String encoded = URL.encode(url.toFullString());
+        Assert.assertEquals(url, URL.valueOf(URL.decode(encoded)));
+        Assert.assertEquals("plain", URL.decode("plain"));
+        Assert.assertEquals("a b/c", URL.decode("a+b%2Fc"));
+    }
+
+    @Test
+    public void intern() {
+        URLInterner interner = new URLInterner(16);
+        String provider = "dubbo://10.0.0.1:20880/demo?version=1.0";
+        URL first = interner.intern(provider);
+        Assert.assertSame(first, interner.intern(new String(provider)));
+        URL other = interner.intern("dubbo://10.0.0.2:20880/demo?version=1.0");
+        Assert.assertSame(first.getParameter("version"), other.getParameter("version"));
+    }
+
+    @Test
+    public void lazyParameters() {
+        URL url = URL.valueOf("dubbo://10.0.0.1:20880/demo?version=1.0&weight=50&flag&empty=&version=2.0");
+        // 重复的参数以最后一个为准，与参数表一致
+        Assert.assertEquals("2.0", url.getParameter("version"));
+        Assert.assertEquals(50, url.getParameter("weight", 100));
+        Assert.assertEquals("flag", url.getParameter("flag"));
+        Assert.assertEquals("", url.getParameter("empty"));
+        Assert.assertNull(url.getParameter("missing"));
+        Assert.assertNull(url.getParameter(null));
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("version", "2.0");
+        parameters.put("weight", "50");
+        parameters.put("flag", "flag");
+        parameters.put("empty", "");
+        URL eager = new URL("dubbo", "10.0.0.1", 20880, "demo", parameters);
+        URL lazy = URL.valueOf("dubbo://10.0.0.1:20880/demo?version=1.0&weight=50&flag&empty=&version=2.0");
+        Assert.assertEquals(eager.hashCode(), lazy.hashCode());
+        Assert.assertEquals(eager, lazy);
+        Assert.assertEquals(lazy, eager);
+
+        URL other = URL.valueOf("dubbo://10.0.0.1:20880/demo?weight=50&flag&empty=&version=2.0");
+        Assert.assertEquals(other.hashCode(), lazy.hashCode());
+        Assert.assertEquals(other, lazy);
+        Assert.assertEquals(parameters, lazy.getParameters());
+        Assert.assertNotEquals(other, URL.valueOf("dubbo://10.0.0.1:20880/demo?weight=60"));
+
+        // 修改主机等不解析参数
+        URL moved = other.withHost("10.0.0.2");
+        Assert.assertEquals("2.0", moved.getParameter("version"));
+        Assert.assertEquals(other.withHost("10.0.0.2"), moved);
+    }
+
+    @Test
+    public void copiesKeepEqualityAndHash() {
+        URL url = URL.valueOf("dubbo://10.0.0.1:20880/demo?version=1.0&weight=50");
+        int hash = url.hashCode();
+        // 解析参数表前后hashCode不变
+        Assert.assertEquals(2, url.getParameters().size());
+        Assert.assertEquals(hash, url.hashCode());
+        // 参数表构造后不再保留原始字符串，与未解析的URL仍然相等
+        URL unparsed = URL.valueOf("dubbo://10.0.0.1:20880/demo?version=1.0&weight=50");
+        Assert.assertEquals(unparsed, url);
+        Assert.assertEquals(url, unparsed);
+        Assert.assertEquals("1.0", url.getParameter("version"));
+        Assert.assertEquals("dubbo://10.0.0.1:20880/demo?version=1.0&weight=50", url.toFullString());
+
+        URL back = url.withHost("10.0.0.2").withPort(20881).withHost("10.0.0.1").withPort(20880);
+        Assert.assertEquals(url, back);
+        Assert.assertEquals(hash, back.hashCode());
+        URL restored = url.withParameter("group", "a").withoutParameter("group");
+        Assert.assertEquals(url, restored);
+        Assert.assertEquals(hash, restored.hashCode());
+        Assert.assertEquals(url, url.withParameter("version", "1.0"));
+        Assert.assertSame(url, url.withParameter("version", "1.0"));
+
+        URL changed = url.withParameter("weight", "60");
+        Assert.assertNotEquals(url, changed);
+        Assert.assertEquals("50", url.getParameter("weight"));
+        Assert.assertEquals(changed, URL.valueOf(changed.toFullString()));
+        Assert.assertEquals(changed.hashCode(), URL.valueOf(changed.toFullString()).hashCode());
+    }
+
+    @Test
+    public void cachedFullString() {
+        URL url = URL.valueOf("dubbo://10.0.0.1:20880/demo?weight=50&version=1.0");
+        String full = url.toFullString();
+        Assert.assertEquals("dubbo://10.0.0.1:20880/demo?version=1.0&weight=50", full);
+        Assert.assertSame(full, url.toFullString());
+        Assert.assertSame(full, url.toString());
+        // 副本各自缓存，不沿用原URL的字符串
+        Assert.assertEquals("dubbo://10.0.0.2:20880/demo?version=1.0&weight=50", url.withHost("10.0.0.2").toFullString());
+        Assert.assertEquals("empty://10.0.0.1:20880/demo?version=1.0&weight=50", url.withProtocol("empty").toFullString());
+        Assert.assertEquals("dubbo://10.0.0.1:20880/demo?version=1.0&weight=60", url.withParameter("weight", "60").toFullString());
+        Assert.assertSame(full, url.toFullString());
+    }
+}
@@ -0,0 +1,35 @@
+package com.ihenjoy.registry.client.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author chi
+ */
+public class LogHistogramTest {
+
+    @Test
+    public void bucketBounds() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LogHistogram.index(value);
+            Assert.assertTrue(value + " >= lower", value >= LogHistogram.lowerBound(index));
+            Assert.assertTrue(value + " <= upper", value <= LogHistogram.upperBound(index));
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LogHistogram histogram = new LogHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(1000000, snapshot.getMax());
+        Assert.assertEquals(500500, snapshot.getMean());
+        // 相对误差不超过1/16
+        Assert.assertEquals(500000, snapshot.getP50(), 500000 / 16);
+        Assert.assertEquals(990000, snapshot.getP99(), 990000 / 16);
+    }
+}
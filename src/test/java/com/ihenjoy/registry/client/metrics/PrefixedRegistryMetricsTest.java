@@ -0,0 +1,32 @@
+package com.ihenjoy.registry.client.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author chi
+ */
+public class PrefixedRegistryMetricsTest {
+
+    @Test
+    public void gaugesOfZonesDoNotOverwrite() {
+        RegistryMetrics shared = new DefaultRegistryMetrics();
+        new PrefixedRegistryMetrics(shared, "zone.a.").gauge(RegistryMetrics.RETRY_REGISTERED, new Gauge() {
+            @Override
+            public long get() {
+                return 1;
+            }
+        });
+        new PrefixedRegistryMetrics(shared, "zone.b.").gauge(RegistryMetrics.RETRY_REGISTERED, new Gauge() {
+            @Override
+            public long get() {
+                return 2;
+            }
+        });
+        new PrefixedRegistryMetrics(shared, "zone.a.").counter(RegistryMetrics.RECONNECTS).increment();
+        MetricsSnapshot snapshot = shared.snapshot();
+        Assert.assertEquals(1L, (long) snapshot.getGauges().get("zone.a." + RegistryMetrics.RETRY_REGISTERED));
+        Assert.assertEquals(2L, (long) snapshot.getGauges().get("zone.b." + RegistryMetrics.RETRY_REGISTERED));
+        Assert.assertEquals(1L, (long) snapshot.getCounters().get("zone.a." + RegistryMetrics.RECONNECTS));
+    }
+}
@@ -0,0 +1,163 @@
+package com.ihenjoy.registry.client.provider.federation;
+
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.api.RegistryService;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.provider.memory.MemoryRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author chi
+ */
+public class FederatedRegistryTest {
+
+    private final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+    private final NotifyListener listener = new NotifyListener() {
+        @Override
+        public void notify(List<URL> urls) {
+            if (!"consumers".equals(urls.get(0).getParameter("category"))) {
+                received.add(urls);
+            }
+        }
+    };
+
+    @Test
+    public void preferLocalZone() throws Exception {
+        MemoryRegistry local = new MemoryRegistry(URL.valueOf("memory://federation-local:0?notify.window=0"));
+        MemoryRegistry remote = new MemoryRegistry(URL.valueOf("memory://federation-remote:0?notify.window=0"));
+        Map<String, RegistryService> registries = new LinkedHashMap<>();
+        registries.put("a", local);
+        registries.put("b", remote);
+        FederatedRegistry registry = new FederatedRegistry("a", registries, 1000);
+        try {
+            remote.register(URL.valueOf("dubbo://10.0.2.1:20880/demo"));
+            registry.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), listener);
+            List<URL> urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            Assert.assertEquals("b", urls.get(0).getParameter(FederatedRegistry.ZONE_KEY));
+
+            // 本机房有提供者后只用本机房的
+            local.register(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            Assert.assertEquals("a", urls.get(0).getParameter(FederatedRegistry.ZONE_KEY));
+        } finally {
+            registry.destroy();
+        }
+    }
+
+    @Test
+    public void remergeWhenLocalZoneChanges() throws Exception {
+        final AtomicBoolean available = new AtomicBoolean(true);
+        MemoryRegistry local = new MemoryRegistry(URL.valueOf("memory://federation-toggle:0?notify.window=0")) {
+            @Override
+            public boolean isAvailable() {
+                return available.get() && super.isAvailable();
+            }
+        };
+        MemoryRegistry remote = new MemoryRegistry(URL.valueOf("memory://federation-toggle-remote:0?notify.window=0"));
+        Map<String, RegistryService> registries = new LinkedHashMap<>();
+        registries.put("a", local);
+        registries.put("b", remote);
+        FederatedRegistry registry = new FederatedRegistry("a", registries, 1000, 50);
+        try {
+            local.register(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            remote.register(URL.valueOf("dubbo://10.0.2.1:20880/demo"));
+            registry.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), listener);
+            Assert.assertEquals(1, last().size());
+
+            // 本机房不可用时没有新的通知也合并全部来源，恢复后只用本机房的
+            available.set(false);
+            Assert.assertEquals(2, received.poll(5, TimeUnit.SECONDS).size());
+            available.set(true);
+            List<URL> urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            Assert.assertEquals("a", urls.get(0).getParameter(FederatedRegistry.ZONE_KEY));
+        } finally {
+            registry.destroy();
+        }
+    }
+
+    @Test
+    public void slowRegistryDoesNotBlock() throws Exception {
+        MemoryRegistry fast = new MemoryRegistry(URL.valueOf("memory://federation-fast:0?notify.window=0"));
+        Map<String, RegistryService> registries = new LinkedHashMap<>();
+        registries.put("a", fast);
+        BlockingRegistry blocking = new BlockingRegistry();
+        registries.put("b", blocking);
+        FederatedRegistry registry = new FederatedRegistry("a", registries, 200);
+        try {
+            long start = System.currentTimeMillis();
+            registry.register(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            registry.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), listener);
+            Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+            Assert.assertEquals(1, received.poll(5, TimeUnit.SECONDS).size());
+            Assert.assertTrue(registry.getFreshness().get("a") > 0);
+            Assert.assertEquals(0L, (long) registry.getFreshness().get("b"));
+        } finally {
+            blocking.release.countDown();
+            registry.destroy();
+        }
+    }
+
+    // 订阅时两个来源先后通知，取合并后稳定的结果
+    private List<URL> last() throws InterruptedException {
+        List<URL> urls = received.poll(5, TimeUnit.SECONDS);
+        List<URL> next;
+        while ((next = received.poll(200, TimeUnit.MILLISECONDS)) != null) {
+            urls = next;
+        }
+        return urls;
+    }
+
+    /**
+     * 同步调用阻塞直到释放的注册中心，没有覆盖异步接口
+     */
+    private static class BlockingRegistry implements RegistryService {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void register(URL url) {
+            await();
+        }
+
+        @Override
+        public void registerAll(Collection<URL> urls) {
+            await();
+        }
+
+        @Override
+        public void unregister(URL url) {
+            await();
+        }
+
+        @Override
+        public void subscribe(URL url, NotifyListener notifyListener) {
+            await();
+        }
+
+        @Override
+        public void unSubscribe(URL url, NotifyListener notifyListener) {
+            await();
+        }
+
+        private void await() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
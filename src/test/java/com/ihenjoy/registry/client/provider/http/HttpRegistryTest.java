@@ -0,0 +1,281 @@
+package com.ihenjoy.registry.client.provider.http;
+
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.exception.RegistryException;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+import com.ihenjoy.registry.server.RegistryServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author chi
+ */
+public class HttpRegistryTest {
+
+    private RegistryServer server;
+    private URL registryUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new RegistryServer(0);
+        server.start();
+        registryUrl = URL.valueOf("http://127.0.0.1:" + server.getPort() + "?notify.window=0&poll.timeout=10000");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void incrementalNotify() throws Exception {
+        HttpRegistry provider = new HttpRegistry(registryUrl);
+        HttpRegistry consumer = new HttpRegistry(registryUrl);
+        final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+        NotifyListener listener = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                received.add(urls);
+            }
+        };
+        try {
+            provider.register(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            consumer.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), listener);
+            Assert.assertEquals(1, received.poll(5, TimeUnit.SECONDS).size());
+
+            // 长轮询中收到增量变更
+            provider.register(URL.valueOf("dubbo://10.0.1.2:20880/demo?dynamic=false"));
+            Assert.assertEquals(2, received.poll(5, TimeUnit.SECONDS).size());
+
+            // 会话关闭后只保留持久节点
+            provider.destroy();
+            List<URL> urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            Assert.assertEquals("10.0.1.2", urls.get(0).getHost());
+
+            consumer.unregister(URL.valueOf("dubbo://10.0.1.2:20880/demo?dynamic=false"));
+            urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(Constants.EMPTY_PROTOCOL, urls.get(0).getProtocol());
+        } finally {
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void subscribeAll() throws Exception {
+        HttpRegistry provider = new HttpRegistry(registryUrl);
+        HttpRegistry consumer = new HttpRegistry(registryUrl);
+        final BlockingQueue<List<URL>> demo = new LinkedBlockingQueue<>();
+        final BlockingQueue<List<URL>> other = new LinkedBlockingQueue<>();
+        Map<URL, NotifyListener> subscriptions = new LinkedHashMap<>();
+        subscriptions.put(URL.valueOf("consumer://10.0.0.1/demo"), new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                demo.add(urls);
+            }
+        });
+        subscriptions.put(URL.valueOf("consumer://10.0.0.1/other"), new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                other.add(urls);
+            }
+        });
+        try {
+            provider.register(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            provider.register(URL.valueOf("dubbo://10.0.1.2:20880/other"));
+            consumer.subscribeAll(subscriptions);
+            Assert.assertEquals("10.0.1.1", demo.poll(5, TimeUnit.SECONDS).get(0).getHost());
+            Assert.assertEquals("10.0.1.2", other.poll(5, TimeUnit.SECONDS).get(0).getHost());
+            Assert.assertEquals(2, consumer.getRegistered().size());
+
+            // 批量拉取的分类同样加入长轮询
+            provider.register(URL.valueOf("dubbo://10.0.1.3:20880/other"));
+            Assert.assertEquals(2, other.poll(5, TimeUnit.SECONDS).size());
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void updateInPlace() throws Exception {
+        HttpRegistry provider = new HttpRegistry(registryUrl);
+        HttpRegistry consumer = new HttpRegistry(registryUrl);
+        final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+        try {
+            URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo?weight=100&load=0");
+            provider.register(url);
+            consumer.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), new NotifyListener() {
+                @Override
+                public void notify(List<URL> urls) {
+                    received.add(urls);
+                }
+            });
+            Assert.assertEquals(url, received.poll(5, TimeUnit.SECONDS).get(0));
+
+            provider.update(url, Collections.singletonMap(Constants.LOAD_KEY, "4"));
+            List<URL> urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            Assert.assertEquals(4, urls.get(0).getParameter(Constants.LOAD_KEY, 0));
+
+            provider.unregister(url);
+            Assert.assertEquals(Constants.EMPTY_PROTOCOL, received.poll(5, TimeUnit.SECONDS).get(0).getProtocol());
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void otherSessionCannotUnregister() throws Exception {
+        HttpRegistry provider = new HttpRegistry(registryUrl);
+        HttpRegistry consumer = new HttpRegistry(registryUrl);
+        final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+        try {
+            URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo");
+            provider.register(url);
+            consumer.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), new NotifyListener() {
+                @Override
+                public void notify(List<URL> urls) {
+                    received.add(urls);
+                }
+            });
+            Assert.assertEquals(url, received.poll(5, TimeUnit.SECONDS).get(0));
+
+            try {
+                consumer.unregister(url);
+                Assert.fail();
+            } catch (RegistryException e) {
+                // 节点属于提供者的会话
+            }
+            Assert.assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void serverRestart() throws Exception {
+        URL url = URL.valueOf("http://127.0.0.1:" + server.getPort() + "?notify.window=0&poll.timeout=10000&retry.period=100&session.timeout=3000");
+        HttpRegistry provider = new HttpRegistry(url);
+        HttpRegistry consumer = new HttpRegistry(url);
+        final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+        NotifyListener listener = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                received.add(urls);
+            }
+        };
+        try {
+            provider.register(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            provider.register(URL.valueOf("dubbo://10.0.1.2:20880/demo?dynamic=false"));
+            consumer.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), listener);
+            Assert.assertEquals(2, received.poll(5, TimeUnit.SECONDS).size());
+            // 推进版本号，重启后的版本号小于客户端已知的版本
+            for (int i = 0; i < 5; i++) {
+                provider.register(URL.valueOf("dubbo://10.0.2." + i + ":20880/demo"));
+                provider.unregister(URL.valueOf("dubbo://10.0.2." + i + ":20880/demo"));
+            }
+            // 丢弃重启前的通知
+            while (received.poll(500, TimeUnit.MILLISECONDS) != null) {
+            }
+
+            int port = server.getPort();
+            server.stop();
+            server = new RegistryServer(port);
+            server.start();
+
+            // 重启后的全量被接受，且提供者重新注册全部节点
+            long deadline = System.currentTimeMillis() + 10000;
+            List<URL> urls = null;
+            while (System.currentTimeMillis() < deadline) {
+                List<URL> next = received.poll(100, TimeUnit.MILLISECONDS);
+                if (next != null) urls = next;
+                if (urls != null && urls.size() == 2 && server.getStore().sessionCount() == 2) break;
+            }
+            Assert.assertNotNull(urls);
+            Assert.assertEquals(2, urls.size());
+            Assert.assertEquals(2, server.getStore().sessionCount());
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void retryRegister() throws Exception {
+        URL url = URL.valueOf("http://127.0.0.1:" + server.getPort() + "?notify.window=0&retry.period=100&retry.max.period=200&session.timeout=3000");
+        HttpRegistry provider = new HttpRegistry(url);
+        HttpRegistry consumer = null;
+        URL providerUrl = URL.valueOf("dubbo://10.0.1.1:20880/demo");
+        try {
+            int port = server.getPort();
+            server.stop();
+            try {
+                provider.register(providerUrl);
+                Assert.fail();
+            } catch (RegistryException e) {
+                // 服务端不可用，等待重试
+            }
+            Assert.assertEquals(1, provider.getMetrics().snapshot().getGauges().get(RegistryMetrics.RETRY_REGISTERED).longValue());
+            server = new RegistryServer(port);
+            server.start();
+
+            consumer = new HttpRegistry(url);
+            final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+            consumer.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), new NotifyListener() {
+                @Override
+                public void notify(List<URL> urls) {
+                    received.add(urls);
+                }
+            });
+            long deadline = System.currentTimeMillis() + 10000;
+            List<URL> urls = null;
+            while (System.currentTimeMillis() < deadline && (urls == null || !urls.contains(providerUrl))) {
+                urls = received.poll(100, TimeUnit.MILLISECONDS);
+            }
+            Assert.assertNotNull(urls);
+            Assert.assertTrue(urls.contains(providerUrl));
+            Assert.assertTrue(provider.getRegistered().contains(providerUrl));
+        } finally {
+            provider.destroy();
+            if (consumer != null) consumer.destroy();
+        }
+    }
+
+    @Test
+    public void startBeforeServer() throws Exception {
+        int port = server.getPort();
+        server.stop();
+        URL url = URL.valueOf("http://127.0.0.1:" + port + "?notify.window=0&retry.period=100&retry.max.period=200&session.timeout=3000");
+        // 服务端不可用时仍可创建，会话由轮询线程按退避创建
+        HttpRegistry provider = new HttpRegistry(url);
+        try {
+            server = new RegistryServer(port);
+            server.start();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline && server.getStore().sessionCount() == 0) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(1, server.getStore().sessionCount());
+            URL providerUrl = URL.valueOf("dubbo://10.0.1.1:20880/demo");
+            provider.register(providerUrl);
+            Assert.assertTrue(provider.getRegistered().contains(providerUrl));
+        } finally {
+            provider.destroy();
+        }
+    }
+}
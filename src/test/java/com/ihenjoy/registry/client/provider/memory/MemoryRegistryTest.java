@@ -0,0 +1,76 @@
+package com.ihenjoy.registry.client.provider.memory;
+
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author chi
+ */
+public class MemoryRegistryTest {
+
+    private final URL registryUrl = URL.valueOf("memory://memory-registry-test:0?notify.window=0");
+
+    @Test
+    public void ephemeralRemovedOnDestroy() throws Exception {
+        MemoryRegistry provider = new MemoryRegistry(registryUrl);
+        MemoryRegistry consumer = new MemoryRegistry(registryUrl);
+        final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+        NotifyListener listener = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                if (Constants.PROVIDER_CATEGORY.equals(urls.get(0).getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY))) {
+                    received.add(urls);
+                }
+            }
+        };
+        try {
+            provider.register(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            provider.register(URL.valueOf("dubbo://10.0.1.2:20880/demo?dynamic=false"));
+            consumer.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), listener);
+            Assert.assertEquals(2, received.poll(5, TimeUnit.SECONDS).size());
+
+            provider.destroy();
+            List<URL> urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            Assert.assertEquals("10.0.1.2", urls.get(0).getHost());
+
+            consumer.register(URL.valueOf("dubbo://10.0.1.2:20880/demo?dynamic=false"));
+            consumer.unregister(URL.valueOf("dubbo://10.0.1.2:20880/demo?dynamic=false"));
+            urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            Assert.assertEquals(Constants.EMPTY_PROTOCOL, urls.get(0).getProtocol());
+        } finally {
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void storeReleasedOnLastDestroy() throws Exception {
+        URL url = URL.valueOf("memory://memory-release-test:0?notify.window=0");
+        MemoryRegistry first = new MemoryRegistry(url);
+        MemoryRegistry second = new MemoryRegistry(url);
+        first.register(URL.valueOf("dubbo://10.0.1.1:20880/demo?dynamic=false"));
+        first.destroy();
+        first.destroy();
+        Assert.assertNotNull(MemoryStore.get(url.getAddress()));
+        Assert.assertEquals(1, MemoryStore.get(url.getAddress()).lookup("demo", Constants.PROVIDER_CATEGORY).size());
+
+        second.destroy();
+        Assert.assertNull(MemoryStore.get(url.getAddress()));
+        // 新的实例使用新的存储
+        MemoryRegistry third = new MemoryRegistry(url);
+        try {
+            Assert.assertTrue(MemoryStore.get(url.getAddress()).lookup("demo", Constants.PROVIDER_CATEGORY).isEmpty());
+        } finally {
+            third.destroy();
+        }
+    }
+}
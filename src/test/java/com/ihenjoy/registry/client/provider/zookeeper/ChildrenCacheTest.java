@@ -0,0 +1,138 @@
+package com.ihenjoy.registry.client.provider.zookeeper;
+
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.URLCodec;
+import com.ihenjoy.registry.client.common.URLInterner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author chi
+ */
+public class ChildrenCacheTest {
+
+    private static final String PATH = "/dubbo/demo/providers";
+
+    @Test
+    public void compactRoundTrip() {
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 70000) {
+            value.append("中文");
+        }
+        Map<String, String> parameters = new HashMap<>();
+        for (int i = 0; i < 70000; i++) {
+            parameters.put("p" + i, String.valueOf(i));
+        }
+        List<URL> urls = Arrays.asList(
+                URL.valueOf("dubbo://10.0.0.1:20880/demo?version=1.0&weight=100"),
+                // 字符串超过writeUTF的64KB
+                URL.valueOf("dubbo://10.0.0.2:20880/demo").withParameter("tag", value.toString()),
+                // 参数个数超过2字节
+                URL.valueOf("dubbo://10.0.0.3:20880/demo").withParameters(parameters));
+
+        final Map<String, byte[]> nodes = new HashMap<>();
+        List<String> children = new ArrayList<>();
+        for (URL url : urls) {
+            String id = URLCodec.id(url);
+            nodes.put(id, URLCodec.encode(url));
+            children.add(id);
+        }
+        Assert.assertEquals(URLCodec.VERSION, nodes.get(children.get(0))[0]);
+        Assert.assertEquals(URLCodec.LONG_VERSION, nodes.get(children.get(1))[0]);
+        Assert.assertEquals(URLCodec.LONG_VERSION, nodes.get(children.get(2))[0]);
+
+        ChildrenCache cache = new ChildrenCache(new URLInterner(1024), new ChildrenCache.DataLoader() {
+            @Override
+            public Map<String, byte[]> load(String path, Collection<String> names) {
+                Map<String, byte[]> result = new HashMap<>();
+                for (String name : names) {
+                    result.put(name, nodes.get(name));
+                }
+                return result;
+            }
+        });
+        List<ChildrenCache.Child> result = cache.update(PATH, children);
+        Assert.assertEquals(urls.size(), result.size());
+        for (int i = 0; i < urls.size(); i++) {
+            Assert.assertEquals(urls.get(i), result.get(i).url());
+            Assert.assertEquals(urls.get(i).toFullString(), result.get(i).url().toFullString());
+        }
+    }
+
+    @Test
+    public void retryFailedLoad() {
+        URL first = URL.valueOf("dubbo://10.0.0.1:20880/demo");
+        URL second = URL.valueOf("dubbo://10.0.0.2:20880/demo");
+        final Map<String, byte[]> nodes = new HashMap<>();
+        nodes.put(URLCodec.id(first), URLCodec.encode(first));
+        final List<Collection<String>> reads = new ArrayList<>();
+        ChildrenCache cache = new ChildrenCache(null, new ChildrenCache.DataLoader() {
+            @Override
+            public Map<String, byte[]> load(String path, Collection<String> names) {
+                reads.add(new ArrayList<>(names));
+                Map<String, byte[]> result = new HashMap<>();
+                for (String name : names) {
+                    if (nodes.containsKey(name)) result.put(name, nodes.get(name));
+                }
+                return result;
+            }
+        });
+        List<String> children = Arrays.asList(URLCodec.id(first), URLCodec.id(second));
+        // 第二个节点的数据读取失败
+        List<ChildrenCache.Child> result = cache.update(PATH, children);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(first, result.get(0).url());
+
+        // 读取失败的不记入快照，下次变更时只重新读取它
+        nodes.put(URLCodec.id(second), URLCodec.encode(second));
+        result = cache.update(PATH, children);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(second, result.get(1).url());
+        Assert.assertEquals(Collections.singletonList(URLCodec.id(second)), reads.get(1));
+    }
+
+    @Test
+    public void ignoreUnknownAndBrokenData() {
+        URL url = URL.valueOf("dubbo://10.0.0.1:20880/demo");
+        byte[] valid = URLCodec.encode(url);
+        byte[] unknown = valid.clone();
+        unknown[0] = 99;
+        byte[] broken = Arrays.copyOf(valid, valid.length / 2);
+        String validId = URLCodec.id(url);
+        String unknownId = URLCodec.id(URL.valueOf("dubbo://10.0.0.2:20880/demo"));
+        String brokenId = URLCodec.id(URL.valueOf("dubbo://10.0.0.3:20880/demo"));
+        final Map<String, byte[]> nodes = new HashMap<>();
+        nodes.put(validId, valid);
+        nodes.put(unknownId, unknown);
+        nodes.put(brokenId, broken);
+        final List<Collection<String>> reads = new ArrayList<>();
+        ChildrenCache cache = new ChildrenCache(null, new ChildrenCache.DataLoader() {
+            @Override
+            public Map<String, byte[]> load(String path, Collection<String> names) {
+                reads.add(new ArrayList<>(names));
+                Map<String, byte[]> result = new HashMap<>();
+                for (String name : names) {
+                    result.put(name, nodes.get(name));
+                }
+                return result;
+            }
+        });
+        List<String> children = Arrays.asList(unknownId, validId, brokenId);
+        List<ChildrenCache.Child> result = cache.update(PATH, children);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(url, result.get(0).url());
+
+        // 无法解码的节点记入快照，不再重复读取
+        result = cache.update(PATH, children);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(1, reads.size());
+    }
+}
@@ -1,7 +1,209 @@
 package com.ihenjoy.registry.client.provider.zookeeper;
 
+import com.ihenjoy.registry.client.common.URL;
+import org.I0Itec.zkclient.IDefaultNameSpace;
+import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.ZkConnection;
+import org.I0Itec.zkclient.ZkServer;
+import org.I0Itec.zkclient.serialize.BytesPushThroughSerializer;
+import org.apache.zookeeper.KeeperException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
+ * 基于内嵌zookeeper的测试
+ *
  * @author chi
  */
 public class ZookeeperClientTest {
+
+    private File dir;
+    private int port;
+    private ZkServer server;
+    private String address;
+    // 绕过客户端缓存直接操作zookeeper
+    private ZkClient raw;
+    private final ConcurrentMap<String, AtomicInteger> creates = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("zookeeper-client-test").toFile();
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = startServer("");
+        address = "127.0.0.1:" + port;
+        raw = rawClient();
+    }
+
+    @After
+    public void tearDown() {
+        raw.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void createAll() throws Exception {
+        ZookeeperClient client = newClient();
+        try {
+            Map<String, byte[]> nodes = new LinkedHashMap<>();
+            nodes.put("/demo/providers/a", "a".getBytes("UTF-8"));
+            nodes.put("/demo/providers/b", "b".getBytes("UTF-8"));
+            nodes.put("/demo/consumers/c", null);
+            Assert.assertEquals(Collections.emptySet(), client.createAll(nodes, false));
+            Assert.assertTrue(raw.exists("/demo/providers/a"));
+            Assert.assertTrue(raw.exists("/demo/providers/b"));
+            Assert.assertTrue(raw.exists("/demo/consumers/c"));
+            // 父节点去重后各创建一次，叶子节点不走同步创建
+            Assert.assertEquals(1, creates.get("/demo/providers").get());
+            Assert.assertEquals(1, creates.get("/demo/consumers").get());
+            Assert.assertNull(creates.get("/demo/providers/a"));
+            Assert.assertNull(creates.get("/demo/consumers/c"));
+
+            // 已存在的节点视为成功
+            Assert.assertEquals(Collections.emptySet(), client.createAll(Arrays.asList("/demo/providers/a"), false));
+        } finally {
+            client.destroy();
+        }
+    }
+
+    @Test
+    public void createAllRetriesStaleParents() throws Exception {
+        ZookeeperClient client = newClient();
+        try {
+            Assert.assertEquals(Collections.emptySet(), client.createAll(Arrays.asList("/demo/providers/a"), false));
+            // 缓存认为父节点存在，实际已被删除
+            raw.deleteRecursive("/demo");
+            creates.clear();
+            Assert.assertEquals(Collections.emptySet(), client.createAll(Arrays.asList("/demo/providers/b"), false));
+            Assert.assertTrue(raw.exists("/demo/providers/b"));
+            // 异步创建失败的节点同步重试一次
+            Assert.assertEquals(1, creates.get("/demo/providers/b").get());
+        } finally {
+            client.destroy();
+        }
+    }
+
+    @Test
+    public void knownPathsDroppedOnNoNode() throws Exception {
+        ZookeeperClient client = newClient();
+        try {
+            client.create("/demo/providers/a", false);
+            raw.deleteRecursive("/demo");
+            // 缓存的父节点不存在时清除缓存，重新创建父节点
+            client.create("/demo/providers/b", false);
+            Assert.assertTrue(raw.exists("/demo/providers/b"));
+
+            raw.deleteRecursive("/demo");
+            client.createAsync("/demo/providers/c", false).get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(raw.exists("/demo/providers/c"));
+        } finally {
+            client.destroy();
+        }
+    }
+
+    @Test
+    public void knownPathsClearedOnNewSession() throws Exception {
+        ZookeeperClient client = newClient();
+        final CountDownLatch expired = new CountDownLatch(1);
+        client.addStateListener(new StateListener() {
+            @Override
+            public void stateChanged(int state) {
+                if (state == RECONNECTED) expired.countDown();
+            }
+        });
+        try {
+            client.create("/demo/providers/a", false);
+            // 换成没有数据的新服务端，原会话失效
+            raw.close();
+            server.shutdown();
+            server = startServer("-new");
+            raw = rawClient();
+            // 服务端的事务id落后于客户端时拒绝连接，先推进到客户端之前
+            for (int i = 0; i < 100; i++) {
+                raw.createPersistent("/zxid");
+                raw.delete("/zxid");
+            }
+            Assert.assertTrue(expired.await(30, TimeUnit.SECONDS));
+            creates.clear();
+            Assert.assertEquals(Collections.emptySet(), client.createAll(Arrays.asList("/demo/providers/b"), false));
+            Assert.assertTrue(raw.exists("/demo/providers/b"));
+            // 新会话的缓存为空，父节点直接创建，叶子节点不需要同步重试
+            Assert.assertNull(creates.get("/demo/providers/b"));
+        } finally {
+            client.destroy();
+        }
+    }
+
+    @Test
+    public void createAndDeleteAsync() throws Exception {
+        ZookeeperClient client = newClient();
+        try {
+            byte[] data = "a".getBytes("UTF-8");
+            client.createAsync("/demo/providers/a", data, true).get(5, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(data, (byte[]) raw.readData("/demo/providers/a"));
+            // 已存在的节点视为成功
+            client.createAsync("/demo/providers/a", data, true).get(5, TimeUnit.SECONDS);
+            try {
+                client.createAsync("/demo/providers/a/child", true).get(5, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof KeeperException.NoChildrenForEphemeralsException);
+            }
+
+            client.deleteAsync("/demo/providers/a").get(5, TimeUnit.SECONDS);
+            Assert.assertFalse(raw.exists("/demo/providers/a"));
+            // 不存在的节点视为成功
+            client.deleteAsync("/demo/providers/a").get(5, TimeUnit.SECONDS);
+            try {
+                client.deleteAsync("/demo").get(5, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof KeeperException.NotEmptyException);
+            }
+        } finally {
+            client.destroy();
+        }
+    }
+
+    private ZkClient rawClient() {
+        return new ZkClient(new ZkConnection(address), 5000, new BytesPushThroughSerializer());
+    }
+
+    private ZkServer startServer(String suffix) {
+        ZkServer zkServer = new ZkServer(dir + "/data" + suffix, dir + "/log" + suffix, new IDefaultNameSpace() {
+            @Override
+            public void createDefaultNameSpace(ZkClient zkClient) {
+            }
+        }, port);
+        zkServer.start();
+        return zkServer;
+    }
+
+    private ZookeeperClient newClient() {
+        return new ZookeeperClient(URL.valueOf("zookeeper://" + address)) {
+            @Override
+            public void create(String path, byte[] data, boolean ephemeral) {
+                creates.putIfAbsent(path, new AtomicInteger());
+                creates.get(path).incrementAndGet();
+                super.create(path, data, ephemeral);
+            }
+        };
+    }
 }
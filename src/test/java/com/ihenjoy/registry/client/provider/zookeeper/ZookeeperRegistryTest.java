@@ -0,0 +1,534 @@
+package com.ihenjoy.registry.client.provider.zookeeper;
+
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.common.exception.RegistryException;
+import com.ihenjoy.registry.client.metrics.DefaultRegistryMetrics;
+import com.ihenjoy.registry.client.metrics.HistogramSnapshot;
+import com.ihenjoy.registry.client.metrics.RegistryMetrics;
+import com.ihenjoy.registry.client.util.Futures;
+import com.ihenjoy.registry.client.support.RegistrySnapshot;
+import com.ihenjoy.registry.client.util.ConcurrentHashSet;
+import org.I0Itec.zkclient.IDefaultNameSpace;
+import org.I0Itec.zkclient.IZkChildListener;
+import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.ZkServer;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.Watcher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 基于内嵌zookeeper的测试
+ *
+ * @author chi
+ */
+public class ZookeeperRegistryTest {
+
+    private File dir;
+    private ZkServer server;
+    private String address;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("zookeeper-registry-test").toFile();
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new ZkServer(dir + "/data", dir + "/log", new IDefaultNameSpace() {
+            @Override
+            public void createDefaultNameSpace(ZkClient zkClient) {
+            }
+        }, port);
+        server.start();
+        // 快照始终写入本次测试的临时目录，不写入用户目录，也不读取之前运行留下的快照
+        address = "zookeeper://127.0.0.1:" + port + "?notify.window=0&file=" + dir + "/snapshot.cache";
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir.toPath())) {
+            walk.forEach(paths::add);
+        }
+        Collections.reverse(paths);
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void updateInPlace() throws Exception {
+        updateInPlace(URL.valueOf(address));
+    }
+
+    @Test
+    public void updateInPlaceCompact() throws Exception {
+        updateInPlace(URL.valueOf(address + "&encoding=compact"));
+    }
+
+    @Test
+    public void subscribeAll() throws Exception {
+        URL registryUrl = URL.valueOf(address);
+        final ConcurrentMap<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+        ZookeeperClient client = new ZookeeperClient(registryUrl) {
+            @Override
+            public List<String> addChildListener(String path, IZkChildListener listener) {
+                fetches.putIfAbsent(path, new AtomicInteger());
+                fetches.get(path).incrementAndGet();
+                return super.addChildListener(path, listener);
+            }
+        };
+        ZookeeperRegistry provider = new ZookeeperRegistry(registryUrl);
+        ZookeeperRegistry consumer = new ZookeeperRegistry(registryUrl, new DefaultRegistryMetrics(), null, client);
+        try {
+            URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo");
+            URL other = URL.valueOf("dubbo://10.0.1.2:20880/other");
+            provider.register(url);
+            provider.register(other);
+
+            Map<URL, NotifyListener> subscriptions = new LinkedHashMap<>();
+            Map<URL, BlockingQueue<List<URL>>> received = new LinkedHashMap<>();
+            for (int i = 0; i < 3; i++) {
+                subscribe(subscriptions, received, URL.valueOf("consumer://10.0.0." + i + "/demo"));
+            }
+            subscribe(subscriptions, received, URL.valueOf("consumer://10.0.0.1/other"));
+            consumer.subscribeAll(subscriptions);
+
+            // 同一分类路径只注册一次监听并拉取一次
+            Assert.assertEquals(4, fetches.size());
+            for (Map.Entry<String, AtomicInteger> entry : fetches.entrySet()) {
+                Assert.assertEquals(entry.getKey(), 1, entry.getValue().get());
+            }
+            // 每个监听各收到一次首次通知
+            for (Map.Entry<URL, BlockingQueue<List<URL>>> entry : received.entrySet()) {
+                List<URL> urls = entry.getValue().poll(5, TimeUnit.SECONDS);
+                Assert.assertNotNull(entry.getKey().toString(), urls);
+                Assert.assertEquals(Collections.singletonList("demo".equals(entry.getKey().getService()) ? url : other), urls);
+                Assert.assertNull(entry.getValue().poll(200, TimeUnit.MILLISECONDS));
+            }
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void sharedPathWatcher() throws Exception {
+        URL registryUrl = URL.valueOf(address);
+        final ConcurrentMap<String, AtomicInteger> adds = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, AtomicInteger> removes = new ConcurrentHashMap<>();
+        ZookeeperRegistry provider = new ZookeeperRegistry(registryUrl);
+        ZookeeperRegistry consumer = new ZookeeperRegistry(registryUrl, new DefaultRegistryMetrics(), null, countingClient(registryUrl, adds, removes));
+        try {
+            URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo");
+            provider.register(url);
+            Map<URL, NotifyListener> subscriptions = new LinkedHashMap<>();
+            Map<URL, BlockingQueue<List<URL>>> received = new LinkedHashMap<>();
+            URL first = URL.valueOf("consumer://10.0.0.1/demo");
+            URL second = URL.valueOf("consumer://10.0.0.2/demo");
+            subscribe(subscriptions, received, first);
+            subscribe(subscriptions, received, second);
+            consumer.subscribe(first, subscriptions.get(first));
+            consumer.subscribe(second, subscriptions.get(second));
+            Assert.assertEquals(Collections.singletonList(url), received.get(first).poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Collections.singletonList(url), received.get(second).poll(5, TimeUnit.SECONDS));
+            // 两个订阅共用同一路径的监听
+            String providers = providersPath(adds);
+            Assert.assertEquals(1, adds.get(providers).get());
+
+            URL added = URL.valueOf("dubbo://10.0.1.2:20880/demo");
+            provider.register(added);
+            Assert.assertEquals(2, received.get(first).poll(5, TimeUnit.SECONDS).size());
+            Assert.assertEquals(2, received.get(second).poll(5, TimeUnit.SECONDS).size());
+
+            // 还有订阅时不移除监听，剩下的订阅继续收到变更
+            consumer.unSubscribe(first, subscriptions.get(first));
+            Assert.assertNull(removes.get(providers));
+            provider.unregister(added);
+            Assert.assertEquals(Collections.singletonList(url), received.get(second).poll(5, TimeUnit.SECONDS));
+            Assert.assertNull(received.get(first).poll(200, TimeUnit.MILLISECONDS));
+            consumer.unSubscribe(second, subscriptions.get(second));
+            Assert.assertEquals(1, removes.get(providers).get());
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void resubscribeAfterUnsubscribe() throws Exception {
+        URL registryUrl = URL.valueOf(address);
+        final ConcurrentMap<String, AtomicInteger> adds = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, AtomicInteger> removes = new ConcurrentHashMap<>();
+        ZookeeperRegistry provider = new ZookeeperRegistry(registryUrl);
+        ZookeeperRegistry consumer = new ZookeeperRegistry(registryUrl, new DefaultRegistryMetrics(), null, countingClient(registryUrl, adds, removes));
+        try {
+            URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo");
+            provider.register(url);
+            URL consumerUrl = URL.valueOf("consumer://10.0.0.1/demo");
+            Map<URL, NotifyListener> subscriptions = new LinkedHashMap<>();
+            Map<URL, BlockingQueue<List<URL>>> received = new LinkedHashMap<>();
+            subscribe(subscriptions, received, consumerUrl);
+            NotifyListener listener = subscriptions.get(consumerUrl);
+            BlockingQueue<List<URL>> queue = received.get(consumerUrl);
+
+            consumer.subscribe(consumerUrl, listener);
+            Assert.assertEquals(Collections.singletonList(url), queue.poll(5, TimeUnit.SECONDS));
+            consumer.unSubscribe(consumerUrl, listener);
+            String providers = providersPath(adds);
+            Assert.assertEquals(1, removes.get(providers).get());
+
+            // 关闭的监听不再复用，重新订阅时重新注册并拉取当前的结果
+            URL added = URL.valueOf("dubbo://10.0.1.2:20880/demo");
+            provider.register(added);
+            Assert.assertNull(queue.poll(200, TimeUnit.MILLISECONDS));
+            consumer.subscribe(consumerUrl, listener);
+            Assert.assertEquals(2, adds.get(providers).get());
+            Assert.assertEquals(2, queue.poll(5, TimeUnit.SECONDS).size());
+            provider.unregister(added);
+            Assert.assertEquals(Collections.singletonList(url), queue.poll(5, TimeUnit.SECONDS));
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void registerAndSubscribeAsync() throws Exception {
+        ZookeeperRegistry provider = new ZookeeperRegistry(URL.valueOf(address));
+        ZookeeperRegistry consumer = new ZookeeperRegistry(URL.valueOf(address));
+        try {
+            URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo");
+            provider.registerAsync(url).get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(provider.getRegistered().contains(url));
+
+            URL consumerUrl = URL.valueOf("consumer://10.0.0.1/demo");
+            Map<URL, NotifyListener> subscriptions = new LinkedHashMap<>();
+            Map<URL, BlockingQueue<List<URL>>> received = new LinkedHashMap<>();
+            subscribe(subscriptions, received, consumerUrl);
+            consumer.subscribeAsync(consumerUrl, subscriptions.get(consumerUrl)).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(Collections.singletonList(url), received.get(consumerUrl).poll(5, TimeUnit.SECONDS));
+
+            provider.unregisterAsync(url).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(Constants.EMPTY_PROTOCOL, received.get(consumerUrl).poll(5, TimeUnit.SECONDS).get(0).getProtocol());
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void asyncFailuresEnterRetrier() throws Exception {
+        URL registryUrl = URL.valueOf(address + "&retry.period=500&retry.max.period=1000");
+        // 只有异步接口失败
+        ZookeeperClient client = new ZookeeperClient(registryUrl) {
+            @Override
+            public CompletableFuture<Void> createAsync(String path, byte[] data, boolean ephemeral) {
+                return Futures.failed(new IllegalStateException("injected"));
+            }
+        };
+        ZookeeperRegistry registry = new ZookeeperRegistry(registryUrl, new DefaultRegistryMetrics(), null, client);
+        try {
+            URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo");
+            try {
+                registry.registerAsync(url).get(5, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RegistryException);
+            }
+            // 没有快照时订阅以失败结束，同样进入重试
+            URL consumerUrl = URL.valueOf("consumer://10.0.0.1/demo");
+            Map<URL, NotifyListener> subscriptions = new LinkedHashMap<>();
+            Map<URL, BlockingQueue<List<URL>>> received = new LinkedHashMap<>();
+            subscribe(subscriptions, received, consumerUrl);
+            try {
+                registry.subscribeAsync(consumerUrl, subscriptions.get(consumerUrl)).get(5, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RegistryException);
+            }
+            Map<String, Long> gauges = registry.getMetrics().snapshot().getGauges();
+            Assert.assertEquals(1L, (long) gauges.get(RegistryMetrics.RETRY_REGISTERED));
+            Assert.assertEquals(1L, (long) gauges.get(RegistryMetrics.RETRY_SUBSCRIBED));
+            Assert.assertFalse(registry.getRegistered().contains(url));
+
+            // 重试使用同步接口，注册和订阅都完成
+            long deadline = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < deadline) {
+                gauges = registry.getMetrics().snapshot().getGauges();
+                if (gauges.get(RegistryMetrics.RETRY_REGISTERED) == 0 && gauges.get(RegistryMetrics.RETRY_SUBSCRIBED) == 0) break;
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0L, (long) gauges.get(RegistryMetrics.RETRY_REGISTERED));
+            Assert.assertEquals(0L, (long) gauges.get(RegistryMetrics.RETRY_SUBSCRIBED));
+            Assert.assertTrue(registry.getRegistered().contains(url));
+            List<URL> urls = received.get(consumerUrl).poll(5, TimeUnit.SECONDS);
+            List<URL> next;
+            while ((next = received.get(consumerUrl).poll(200, TimeUnit.MILLISECONDS)) != null) {
+                urls = next;
+            }
+            Assert.assertEquals(Collections.singletonList(url), urls);
+        } finally {
+            registry.destroy();
+        }
+    }
+
+    @Test
+    public void coalesceAndBoundDataWatches() throws Exception {
+        URL registryUrl = URL.valueOf(address).withParameter(Constants.NOTIFY_WINDOW_KEY, "500").withParameter(Constants.DATA_WATCHES_KEY, "2");
+        final Set<String> watched = new ConcurrentHashSet<>();
+        ZookeeperClient client = new ZookeeperClient(registryUrl) {
+            @Override
+            public void getData(String path, Watcher watcher, AsyncCallback.DataCallback callback) {
+                watched.add(path);
+                super.getData(path, watcher, callback);
+            }
+        };
+        DefaultRegistryMetrics metrics = new DefaultRegistryMetrics();
+        ZookeeperRegistry provider = new ZookeeperRegistry(registryUrl);
+        ZookeeperRegistry consumer = new ZookeeperRegistry(registryUrl, metrics, null, client);
+        final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+        try {
+            List<URL> urls = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) {
+                URL url = URL.valueOf("dubbo://10.0.1." + i + ":20880/demo?weight=100&load=0");
+                provider.register(url);
+                urls.add(url);
+            }
+            consumer.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), new NotifyListener() {
+                @Override
+                public void notify(List<URL> urls) {
+                    if (Constants.PROVIDER_CATEGORY.equals(urls.get(0).getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY))) {
+                        received.add(urls);
+                    }
+                }
+            });
+            Assert.assertEquals(3, received.poll(5, TimeUnit.SECONDS).size());
+            // 每个分类路径最多监听两个节点的数据
+            Assert.assertEquals(2, watched.size());
+
+            long fanouts = fanouts(metrics);
+            for (URL url : urls) {
+                provider.update(url, Collections.singletonMap(Constants.LOAD_KEY, "4"));
+            }
+            List<URL> latest = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(latest);
+            Thread.sleep(1000);
+            // 窗口期内多个节点的数据变更只分发一次，未监听的节点保持新增时的负载
+            Assert.assertEquals(fanouts + 1, fanouts(metrics));
+            int updated = 0;
+            for (URL url : latest) {
+                if (url.getParameter(Constants.LOAD_KEY, 0) == 4) updated++;
+            }
+            Assert.assertEquals(2, updated);
+            Assert.assertNull(received.poll());
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void registerRightAfterCreate() throws Exception {
+        // 首次连接在异步线程中进行，创建后立即注册等待其结束而不是失败
+        for (int i = 0; i < 5; i++) {
+            ZookeeperRegistry registry = new ZookeeperRegistry(URL.valueOf(address));
+            try {
+                URL url = URL.valueOf("dubbo://10.0.1." + i + ":20880/demo");
+                registry.register(url);
+                Assert.assertTrue(registry.getRegistered().contains(url));
+                Assert.assertEquals(0, registry.getMetrics().snapshot().getGauges().get(RegistryMetrics.RETRY_REGISTERED).longValue());
+            } finally {
+                registry.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void selectorOnlyFiltersProviders() throws Exception {
+        ZookeeperRegistry registry = new ZookeeperRegistry(URL.valueOf(address));
+        final BlockingQueue<List<URL>> providers = new LinkedBlockingQueue<>();
+        final BlockingQueue<List<URL>> consumers = new LinkedBlockingQueue<>();
+        try {
+            URL v1 = URL.valueOf("dubbo://10.0.1.1:20880/demo?version=1.0");
+            registry.register(v1);
+            registry.register(URL.valueOf("dubbo://10.0.1.2:20880/demo?version=2.0"));
+            registry.subscribe(URL.valueOf("consumer://10.0.0.1/demo?select.version=1.0"), new NotifyListener() {
+                @Override
+                public void notify(List<URL> urls) {
+                    if (Constants.CONSUMER_CATEGORY.equals(urls.get(0).getParameter(Constants.CATEGORY_KEY))) {
+                        consumers.add(urls);
+                    } else {
+                        providers.add(urls);
+                    }
+                }
+            });
+            Assert.assertEquals(Collections.singletonList(v1), providers.poll(5, TimeUnit.SECONDS));
+            // 消费者节点上没有version参数，不按筛选条件过滤
+            List<URL> urls = consumers.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            Assert.assertEquals("consumer", urls.get(0).getProtocol());
+        } finally {
+            registry.destroy();
+        }
+    }
+
+    @Test
+    public void noRecoverWhileDisconnected() throws Exception {
+        final AtomicInteger recovers = new AtomicInteger();
+        ZookeeperRegistry registry = new ZookeeperRegistry(URL.valueOf(address + "&reconnect.period=20&reconnect.max.period=50")) {
+            @Override
+            protected void recover() throws Exception {
+                recovers.incrementAndGet();
+                super.recover();
+            }
+        };
+        try {
+            registry.register(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            server.shutdown();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (registry.isAvailable() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertFalse(registry.isAvailable());
+            // 断开期间的多次重连检查都不恢复
+            Thread.sleep(500);
+            Assert.assertEquals(0, recovers.get());
+        } finally {
+            registry.destroy();
+        }
+    }
+
+    @Test
+    public void subscribeFromSnapshotWhileDisconnected() throws Exception {
+        URL registryUrl = URL.valueOf(address + "&timeout=2000");
+        URL consumerUrl = URL.valueOf("consumer://10.0.0.1/demo");
+        URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo");
+        RegistrySnapshot saved = new RegistrySnapshot(registryUrl);
+        saved.save(consumerUrl, Constants.PROVIDER_CATEGORY, Collections.singletonList(url));
+        saved.destroy();
+        server.shutdown();
+
+        // 创建时不等待连接超时
+        long created = System.currentTimeMillis();
+        ZookeeperRegistry registry = new ZookeeperRegistry(registryUrl);
+        Assert.assertTrue(System.currentTimeMillis() - created < 1000);
+        Map<URL, NotifyListener> subscriptions = new LinkedHashMap<>();
+        Map<URL, BlockingQueue<List<URL>>> received = new LinkedHashMap<>();
+        subscribe(subscriptions, received, consumerUrl);
+        try {
+            Assert.assertFalse(registry.isAvailable());
+            // 有快照时不等待连接超时
+            long start = System.currentTimeMillis();
+            registry.subscribe(consumerUrl, subscriptions.get(consumerUrl));
+            Assert.assertTrue(System.currentTimeMillis() - start < 500);
+            Assert.assertEquals(Collections.singletonList(url), received.get(consumerUrl).poll(5, TimeUnit.SECONDS));
+        } finally {
+            registry.destroy();
+        }
+    }
+
+    // 记录各路径注册和移除子节点监听的次数
+    private static ZookeeperClient countingClient(URL registryUrl, final ConcurrentMap<String, AtomicInteger> adds,
+                                                  final ConcurrentMap<String, AtomicInteger> removes) {
+        return new ZookeeperClient(registryUrl) {
+            @Override
+            public List<String> addChildListener(String path, IZkChildListener listener) {
+                adds.putIfAbsent(path, new AtomicInteger());
+                adds.get(path).incrementAndGet();
+                return super.addChildListener(path, listener);
+            }
+
+            @Override
+            public void removeChildListener(String path, IZkChildListener listener) {
+                removes.putIfAbsent(path, new AtomicInteger());
+                removes.get(path).incrementAndGet();
+                super.removeChildListener(path, listener);
+            }
+        };
+    }
+
+    private static long fanouts(RegistryMetrics metrics) {
+        HistogramSnapshot histogram = metrics.snapshot().getHistograms().get(RegistryMetrics.NOTIFY_FANOUT);
+        return histogram == null ? 0 : histogram.getCount();
+    }
+
+    private static String providersPath(Map<String, AtomicInteger> paths) {
+        for (String path : paths.keySet()) {
+            if (path.endsWith("/" + Constants.PROVIDER_CATEGORY)) return path;
+        }
+        throw new AssertionError("providers path is not watched: " + paths.keySet());
+    }
+
+    private static void subscribe(Map<URL, NotifyListener> subscriptions, Map<URL, BlockingQueue<List<URL>>> received, URL url) {
+        final BlockingQueue<List<URL>> queue = new LinkedBlockingQueue<>();
+        subscriptions.put(url, new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                if (Constants.PROVIDER_CATEGORY.equals(urls.get(0).getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY))) {
+                    queue.add(urls);
+                }
+            }
+        });
+        received.put(url, queue);
+    }
+
+    private void updateInPlace(URL registryUrl) throws Exception {
+        ZookeeperRegistry provider = new ZookeeperRegistry(registryUrl);
+        ZookeeperRegistry consumer = new ZookeeperRegistry(registryUrl);
+        final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+        try {
+            URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo?weight=100&load=0");
+            provider.register(url);
+            consumer.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), new NotifyListener() {
+                @Override
+                public void notify(List<URL> urls) {
+                    if (Constants.PROVIDER_CATEGORY.equals(urls.get(0).getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY))) {
+                        received.add(urls);
+                    }
+                }
+            });
+            Assert.assertEquals(Collections.singletonList(url), received.poll(5, TimeUnit.SECONDS));
+
+            provider.update(url, Collections.singletonMap(Constants.LOAD_KEY, "4"));
+            List<URL> urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            Assert.assertEquals(4, urls.get(0).getParameter(Constants.LOAD_KEY, 0));
+            provider.update(url, Collections.singletonMap(Constants.LOAD_KEY, "8"));
+            Assert.assertEquals(8, received.poll(5, TimeUnit.SECONDS).get(0).getParameter(Constants.LOAD_KEY, 0));
+
+            // 节点不变，取消注册使用注册时的URL
+            provider.unregister(url);
+            Assert.assertEquals(Constants.EMPTY_PROTOCOL, received.poll(5, TimeUnit.SECONDS).get(0).getProtocol());
+        } finally {
+            provider.destroy();
+            consumer.destroy();
+        }
+    }
+}
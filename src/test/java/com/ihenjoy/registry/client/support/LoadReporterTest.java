@@ -0,0 +1,149 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.RegistryConfig;
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.api.ServiceSnapshot;
+import com.ihenjoy.registry.client.common.Constants;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.provider.memory.MemoryRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author chi
+ */
+public class LoadReporterTest {
+
+    @Test
+    public void coalesceAndUpdateInPlace() throws Exception {
+        MemoryRegistry registry = new MemoryRegistry(URL.valueOf("memory://load-reporter-test:0?notify.window=0"));
+        URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo?weight=100&load=0");
+        registry.register(url);
+        final BlockingQueue<List<URL>> received = new LinkedBlockingQueue<>();
+        registry.subscribe(URL.valueOf("consumer://10.0.0.1/demo"), new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                if (Constants.PROVIDER_CATEGORY.equals(urls.get(0).getParameter(Constants.CATEGORY_KEY, Constants.PROVIDER_CATEGORY))) {
+                    received.add(urls);
+                }
+            }
+        });
+        Assert.assertEquals(url, received.poll(5, TimeUnit.SECONDS).get(0));
+        LoadReporter reporter = new LoadReporter(registry, url, 200);
+        try {
+            reporter.start();
+            // 同一个桶内的变化不发布
+            reporter.setInflight(5);
+            reporter.setInflight(6);
+            reporter.setInflight(7);
+            reporter.setWeight(50);
+            List<URL> urls = received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals(1, urls.size());
+            URL published = urls.get(0);
+            Assert.assertEquals(published, reporter.getUrl());
+            Assert.assertEquals(50, published.getParameter("weight", 0));
+            Assert.assertEquals(4, published.getParameter("load", 0));
+            Thread.sleep(300);
+            Assert.assertNull(received.poll());
+            // 注册的URL不变，取消注册后提供者消失
+            Assert.assertTrue(registry.getRegistered().contains(url));
+            Assert.assertFalse(registry.getRegistered().contains(published));
+            registry.unregister(url);
+            Assert.assertEquals(Constants.EMPTY_PROTOCOL, received.poll(5, TimeUnit.SECONDS).get(0).getProtocol());
+        } finally {
+            reporter.close();
+            registry.destroy();
+        }
+    }
+
+    @Test
+    public void deferredWarmupStartsAtFlush() throws Exception {
+        MemoryRegistry registry = new MemoryRegistry(URL.valueOf("memory://deferred-warmup-test:0?notify.window=0"));
+        RegistryConfig config = new RegistryConfig(registry, 8080, true);
+        LoadReporter reporter = config.registerWithLoad(URL.valueOf("dubbo://10.0.1.1:20880/demo"), 60000);
+        try {
+            long deferred = Long.parseLong(reporter.getRegisteredUrl().getParameter(Constants.START_KEY));
+            Thread.sleep(50);
+            config.flush().get(5, TimeUnit.SECONDS);
+            // 预热从提交注册时开始
+            URL url = reporter.getRegisteredUrl();
+            Assert.assertTrue(Long.parseLong(url.getParameter(Constants.START_KEY)) >= deferred + 50);
+            Assert.assertEquals(url, reporter.getUrl());
+            Assert.assertTrue(registry.getRegistered().contains(url));
+        } finally {
+            reporter.close();
+            registry.destroy();
+        }
+    }
+
+    @Test
+    public void stopWhenUpdateNotSupported() throws Exception {
+        final AtomicInteger updates = new AtomicInteger();
+        MemoryRegistry registry = new MemoryRegistry(URL.valueOf("memory://update-unsupported-test:0?notify.window=0")) {
+            @Override
+            public void update(URL url, Map<String, String> parameters) {
+                updates.incrementAndGet();
+                throw new UnsupportedOperationException("update");
+            }
+        };
+        URL url = URL.valueOf("dubbo://10.0.1.1:20880/demo?weight=100&load=0");
+        registry.register(url);
+        LoadReporter reporter = new LoadReporter(registry, url, 50);
+        try {
+            reporter.start();
+            reporter.setInflight(8);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (updates.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, updates.get());
+            // 不支持更新时停止发布，之后的变化不再尝试
+            reporter.setInflight(64);
+            Thread.sleep(300);
+            Assert.assertEquals(1, updates.get());
+            Assert.assertEquals(url, reporter.getUrl());
+        } finally {
+            reporter.close();
+            registry.destroy();
+        }
+    }
+
+    @Test
+    public void effectiveWeight() {
+        long now = System.currentTimeMillis();
+        Assert.assertEquals(100, ServiceSnapshot.getWeight(URL.valueOf("dubbo://10.0.1.1:20880/demo"), now));
+        Assert.assertEquals(50, ServiceSnapshot.getWeight(URL.valueOf("dubbo://10.0.1.1:20880/demo?warmup=1000&start=" + (now - 500)), now));
+        Assert.assertEquals(100, ServiceSnapshot.getWeight(URL.valueOf("dubbo://10.0.1.1:20880/demo?warmup=1000&start=" + (now - 5000)), now));
+        Assert.assertTrue(ServiceSnapshot.getWeight(URL.valueOf("dubbo://10.0.1.1:20880/demo?load=64"), now) < 50);
+        Assert.assertEquals(0, ServiceSnapshot.getWeight(URL.valueOf("dubbo://10.0.1.1:20880/demo?weight=0"), now));
+    }
+
+    @Test
+    public void weightedWithoutOverflow() {
+        URL heavy = URL.valueOf("dubbo://10.0.1.1:20880/demo?weight=" + Integer.MAX_VALUE + "&group=a");
+        URL other = URL.valueOf("dubbo://10.0.1.2:20880/demo?weight=" + Integer.MAX_VALUE + "&load=64&group=a");
+        URL zero = URL.valueOf("dubbo://10.0.1.3:20880/demo?weight=0&group=b");
+        ServiceSnapshot snapshot = ServiceSnapshot.build("demo", 1,
+                Collections.singletonMap(Constants.PROVIDER_CATEGORY, Arrays.asList(heavy, other, zero)), "group");
+        int heavyCount = 0;
+        for (int i = 0; i < 1000; i++) {
+            URL selected = snapshot.weighted();
+            // 权重和超过int时不溢出，权重为0的节点不被选中
+            Assert.assertNotSame(zero, selected);
+            if (selected == heavy) heavyCount++;
+            Assert.assertNotSame(zero, snapshot.weighted("group", "a"));
+        }
+        Assert.assertTrue(heavyCount > 500);
+        Assert.assertSame(zero, snapshot.weighted("group", "b"));
+        Assert.assertNull(snapshot.weighted("group", "c"));
+    }
+}
@@ -0,0 +1,200 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.api.NotifyListener;
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.metrics.DefaultRegistryMetrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author chi
+ */
+public class NotifyDispatcherTest {
+
+    private final NotifyDispatcher dispatcher = new NotifyDispatcher(URL.valueOf("zookeeper://127.0.0.1:2181?notify.window=50"), new DefaultRegistryMetrics());
+    private final URL consumer = URL.valueOf("consumer://10.0.0.1/demo");
+
+    @After
+    public void tearDown() {
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void coalesceBurst() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<List<URL>> received = new CopyOnWriteArrayList<>();
+        NotifyListener listener = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                received.add(urls);
+                latch.countDown();
+            }
+        };
+        dispatcher.add(consumer, listener);
+        List<URL> urls = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            urls.add(URL.valueOf("dubbo://10.0.1." + i + ":20880/demo"));
+            dispatcher.dispatch(consumer, listener, "providers", new ArrayList<>(urls));
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        Assert.assertEquals(1, received.size());
+        Assert.assertEquals(100, received.get(0).size());
+    }
+
+    @Test
+    public void skipUnchanged() {
+        final List<List<URL>> received = new ArrayList<>();
+        NotifyListener listener = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                received.add(urls);
+            }
+        };
+        List<URL> urls = Collections.singletonList(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+        dispatcher.add(consumer, listener);
+        dispatcher.notify(consumer, listener, "providers", urls);
+        dispatcher.notify(consumer, listener, "providers", urls);
+        Assert.assertEquals(1, received.size());
+    }
+
+    @Test
+    public void dropAfterRemove() throws Exception {
+        final List<List<URL>> received = new CopyOnWriteArrayList<>();
+        NotifyListener listener = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                received.add(urls);
+            }
+        };
+        List<URL> urls = Collections.singletonList(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+        dispatcher.add(consumer, listener);
+        // 窗口期内取消订阅，已排队的变更不再投递
+        dispatcher.dispatch(consumer, listener, "providers", urls);
+        dispatcher.remove(consumer, listener);
+        // 取消后迟到的变更和首次通知都不会重新创建队列
+        dispatcher.dispatch(consumer, listener, "providers", urls);
+        dispatcher.notify(consumer, listener, "providers", urls);
+        dispatcher.dispatch(consumer, listener, "providers", urls);
+        Thread.sleep(200);
+        Assert.assertTrue(received.isEmpty());
+
+        // 重新订阅后正常投递
+        final CountDownLatch latch = new CountDownLatch(1);
+        NotifyListener again = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                latch.countDown();
+            }
+        };
+        dispatcher.add(consumer, again);
+        dispatcher.dispatch(consumer, again, "providers", urls);
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void blockingListenerDoesNotDelayOthers() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        NotifyDispatcher shared = new NotifyDispatcher(URL.valueOf("zookeeper://127.0.0.1:2181?notify.window=0"), new DefaultRegistryMetrics(), executor);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final CountDownLatch fast = new CountDownLatch(1);
+        NotifyListener blocking = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                order.add(urls.size());
+            }
+        };
+        NotifyListener other = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                fast.countDown();
+            }
+        };
+        try {
+            shared.add(consumer, blocking);
+            shared.add(consumer, other);
+            List<URL> urls = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                urls.add(URL.valueOf("dubbo://10.0.1." + i + ":20880/demo"));
+                shared.dispatch(consumer, blocking, "providers", new ArrayList<>(urls));
+            }
+            shared.dispatch(consumer, other, "providers", urls);
+            Assert.assertTrue(fast.await(2, TimeUnit.SECONDS));
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!order.contains(3) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // 同一监听器按顺序执行，阻塞期间的变更合并为最新状态
+            Assert.assertEquals(Integer.valueOf(3), order.get(order.size() - 1));
+            for (int i = 1; i < order.size(); i++) {
+                Assert.assertTrue(order.get(i - 1) < order.get(i));
+            }
+        } finally {
+            shared.destroy();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void saturatedPoolDoesNotRunOnCaller() throws Exception {
+        NotifyDispatcher saturated = new NotifyDispatcher(URL.valueOf("zookeeper://127.0.0.1:2181?notify.window=0&notify.threads=1&notify.queues=1"), new DefaultRegistryMetrics());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        final CountDownLatch delivered = new CountDownLatch(2);
+        NotifyListener blocking = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        NotifyListener recording = new NotifyListener() {
+            @Override
+            public void notify(List<URL> urls) {
+                threads.add(Thread.currentThread());
+                delivered.countDown();
+            }
+        };
+        try {
+            saturated.add(consumer, blocking);
+            saturated.add(URL.valueOf("consumer://10.0.0.2/demo"), recording);
+            saturated.add(URL.valueOf("consumer://10.0.0.3/demo"), recording);
+            List<URL> urls = Collections.singletonList(URL.valueOf("dubbo://10.0.1.1:20880/demo"));
+            saturated.dispatch(consumer, blocking, "providers", urls);
+            Assert.assertTrue(started.await(2, TimeUnit.SECONDS));
+            // 唯一的线程被占用，队列只容纳一个，第三个被拒绝
+            saturated.dispatch(URL.valueOf("consumer://10.0.0.2/demo"), recording, "providers", urls);
+            saturated.dispatch(URL.valueOf("consumer://10.0.0.3/demo"), recording, "providers", urls);
+            Assert.assertTrue(threads.isEmpty());
+
+            release.countDown();
+            Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            Assert.assertFalse(threads.contains(Thread.currentThread()));
+        } finally {
+            saturated.destroy();
+        }
+    }
+}
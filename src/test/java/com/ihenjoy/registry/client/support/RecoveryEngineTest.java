@@ -0,0 +1,109 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.common.URL;
+import com.ihenjoy.registry.client.metrics.DefaultRegistryMetrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author chi
+ */
+public class RecoveryEngineTest {
+
+    private final RecoveryEngine engine = new RecoveryEngine(
+            URL.valueOf("zookeeper://127.0.0.1:2181?recover.threads=4&recover.rate=0&recover.jitter=0"), new DefaultRegistryMetrics());
+
+    @After
+    public void tearDown() {
+        engine.destroy();
+    }
+
+    @Test
+    public void registerBeforeSubscribe() throws Exception {
+        final AtomicInteger registered = new AtomicInteger();
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final AtomicInteger early = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(20);
+        List<Runnable> registrations = new ArrayList<>();
+        List<Runnable> subscriptions = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            registrations.add(new Runnable() {
+                @Override
+                public void run() {
+                    int n = concurrent.incrementAndGet();
+                    maxConcurrent.set(Math.max(maxConcurrent.get(), n));
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    concurrent.decrementAndGet();
+                    registered.incrementAndGet();
+                }
+            });
+            subscriptions.add(new Runnable() {
+                @Override
+                public void run() {
+                    if (registered.get() < 20) early.incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        engine.recover(registrations, subscriptions);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, early.get());
+        Assert.assertTrue(maxConcurrent.get() <= 4);
+    }
+
+    @Test
+    public void destroyDuringRecovery() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger subscribed = new AtomicInteger();
+        List<Runnable> registrations = new ArrayList<>();
+        registrations.add(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        List<Runnable> subscriptions = new ArrayList<>();
+        subscriptions.add(new Runnable() {
+            @Override
+            public void run() {
+                subscribed.incrementAndGet();
+            }
+        });
+        engine.recover(registrations, subscriptions);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        // 销毁后正在进行的一轮不再提交订阅，新一轮直接放弃
+        engine.destroy();
+        release.countDown();
+        engine.recover(registrations, subscriptions);
+        Thread.sleep(200);
+        Assert.assertEquals(0, subscribed.get());
+    }
+
+    @Test
+    public void rateLimit() throws Exception {
+        RateLimiter limiter = new RateLimiter(100);
+        long start = System.nanoTime();
+        for (int i = 0; i < 21; i++) {
+            limiter.acquire();
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 190);
+    }
+}
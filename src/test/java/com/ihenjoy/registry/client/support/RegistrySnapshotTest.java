@@ -0,0 +1,76 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.common.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author chi
+ */
+public class RegistrySnapshotTest {
+
+    @Test
+    public void reloadLastSaved() throws Exception {
+        File file = File.createTempFile("registry", ".cache");
+        file.deleteOnExit();
+        URL registry = URL.valueOf("zookeeper://127.0.0.1:2181?file=" + file.getPath());
+        URL consumer = URL.valueOf("consumer://10.0.0.1/demo?category=providers");
+        URL a = URL.valueOf("dubbo://10.0.0.2:20880/demo?category=providers&version=1.0");
+        URL b = URL.valueOf("dubbo://10.0.0.3:20880/demo?category=providers&version=1.0");
+
+        RegistrySnapshot snapshot = new RegistrySnapshot(registry);
+        snapshot.save(consumer, "providers", Arrays.asList(a, b));
+        snapshot.save(consumer, "providers", Collections.singletonList(b));
+        snapshot.destroy();
+
+        RegistrySnapshot reloaded = new RegistrySnapshot(registry);
+        Assert.assertEquals(Collections.singletonList(b), reloaded.get(consumer));
+        reloaded.destroy();
+    }
+
+    @Test
+    public void compactKeepsOtherInstances() throws Exception {
+        File file = File.createTempFile("registry", ".cache");
+        file.deleteOnExit();
+        new File(file.getPath() + ".lock").deleteOnExit();
+        URL registry = URL.valueOf("zookeeper://127.0.0.1:2181?file=" + file.getPath());
+        URL consumerA = URL.valueOf("consumer://10.0.0.1/demo?category=providers");
+        URL consumerB = URL.valueOf("consumer://10.0.0.2/other?category=providers");
+        URL a1 = URL.valueOf("dubbo://10.0.0.3:20880/demo?category=providers");
+        URL a2 = URL.valueOf("dubbo://10.0.0.4:20880/demo?category=providers");
+        URL b = URL.valueOf("dubbo://10.0.0.5:20880/other?category=providers");
+
+        // 两个实例共用文件，相当于两个进程
+        RegistrySnapshot first = new RegistrySnapshot(registry);
+        RegistrySnapshot second = new RegistrySnapshot(registry);
+        second.save(consumerB, "providers", Collections.singletonList(b));
+        second.destroy();
+        // 其他进程写入的大量过期记录，本实例的行数不包含这些
+        Writer out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+        try {
+            for (int i = 0; i < 2000; i++) {
+                out.write(URL.encode(consumerA.toFullString()) + "\tproviders\t" + URL.encode(a1.toFullString()) + "\n");
+            }
+        } finally {
+            out.close();
+        }
+        first.save(consumerA, "providers", Collections.singletonList(a2));
+        first.destroy();
+
+        // 按实际行数重写，另一个实例的记录保留
+        Assert.assertTrue(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size() < 10);
+        RegistrySnapshot reloaded = new RegistrySnapshot(registry);
+        Assert.assertEquals(Collections.singletonList(a2), reloaded.get(consumerA));
+        Assert.assertEquals(Collections.singletonList(b), reloaded.get(consumerB));
+        reloaded.destroy();
+    }
+}
@@ -0,0 +1,94 @@
+package com.ihenjoy.registry.client.support;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author chi
+ */
+public class RetrierTest {
+
+    @Test
+    public void backoffGrowsToMax() {
+        Backoff backoff = new Backoff(100, 1000);
+        for (int i = 0; i < 100; i++) {
+            long first = backoff.delay(0);
+            Assert.assertTrue(first >= 50 && first <= 100);
+            long third = backoff.delay(2);
+            Assert.assertTrue(third >= 200 && third <= 400);
+            long capped = backoff.delay(40);
+            Assert.assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void retryUntilSuccess() throws Exception {
+        Retrier retrier = new Retrier(new Backoff(10, 20));
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (runs.incrementAndGet() < 3) throw new IllegalStateException("not yet");
+                done.countDown();
+            }
+        };
+        retrier.retry(task);
+        // 已在重试中，不重复提交
+        retrier.retry(task);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(3, runs.get());
+        Assert.assertEquals(0, retrier.size());
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        Retrier retrier = new Retrier(new Backoff(50, 50));
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        retrier.retry(task);
+        retrier.cancel(task);
+        Thread.sleep(150);
+        Assert.assertEquals(0, runs.get());
+        Assert.assertFalse(retrier.contains(task));
+    }
+
+    @Test
+    public void resubmitWhenRejected() throws Exception {
+        final AtomicInteger rejects = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread[] ran = new Thread[1];
+        // 前两次提交被拒绝
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (rejects.incrementAndGet() <= 2) throw new RejectedExecutionException("full");
+                new Thread(command, "RetrierTestWorker").start();
+            }
+        };
+        Retrier retrier = new Retrier(new Backoff(10, 20), executor);
+        retrier.retry(new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = Thread.currentThread();
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        // 被拒绝时不在调度线程上执行
+        Assert.assertEquals("RetrierTestWorker", ran[0].getName());
+        Assert.assertEquals(3, rejects.get());
+    }
+}
@@ -0,0 +1,52 @@
+package com.ihenjoy.registry.client.support;
+
+import com.ihenjoy.registry.client.api.NotifyEvent;
+import com.ihenjoy.registry.client.api.ServiceSnapshot;
+import com.ihenjoy.registry.client.common.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author chi
+ */
+public class ServiceSnapshotListenerTest {
+
+    private final URL consumer = URL.valueOf("consumer://10.0.0.1/demo");
+
+    @Test
+    public void groupAndSwap() {
+        ServiceSnapshotListener listener = new ServiceSnapshotListener("demo", "version");
+        ServiceSnapshot empty = listener.get();
+        Assert.assertTrue(empty.isEmpty());
+        Assert.assertNull(empty.random());
+
+        List<URL> providers = Arrays.asList(
+                URL.valueOf("dubbo://10.0.1.1:20880/demo?version=1.0"),
+                URL.valueOf("dubbo://10.0.1.2:20880/demo?version=1.0"),
+                URL.valueOf("dubbo://10.0.1.3:20880/demo?version=2.0"));
+        listener.notify(NotifyEvent.diff(consumer, "providers", 1, null, providers));
+        ServiceSnapshot snapshot = listener.get();
+        Assert.assertEquals(1, snapshot.getVersion());
+        Assert.assertEquals(3, snapshot.getProviders().length);
+        Assert.assertEquals(2, snapshot.getProviders("version", "1.0").length);
+        Assert.assertEquals(0, snapshot.getProviders("version", "3.0").length);
+
+        Set<URL> picked = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            picked.add(snapshot.roundRobin());
+        }
+        Assert.assertEquals(3, picked.size());
+
+        // 提供者分类为空时通知empty协议的URL
+        listener.notify(Collections.singletonList(consumer.withProtocol("empty").withParameter("category", "providers")));
+        Assert.assertTrue(listener.get().isEmpty());
+        // 旧快照不受影响
+        Assert.assertEquals(3, snapshot.getProviders().length);
+    }
+}
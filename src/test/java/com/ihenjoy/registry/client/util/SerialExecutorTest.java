@@ -0,0 +1,101 @@
+package com.ihenjoy.registry.client.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author chi
+ */
+public class SerialExecutorTest {
+
+    @Test
+    public void resubmitOthersWhenRejected() throws Exception {
+        // 被拒绝的任务不执行，提交期间加入的任务重新提交后执行
+        Assert.assertEquals(Collections.singletonList("second"), run(1));
+    }
+
+    @Test
+    public void dropOthersWhenRejectedAgain() throws Exception {
+        // 重新提交仍被拒绝时全部丢弃，之后的任务正常执行
+        Assert.assertEquals(Collections.emptyList(), run(2));
+    }
+
+    /**
+     * 第一个任务提交时，底层执行器在拒绝前等待第二个任务加入队列，之后再提交一个任务确认队列可用
+     *
+     * @param rejects 底层执行器依次拒绝的次数
+     * @return 确认之前已执行的任务
+     */
+    private static List<String> run(final int rejects) throws Exception {
+        final CountDownLatch submitting = new CountDownLatch(1);
+        final CountDownLatch queued = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final SerialExecutor serial = new SerialExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                int call = calls.incrementAndGet();
+                if (call == 1) {
+                    submitting.countDown();
+                    try {
+                        queued.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (call <= rejects) throw new RejectedExecutionException("saturated");
+                new Thread(command).start();
+            }
+        });
+        final List<String> ran = new CopyOnWriteArrayList<>();
+        final AtomicReference<Throwable> rejected = new AtomicReference<>();
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serial.execute(task(ran, "first"));
+                } catch (RejectedExecutionException e) {
+                    rejected.set(e);
+                }
+            }
+        });
+        first.start();
+        Assert.assertTrue(submitting.await(5, TimeUnit.SECONDS));
+        serial.execute(task(ran, "second"));
+        queued.countDown();
+        first.join(5000);
+        Assert.assertNotNull(rejected.get());
+
+        // 不依赖之后的提交
+        Thread.sleep(200);
+        List<String> before = new ArrayList<>(ran);
+        final CountDownLatch done = new CountDownLatch(1);
+        serial.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        return before;
+    }
+
+    private static Runnable task(final List<String> ran, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+}